@@ -4,6 +4,7 @@ plugins {
     kotlin("jvm") version "1.9.22"
     id("org.jetbrains.compose") version "1.6.1"
     id("com.github.johnrengelman.shadow") version "8.1.1"
+    id("me.champeau.jmh") version "0.7.2"
     idea
 }
 
@@ -77,6 +78,50 @@ tasks.named<ShadowJar>("shadowJar") {
     exclude("META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA")
 }
 
+// JMH 基准测试：源码位于 src/jmh/java，运行 ./gradlew jmh，结果写入 build/results/jmh/results.json
+// 只跑部分基准：./gradlew jmh -PjmhIncludes=UdpCodec
+jmh {
+    jmhVersion.set("1.37")
+    // 固定轮次、堆大小与单次 fork，同一台机器上的多次运行可以直接对比
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("2s")
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    jvmArgs.addAll("-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch", "-Dfile.encoding=UTF-8")
+    // gc 分析器输出每次操作的分配字节数 (gc.alloc.rate.norm)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    duplicateClassesStrategy.set(DuplicatesStrategy.EXCLUDE)
+    (project.findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
+
+// 负载测试：本机替身服务端 + 独立进程的客户端 + 访客负载，源码位于 src/loadtest/java
+// 运行 ./gradlew loadTest --args="--rate=500 --duration=60 --profile=mixed"，参数说明见 LoadGenerator
+sourceSets {
+    create("loadtest") {
+        java.srcDir("src/loadtest/java")
+        compileClasspath += sourceSets.main.get().output + configurations.runtimeClasspath.get()
+        runtimeClasspath += output + compileClasspath
+    }
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the NeoLink load generator against a local stand-in NeoServer."
+    classpath = sourceSets["loadtest"].runtimeClasspath
+    mainClass.set("neoproxy.neolink.loadtest.LoadGenerator")
+    maxHeapSize = "1g"
+}
+
+// 原生 UDP 传输加密层自检 (防重放窗口与 seal / open 往返)，不需要网络，失败时任务失败
+tasks.register<JavaExec>("datagramSelfCheck") {
+    group = "verification"
+    description = "Checks the datagram replay window and the seal/open round-trip."
+    classpath = sourceSets["loadtest"].runtimeClasspath
+    mainClass.set("neoproxy.neolink.loadtest.DatagramSelfCheck")
+}
+
 // 编译编码修复
 tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
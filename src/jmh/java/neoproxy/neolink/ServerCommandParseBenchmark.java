@@ -0,0 +1,39 @@
+package neoproxy.neolink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hook 线程收到服务端指令（":>" 之后的部分）后的拆分与分发，即读取下一条指令之前 hook 线程本身要付出的开销。
+ * <p>
+ * 只覆盖不建立连接的分支：端口更新、特性应答，以及 TCP / UDP 被关闭时的 sendSocket 指令（拆分后即被丢弃）。
+ * 开启时 sendSocket 会把建连任务交给 TunnelExecutor 并立即连接本地服务与 NeoServer，
+ * 以基准的频率提交只会堆积任务，测不出有意义的数字；建连各阶段的耗时见负载测试与 SetupTrace 的 JFR 事件。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerCommandParseBenchmark {
+    @Param({"45678", "features;MZ", "sendSocketTCP;8f3c1a27;203.0.113.7:51234", "sendSocketUDP;8f3c1a28;203.0.113.7:51235"})
+    public String command;
+
+    @Setup
+    public void setUp() {
+        NeoLink.isDisableTCP = true;
+        NeoLink.isDisableUDP = true;
+    }
+
+    @Benchmark
+    public int handle() {
+        NeoLink.handleServerCommand(command);
+        return NeoLink.remotePort;
+    }
+}
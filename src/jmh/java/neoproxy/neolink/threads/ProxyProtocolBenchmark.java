@@ -0,0 +1,45 @@
+package neoproxy.neolink.threads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条 TCP 隧道的第一帧都要做一次 Proxy Protocol v2 签名检查：真实的 PPv2 头、普通 HTTP 请求和不足 12 字节的短帧。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProxyProtocolBenchmark {
+    @Param({"ppv2", "http", "short"})
+    public String firstFrame;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        data = switch (firstFrame) {
+            // 签名 + v2 PROXY + TCP over IPv4 + 12 字节地址：203.0.113.7:51234 -> 10.0.0.1:25565
+            case "ppv2" -> new byte[]{
+                    0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A,
+                    0x21, 0x11, 0x00, 0x0C,
+                    (byte) 203, 0, 113, 7, 10, 0, 0, 1,
+                    (byte) 0xC8, 0x22, 0x63, (byte) 0xDD};
+            case "http" -> "GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+            default -> new byte[]{0x16, 0x03, 0x01, 0x00, 0x05};
+        };
+    }
+
+    @Benchmark
+    public boolean check() {
+        return TCPTransformer.isProxyProtocolV2Signature(data, 0, data.length);
+    }
+}
@@ -0,0 +1,138 @@
+package neoproxy.neolink.threads;
+
+import fun.ceroxe.api.net.SecureServerSocket;
+import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.channel.TransferChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回环地址上一条完整 TCP 隧道的吞吐：本地应用 Socket <-> TCPTransformer <-> SecureSocket <-> 本地 Neo 对端。
+ * 每次操作向一端写入 chunkSize 字节，等另一端收齐后返回，因此吞吐 × chunkSize 即为字节速率，
+ * gc 分析器给出的 gc.alloc.rate.norm 即每次操作的分配量。全程只使用 127.0.0.1，不需要网络。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TcpTransferBenchmark {
+    // 与服务端转发时的帧大小相当，也低于 SecureTransferChannel.MAX_FRAME_LENGTH
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    @Param({"1024", "16384", "1048576"})
+    public int chunkSize;
+
+    private byte[] payload;
+    private byte[] readBuffer;
+    private Socket appSocket;
+    private Socket backendSocket;
+    private SecureSocket neoClient;
+    private SecureSocket neoPeer;
+    private OutputStream appOutput;
+    private InputStream appInput;
+    private final AtomicLong drainedBytes = new AtomicLong(0);
+    private long uploadTarget = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        payload = new byte[chunkSize];
+        new Random(42).nextBytes(payload); // 固定种子，随机内容不会被误判为 Proxy Protocol 头
+        readBuffer = new byte[chunkSize];
+
+        // Neo 侧：本地的 SecureServerSocket 充当服务端
+        int neoPort = freePort();
+        SecureServerSocket neoServer = new SecureServerSocket(neoPort);
+        try {
+            CompletableFuture<SecureSocket> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return neoServer.accept();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            neoClient = new SecureSocket(InetAddress.getLoopbackAddress().getHostAddress(), neoPort);
+            neoPeer = accepted.get(10, TimeUnit.SECONDS);
+        } finally {
+            neoServer.close();
+        }
+
+        // 本地侧：一对普通的回环 Socket，appSocket 扮演本地应用，backendSocket 交给隧道
+        try (ServerSocket localServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            appSocket = new Socket(InetAddress.getLoopbackAddress(), localServer.getLocalPort());
+            backendSocket = localServer.accept();
+        }
+        appOutput = appSocket.getOutputStream();
+        appInput = appSocket.getInputStream();
+
+        TransferChannel channel = new SecureTransferChannel(neoClient);
+        startDaemon("bench-upload", new TCPTransformer(backendSocket, channel, false));
+        startDaemon("bench-download", new TCPTransformer(channel, backendSocket, false));
+        startDaemon("bench-neo-drain", () -> {
+            try {
+                byte[] frame;
+                while ((frame = neoPeer.receiveByte()) != null) drainedBytes.addAndGet(frame.length);
+            } catch (IOException ignore) {
+                // 拆除时关闭连接
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        InternetOperator.close(appSocket, backendSocket, neoClient, neoPeer);
+    }
+
+    /**
+     * 本地 -> Neo：应用写入，Neo 对端收齐。
+     */
+    @Benchmark
+    public long upload() throws IOException {
+        appOutput.write(payload);
+        uploadTarget += chunkSize;
+        while (drainedBytes.get() < uploadTarget) Thread.onSpinWait();
+        return uploadTarget;
+    }
+
+    /**
+     * Neo -> 本地：Neo 对端按不超过 FRAME_SIZE 的帧发送，应用收齐。
+     */
+    @Benchmark
+    public int download() throws IOException {
+        for (int offset = 0; offset < chunkSize; offset += FRAME_SIZE) {
+            neoPeer.sendByte(payload, offset, Math.min(FRAME_SIZE, chunkSize - offset));
+        }
+        return appInput.readNBytes(readBuffer, 0, chunkSize);
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package neoproxy.neolink.threads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP 数据报与传输帧之间的序列化 / 反序列化，覆盖常见的包大小与两种地址族。
+ * serialize / deserialize 为独立帧的编解码，encodeInPlace / decodeInto 为转发路径实际使用的就地编解码；
+ * 配合 gc 分析器的 gc.alloc.rate.norm 即为每个数据报分配的字节数，就地编解码应为 0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UdpCodecBenchmark {
+    @Param({"64", "512", "1400", "8192"})
+    public int payloadSize;
+
+    @Param({"ipv4", "ipv6"})
+    public String family;
+
+    private DatagramPacket packet;
+    private byte[] serialized;
+    private DatagramPacket received; // 负载位于预留的帧头空间之后，与接收缓冲区的布局一致
+    private final UDPTransformer.InPlaceEncoder encoder = new UDPTransformer.InPlaceEncoder();
+    private final DatagramPacket outgoing = new DatagramPacket(new byte[0], 0);
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        InetAddress address = "ipv6".equals(family)
+                ? InetAddress.getByName("2001:db8::7")
+                : InetAddress.getByName("203.0.113.7");
+        packet = new DatagramPacket(payload, payload.length, address, 51234);
+        serialized = UDPTransformer.serializeDatagramPacket(packet);
+        byte[] receiveBuffer = new byte[UDPTransformer.MAX_HEADER_LENGTH + payloadSize];
+        System.arraycopy(payload, 0, receiveBuffer, UDPTransformer.MAX_HEADER_LENGTH, payloadSize);
+        received = new DatagramPacket(receiveBuffer, UDPTransformer.MAX_HEADER_LENGTH, payloadSize, address, 51234);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return UDPTransformer.serializeDatagramPacket(packet);
+    }
+
+    @Benchmark
+    public DatagramPacket deserialize() {
+        return UDPTransformer.deserializeToDatagramPacket(serialized, 0, serialized.length);
+    }
+
+    @Benchmark
+    public int encodeInPlace() {
+        return encoder.encode(received);
+    }
+
+    @Benchmark
+    public boolean decodeInto() {
+        return UDPTransformer.decodeInto(serialized, 0, serialized.length, outgoing);
+    }
+}
@@ -0,0 +1,168 @@
+package neoproxy.neolink.loadtest;
+
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.dgram.DatagramCrypto;
+import neoproxy.neolink.dgram.DatagramFrame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 替身服务端的原生 UDP 传输端点（特性 D），与替身一样同时只服务一个客户端：
+ * 每次 Hook 握手生成新的令牌与密钥并经 Hook 下发，收到的包经 {@link DatagramCrypto} 认证与防重放检查后按类型交给 Listener，
+ * 回复总是发往最近一个通过认证的包的来源地址。
+ * <p>
+ * 三个故障注入开关用于端到端验证：blocked 丢弃收到的所有包（模拟 UDP 被拦截，客户端应回退到传输连接）；
+ * lossRate 按比例丢弃发往客户端的包（丢包只影响包内的数据报，丢失计数按数据报统计）；replayRate 按比例把发往客户端的包原样重发一次（客户端应丢弃重放）。
+ */
+final class DatagramEndpoint implements Closeable {
+    interface Listener {
+        /**
+         * @return false 表示会话不存在，回复 CLOSE
+         */
+        boolean onOpen(long sessionId);
+
+        void onData(long sessionId, byte[] frame);
+
+        void onClose(long sessionId);
+    }
+
+    private final DatagramSocket socket;
+    private final Listener listener;
+    private final SecureRandom random = new SecureRandom();
+    private volatile DatagramCrypto crypto;
+    private volatile SocketAddress client;
+    private volatile boolean running = true;
+
+    volatile boolean blocked = false;
+    volatile double lossRate = 0;
+    volatile double replayRate = 0;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+
+    DatagramEndpoint(Listener listener) throws IOException {
+        this.listener = listener;
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        // 所有会话共用一个 socket，与客户端一样放大缓冲区，避免突发时在替身一侧溢出
+        socket.setReceiveBufferSize(4 * 1024 * 1024);
+        socket.setSendBufferSize(4 * 1024 * 1024);
+    }
+
+    void start() {
+        // JDK 21 中 DatagramSocket.receive 会占住虚拟线程的载体线程，接收放在平台线程上
+        Thread.ofPlatform().daemon().name("stand-in-datagram").start(this::receiveLoop);
+    }
+
+    /**
+     * 为新的 Hook 连接生成令牌与密钥。
+     *
+     * @return Hook 指令 "datagram;端口;令牌;密钥"（不含 ":>" 前缀）
+     */
+    String offer() throws GeneralSecurityException {
+        long token = random.nextLong();
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        crypto = new DatagramCrypto(token, secret, false);
+        client = null;
+        return "datagram;" + socket.getLocalPort() + ";" + HexFormat.of().toHexDigits(token) + ";"
+                + Base64.getEncoder().encodeToString(secret);
+    }
+
+    void send(byte type, long sessionId, byte[] frame) throws IOException {
+        DatagramCrypto current = crypto;
+        SocketAddress target = client;
+        if (current == null || target == null) return;
+        int length = frame == null ? 0 : frame.length;
+        byte[] packet = new byte[DatagramFrame.OVERHEAD + length];
+        int packetLength;
+        try {
+            packetLength = current.seal(packet, 0, type, sessionId, frame, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        ThreadLocalRandom chance = ThreadLocalRandom.current();
+        if (type == DatagramFrame.DATA && lossRate > 0 && chance.nextDouble() < lossRate) {
+            lost.add(StandInServer.unbatch(frame).size()); // 合并帧丢失时其中的数据报全部丢失
+            return;
+        }
+        DatagramPacket datagram = new DatagramPacket(packet, packetLength, target);
+        socket.send(datagram);
+        if (type == DatagramFrame.DATA && replayRate > 0 && chance.nextDouble() < replayRate) {
+            socket.send(datagram);
+            duplicated.increment();
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[DatagramFrame.MAX_PACKET_LENGTH];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                packet.setData(buffer);
+                socket.receive(packet);
+                DatagramCrypto current = crypto;
+                if (blocked || current == null) continue;
+                int plain = current.open(buffer, 0, packet.getLength());
+                if (plain == DatagramCrypto.REPLAYED) {
+                    replayed.increment();
+                    continue;
+                }
+                if (plain < 0) {
+                    rejected.increment();
+                    continue;
+                }
+                client = packet.getSocketAddress();
+                long sessionId = DatagramFrame.sessionId(buffer, 0);
+                switch (DatagramFrame.type(buffer, 0)) {
+                    case DatagramFrame.OPEN ->
+                            send(listener.onOpen(sessionId) ? DatagramFrame.OPEN_ACK : DatagramFrame.CLOSE, sessionId, null);
+                    case DatagramFrame.DATA ->
+                            listener.onData(sessionId, Arrays.copyOfRange(buffer, DatagramFrame.HEADER_LENGTH, DatagramFrame.HEADER_LENGTH + plain));
+                    case DatagramFrame.CLOSE -> listener.onClose(sessionId);
+                    default -> {
+                        // KEEPALIVE 只刷新客户端地址
+                    }
+                }
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    long getLostCount() {
+        return lost.sum();
+    }
+
+    long getDuplicatedCount() {
+        return duplicated.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        InternetOperator.close(socket);
+    }
+}
@@ -0,0 +1,150 @@
+package neoproxy.neolink.loadtest;
+
+import neoproxy.neolink.dgram.DatagramCrypto;
+import neoproxy.neolink.dgram.DatagramFrame;
+import neoproxy.neolink.dgram.ReplayWindow;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 原生 UDP 传输加密层的自检，不需要网络：覆盖 {@link ReplayWindow} 的重放、乱序、滑出窗口、环形位图回绕与序号上限，
+ * 以及 {@link DatagramCrypto} 的 seal / open 往返、篡改、错误令牌与方向。任一项失败时以退出码 1 结束。
+ * <p>
+ * 用法：./gradlew datagramSelfCheck
+ */
+public final class DatagramSelfCheck {
+    // 与 ReplayWindow.WINDOW_SIZE 一致
+    private static final int WINDOW = 2048;
+
+    private int passed = 0;
+    private int failed = 0;
+
+    public static void main(String[] args) throws GeneralSecurityException {
+        DatagramSelfCheck check = new DatagramSelfCheck();
+        check.replayWindow();
+        check.crypto();
+        System.out.println("Datagram self-check: passed=" + check.passed + ", failed=" + check.failed);
+        System.exit(check.failed == 0 ? 0 : 1);
+    }
+
+    private void expect(String name, boolean condition) {
+        if (condition) {
+            passed++;
+        } else {
+            failed++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+
+    /**
+     * 与 DatagramCrypto.open 相同的用法：预检通过后才记入窗口。
+     */
+    private static boolean offer(ReplayWindow window, long sequence) {
+        if (!window.mayAccept(sequence)) return false;
+        window.accept(sequence);
+        return true;
+    }
+
+    private void replayWindow() {
+        ReplayWindow window = new ReplayWindow();
+        expect("sequence 0 is rejected", !offer(window, 0));
+        expect("negative sequence is rejected", !offer(window, -1));
+        expect("first sequence is accepted", offer(window, 1));
+        expect("duplicate is rejected", !offer(window, 1));
+
+        expect("jump ahead is accepted", offer(window, 100));
+        expect("out-of-order inside the window is accepted", offer(window, 50));
+        expect("out-of-order duplicate is rejected", !offer(window, 50));
+
+        expect("advance to 5000", offer(window, 5000));
+        expect("oldest slot still inside the window is accepted", offer(window, 5000 - WINDOW + 1));
+        expect("sequence just outside the window is rejected", !offer(window, 5000 - WINDOW));
+
+        // 顺序填满多圈后，每个环形槽位都被用过；前移时必须清掉旧序号留下的位
+        window = new ReplayWindow();
+        for (long s = 1; s <= 3 * WINDOW; s++) offer(window, s);
+        boolean allDuplicates = true;
+        for (long s = 2 * WINDOW + 1; s <= 3 * WINDOW; s++) allDuplicates &= !offer(window, s);
+        expect("every sequence inside a full window is a duplicate", allDuplicates);
+        long jumpTo = 3 * WINDOW + 64 * 5 + 3; // 跨过若干整字再加上不对齐的尾部
+        expect("partial jump is accepted", offer(window, jumpTo));
+        boolean skippedAccepted = true;
+        for (long s = 3 * WINDOW + 1; s < jumpTo; s++) skippedAccepted &= offer(window, s);
+        expect("skipped sequences reuse cleared slots after the ring wraps", skippedAccepted);
+
+        long far = jumpTo + 10 * WINDOW;
+        expect("jump beyond the window is accepted", offer(window, far));
+        expect("everything before the jump is too old", !offer(window, jumpTo));
+        expect("unseen sequence inside the new window is accepted", offer(window, far - 1));
+
+        window = new ReplayWindow();
+        expect("sequence near the upper limit is accepted", offer(window, Long.MAX_VALUE - 1));
+        expect("last sequence is accepted", offer(window, Long.MAX_VALUE));
+        expect("last sequence cannot be replayed", !offer(window, Long.MAX_VALUE));
+        expect("wrapped sequence is rejected", !offer(window, Long.MIN_VALUE));
+    }
+
+    private void crypto() throws GeneralSecurityException {
+        Random random = new Random(42);
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        long token = 0x1234_5678_9ABCL;
+        DatagramCrypto client = new DatagramCrypto(token, secret, true);
+        DatagramCrypto server = new DatagramCrypto(token, secret, false);
+
+        byte[] payload = new byte[1200];
+        random.nextBytes(payload);
+        byte[] packet = new byte[DatagramFrame.OVERHEAD + payload.length];
+        int length = client.seal(packet, 0, DatagramFrame.DATA, 7, payload, 0, payload.length);
+        byte[] sealed = Arrays.copyOf(packet, length);
+        expect("sealed packet has the expected length", length == DatagramFrame.OVERHEAD + payload.length);
+        expect("ciphertext differs from the payload",
+                !Arrays.equals(packet, DatagramFrame.HEADER_LENGTH, DatagramFrame.HEADER_LENGTH + payload.length, payload, 0, payload.length));
+
+        // 篡改的包不能推动窗口，原包随后仍可打开
+        byte[] tampered = sealed.clone();
+        tampered[DatagramFrame.HEADER_LENGTH + 10] ^= 1;
+        expect("tampered ciphertext is invalid", server.open(tampered, 0, tampered.length) == DatagramCrypto.INVALID);
+        byte[] header = sealed.clone();
+        DatagramFrame.writeHeader(header, 0, DatagramFrame.DATA, token, DatagramFrame.sequence(sealed, 0), 8);
+        expect("tampered header is invalid", server.open(header, 0, header.length) == DatagramCrypto.INVALID);
+        byte[] truncated = Arrays.copyOf(sealed, DatagramFrame.OVERHEAD - 1);
+        expect("truncated packet is invalid", server.open(truncated, 0, truncated.length) == DatagramCrypto.INVALID);
+        byte[] ownDirection = sealed.clone();
+        expect("a packet cannot be opened with its own direction's key", client.open(ownDirection, 0, ownDirection.length) == DatagramCrypto.INVALID);
+
+        byte[] opened = sealed.clone();
+        int plain = server.open(opened, 0, opened.length);
+        expect("round-trip restores the payload", plain == payload.length
+                && Arrays.equals(opened, DatagramFrame.HEADER_LENGTH, DatagramFrame.HEADER_LENGTH + plain, payload, 0, payload.length));
+        byte[] replay = sealed.clone();
+        expect("replayed packet is rejected", server.open(replay, 0, replay.length) == DatagramCrypto.REPLAYED);
+
+        DatagramCrypto otherToken = new DatagramCrypto(token + 1, secret, false);
+        byte[] fresh = new byte[packet.length];
+        int freshLength = client.seal(fresh, 0, DatagramFrame.DATA, 7, payload, 0, payload.length);
+        expect("packet for another token is invalid", otherToken.open(fresh.clone(), 0, freshLength) == DatagramCrypto.INVALID);
+
+        // 乱序到达都能打开，之后任一重放都被拒绝
+        byte[][] burst = new byte[3][];
+        for (int i = 0; i < burst.length; i++) {
+            burst[i] = new byte[packet.length];
+            client.seal(burst[i], 0, DatagramFrame.DATA, 7, payload, 0, payload.length);
+        }
+        boolean reordered = true;
+        for (int i : new int[]{2, 0, 1}) reordered &= server.open(burst[i].clone(), 0, burst[i].length) == payload.length;
+        expect("reordered packets are accepted", reordered);
+        expect("reordered packet cannot be replayed", server.open(burst[0].clone(), 0, burst[0].length) == DatagramCrypto.REPLAYED);
+
+        // 被后续包挤出窗口的旧包按重放处理
+        byte[] stale = new byte[packet.length];
+        client.seal(stale, 0, DatagramFrame.DATA, 7, payload, 0, payload.length);
+        byte[] latest = new byte[packet.length];
+        for (int i = 0; i < WINDOW; i++) client.seal(latest, 0, DatagramFrame.KEEPALIVE, 0, null, 0, 0);
+        int keepaliveLength = DatagramFrame.OVERHEAD;
+        expect("latest packet is accepted", server.open(latest, 0, keepaliveLength) == 0);
+        expect("packet older than the window is rejected", server.open(stale, 0, stale.length) == DatagramCrypto.REPLAYED);
+    }
+}
@@ -0,0 +1,112 @@
+package neoproxy.neolink.loadtest;
+
+import neoproxy.neolink.InternetOperator;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 负载测试中被穿透的本地后端，TCP 与 UDP 使用同一个端口号：
+ * <ul>
+ *     <li>TCP：循环读取 8 字节请求头（请求长度、响应长度，大端 int），读完请求体后回写指定长度的响应</li>
+ *     <li>UDP：原样回显</li>
+ * </ul>
+ */
+public final class LoadBackend implements Closeable {
+    private static final byte[] RESPONSE_BLOCK = new byte[64 * 1024];
+
+    static {
+        new Random(7).nextBytes(RESPONSE_BLOCK); // 随机内容，压缩对其无效，测的是纯转发
+    }
+
+    private final ServerSocket tcp;
+    private final DatagramSocket udp;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean running = true;
+
+    public LoadBackend() throws IOException {
+        tcp = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        udp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), tcp.getLocalPort()));
+    }
+
+    public void start() {
+        executor.submit(this::acceptTcp);
+        // JDK 21 中 DatagramSocket.receive 会占住虚拟线程的载体线程，UDP 接收放在平台线程上
+        Thread.ofPlatform().daemon().name("loadtest-backend-udp").start(this::echoUdp);
+    }
+
+    public int getPort() {
+        return tcp.getLocalPort();
+    }
+
+    private void acceptTcp() {
+        while (running) {
+            try {
+                Socket socket = tcp.accept();
+                executor.submit(() -> serveTcp(socket));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serveTcp(Socket socket) {
+        try (socket; DataInputStream input = new DataInputStream(socket.getInputStream());
+             OutputStream output = socket.getOutputStream()) {
+            byte[] discard = new byte[64 * 1024];
+            while (true) {
+                int requestLength, responseLength;
+                try {
+                    requestLength = input.readInt();
+                    responseLength = input.readInt();
+                } catch (EOFException e) {
+                    return; // 访客正常结束
+                }
+                while (requestLength > 0) {
+                    int read = input.read(discard, 0, Math.min(discard.length, requestLength));
+                    if (read == -1) return;
+                    requestLength -= read;
+                }
+                while (responseLength > 0) {
+                    int chunk = Math.min(RESPONSE_BLOCK.length, responseLength);
+                    output.write(RESPONSE_BLOCK, 0, chunk);
+                    responseLength -= chunk;
+                }
+            }
+        } catch (IOException ignore) {
+            // 隧道被关闭
+        }
+    }
+
+    private void echoUdp() {
+        byte[] buffer = new byte[65535];
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                udp.receive(packet);
+                udp.send(packet);
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        InternetOperator.close(tcp, udp);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,454 @@
+package neoproxy.neolink.loadtest;
+
+import neoproxy.neolink.threads.LatencyHistogram;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * NeoLink 负载测试：在本机启动 {@link StandInServer}、{@link LoadBackend} 和一个独立进程的 NeoLink 客户端，
+ * 按泊松到达（固定随机种子）发起访客连接，结束后输出每秒连接数、吞吐、建连耗时分位数以及客户端进程的 CPU 与堆占用。
+ * <p>
+ * 用法：./gradlew loadTest --args="--rate=500 --duration=60 --profile=mixed --udp-share=0.1"
+ * <ul>
+ *     <li>--rate：每秒新到达的访客数（默认 100）</li>
+ *     <li>--duration：发起访客的时长，秒（默认 30），之后最多再等 --drain 秒让进行中的访客结束</li>
+ *     <li>--profile：interactive / web / download / upload / mixed，或 "web:3,download:1" 形式的权重表（默认 mixed）</li>
+ *     <li>--udp-share：UDP 访客的比例（默认 0），每个 UDP 访客发送 --udp-packets 个 --udp-size 字节的包，
+ *     每轮连续发出 --udp-burst 个（默认 1）后再等待回显，用于观察数据报合并</li>
+ *     <li>--datagram-blocked / --datagram-loss / --datagram-replay：原生 UDP 传输的故障注入（需在 --client-config 中开启
+ *     ENABLE_DATAGRAM_TRANSPORT），分别模拟 UDP 被拦截、按比例丢弃发往客户端的包、按比例重放发往客户端的包</li>
+ *     <li>--max-concurrent：同时进行中的访客上限，超出的到达计为 skipped（默认 10000）</li>
+ *     <li>--client-heap：客户端进程的 -Xmx（默认 512m）</li>
+ *     <li>--client-jvm-args：客户端进程的其他 JVM 参数，以空格分隔，如 "-XX:StartFlightRecording=filename=client.jfr"</li>
+ *     <li>--client-config：追加到客户端 config.cfg 的配置，如 "TRANSFER_ENGINE=nio,TRANSFER_POOL_MAX=16"</li>
+ *     <li>--seed：随机种子（默认 42）</li>
+ * </ul>
+ * 数千个并发访客需要足够的文件描述符，运行前请确认 ulimit -n。
+ */
+public final class LoadGenerator {
+    private static final byte[] REQUEST_BLOCK = new byte[64 * 1024];
+
+    static {
+        new Random(11).nextBytes(REQUEST_BLOCK);
+    }
+
+    private final Map<String, String> options;
+    private final InetAddress loopback = InetAddress.getLoopbackAddress();
+    private final ExecutorService visitors = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicInteger activeVisitors = new AtomicInteger(0);
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder udpLost = new LongAdder();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LatencyHistogram udpFirstReply = new LatencyHistogram();
+    private final LatencyHistogram udpRtt = new LatencyHistogram();
+    private volatile int peakVisitors = 0;
+
+    private int publicPort;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            String[] parts = arg.substring(2).split("=", 2);
+            options.put(parts[0], parts.length > 1 ? parts[1] : "true");
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private void run() throws Exception {
+        double rate = Double.parseDouble(option("rate", "100"));
+        int durationSeconds = Integer.parseInt(option("duration", "30"));
+        int drainSeconds = Integer.parseInt(option("drain", "30"));
+        int maxConcurrent = Integer.parseInt(option("max-concurrent", "10000"));
+        double udpShare = Double.parseDouble(option("udp-share", "0"));
+        int udpPackets = Integer.parseInt(option("udp-packets", "20"));
+        int udpSize = Integer.parseInt(option("udp-size", "512"));
+        int udpBurst = Math.max(1, Integer.parseInt(option("udp-burst", "1")));
+        PayloadProfile.Mix mix = PayloadProfile.Mix.parse(option("profile", "mixed"));
+        Random random = new Random(Long.parseLong(option("seed", "42")));
+
+        int hookPort = freePort();
+        int transferPort = freePort();
+        try (LoadBackend backend = new LoadBackend();
+             StandInServer server = new StandInServer(hookPort, transferPort)) {
+            backend.start();
+            server.setDatagramFaults(Boolean.parseBoolean(option("datagram-blocked", "false")),
+                    Double.parseDouble(option("datagram-loss", "0")), Double.parseDouble(option("datagram-replay", "0")));
+            server.start();
+            publicPort = server.getPublicPort();
+
+            int metricsPort = freePort();
+            Path workDir = Files.createTempDirectory("neolink-loadtest");
+            Process client = launchClient(workDir, hookPort, transferPort, backend.getPort(), metricsPort);
+            try {
+                if (!server.awaitClient(30, TimeUnit.SECONDS)) {
+                    System.err.println("NeoLink client did not connect, see " + workDir.resolve("client.out"));
+                    return;
+                }
+                ResourceSampler sampler = new ResourceSampler(metricsPort);
+                Thread samplerThread = Thread.ofPlatform().daemon().name("loadtest-sampler").start(sampler);
+
+                System.out.println("Driving " + rate + " visitors/s for " + durationSeconds + "s, profile=" + mix + ", udp-share=" + udpShare);
+                long startedAt = System.nanoTime();
+                long endAt = startedAt + TimeUnit.SECONDS.toNanos(durationSeconds);
+                long nextArrival = startedAt;
+                while (nextArrival < endAt) {
+                    long wait = nextArrival - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    if (activeVisitors.get() >= maxConcurrent) {
+                        skipped.increment();
+                    } else {
+                        boolean udp = random.nextDouble() < udpShare;
+                        PayloadProfile profile = mix.pick(random);
+                        int active = activeVisitors.incrementAndGet();
+                        if (active > peakVisitors) peakVisitors = active;
+                        started.increment();
+                        if (udp) {
+                            // JDK 21 中 DatagramSocket.receive 会占住虚拟线程的载体线程，UDP 访客使用平台线程
+                            Thread.ofPlatform().daemon().start(() -> {
+                                try {
+                                    runUdpVisitor(udpPackets, udpSize, udpBurst);
+                                } finally {
+                                    activeVisitors.decrementAndGet();
+                                }
+                            });
+                        } else {
+                            visitors.submit(() -> {
+                                try {
+                                    runTcpVisitor(profile);
+                                } finally {
+                                    activeVisitors.decrementAndGet();
+                                }
+                            });
+                        }
+                    }
+                    // 指数分布的到达间隔，即泊松到达
+                    nextArrival += (long) (-Math.log(1 - random.nextDouble()) / rate * 1_000_000_000L);
+                }
+                long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+                while (activeVisitors.get() > 0 && System.nanoTime() < drainDeadline) Thread.sleep(100);
+                long elapsedNanos = System.nanoTime() - startedAt;
+
+                sampler.stop();
+                samplerThread.join(2000);
+                sampler.sample(); // 访客都已结束，再采一次使计数完整
+                report(server, sampler, elapsedNanos, workDir);
+            } finally {
+                client.destroy();
+                if (!client.waitFor(5, TimeUnit.SECONDS)) client.destroyForcibly();
+                visitors.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 以独立进程启动 NeoLink 客户端，工作目录中放入指向本机替身服务端的 config.cfg，客户端 CPU 与堆不受负载生成器干扰。
+     */
+    private Process launchClient(Path workDir, int hookPort, int transferPort, int backendPort, int metricsPort) throws IOException {
+        List<String> config = new ArrayList<>(List.of(
+                "REMOTE_DOMAIN_NAME=127.0.0.1",
+                "LOCAL_DOMAIN_NAME=127.0.0.1",
+                "HOST_HOOK_PORT=" + hookPort,
+                "HOST_CONNECT_PORT=" + transferPort,
+                "ENABLE_AUTO_UPDATE=false",
+                "ENABLE_AUTO_RECONNECT=false",
+                "METRICS_PORT=" + metricsPort));
+        String extra = option("client-config", "");
+        for (String entry : extra.split(",")) {
+            if (!entry.isBlank()) config.add(entry.trim());
+        }
+        Files.write(workDir.resolve("config.cfg"), config, StandardCharsets.UTF_8);
+        Files.writeString(workDir.resolve("node.json"), "[]", StandardCharsets.UTF_8);
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(List.of(java, "-Xmx" + option("client-heap", "512m")));
+        for (String jvmArg : option("client-jvm-args", "").split(" ")) {
+            if (!jvmArg.isBlank()) command.add(jvmArg);
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "neoproxy.neolink.NeoLink",
+                "--nogui", "--en-us", "--no-color", "--no-show-conn",
+                "--key=loadtest", "--local-port=" + backendPort));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(workDir.toFile());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(workDir.resolve("client.out").toFile());
+        System.out.println("Client working directory: " + workDir);
+        return builder.start();
+    }
+
+    private void runTcpVisitor(PayloadProfile profile) {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(loopback, publicPort), 10_000);
+            socket.setSoTimeout(30_000);
+            // 不用 DataOutputStream：它的 write 是 synchronized 方法，在其中阻塞会占住虚拟线程的载体线程
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            byte[] header = new byte[8];
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            for (int round = 0; round < profile.rounds; round++) {
+                ByteBuffer.wrap(header).putInt(profile.requestBytes).putInt(profile.responseBytes);
+                output.write(header);
+                for (int remaining = profile.requestBytes; remaining > 0; ) {
+                    int chunk = Math.min(REQUEST_BLOCK.length, remaining);
+                    output.write(REQUEST_BLOCK, 0, chunk);
+                    remaining -= chunk;
+                }
+                output.flush();
+                uploadedBytes.add(profile.requestBytes);
+
+                for (int remaining = profile.responseBytes; remaining > 0; ) {
+                    int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) throw new IOException("Tunnel closed early");
+                    if (round == 0 && remaining == profile.responseBytes) {
+                        timeToFirstByte.record((System.nanoTime() - start) / 1000);
+                    }
+                    remaining -= read;
+                    downloadedBytes.add(read);
+                }
+                if (profile.thinkMillis > 0) Thread.sleep(profile.thinkMillis);
+            }
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+        }
+    }
+
+    private void runUdpVisitor(int packets, int size, int burst) {
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(loopback, 0))) {
+            socket.connect(loopback, publicPort);
+            socket.setSoTimeout(2000);
+            byte[] payload = new byte[Math.max(Long.BYTES, size)];
+            byte[] receive = new byte[65535];
+            long start = System.nanoTime();
+            for (long first = 0; first < packets; first += burst) {
+                long last = Math.min(packets, first + burst);
+                long sentAt = System.nanoTime();
+                for (long sequence = first; sequence < last; sequence++) {
+                    ByteBuffer.wrap(payload).putLong(sequence);
+                    socket.send(new DatagramPacket(payload, payload.length));
+                    uploadedBytes.add(payload.length);
+                }
+                // 经原生 UDP 传输时回显可能丢失或乱序，按序号对应本轮发出的包
+                boolean[] echoed = new boolean[(int) (last - first)];
+                int remaining = echoed.length;
+                long sequence;
+                while (remaining > 0 && (sequence = awaitEcho(socket, receive)) >= 0) {
+                    if (sequence < first || sequence >= last || echoed[(int) (sequence - first)]) continue;
+                    echoed[(int) (sequence - first)] = true;
+                    remaining--;
+                    long now = System.nanoTime();
+                    if (sequence == 0) udpFirstReply.record((now - start) / 1000);
+                    else udpRtt.record((now - sentAt) / 1000);
+                    downloadedBytes.add(payload.length);
+                }
+                udpLost.add(remaining);
+                Thread.sleep(20);
+            }
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * @return 收到的回显中的序号，超时为 -1
+     */
+    private static long awaitEcho(DatagramSocket socket, byte[] receive) throws IOException {
+        DatagramPacket packet = new DatagramPacket(receive, receive.length);
+        try {
+            while (true) {
+                socket.receive(packet);
+                if (packet.getLength() >= Long.BYTES) return ByteBuffer.wrap(receive).getLong();
+            }
+        } catch (SocketTimeoutException e) {
+            return -1;
+        }
+    }
+
+    private void report(StandInServer server, ResourceSampler sampler, long elapsedNanos, Path workDir) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.println();
+        System.out.println("==== NeoLink load test ====");
+        System.out.printf("Visitors: started=%d, completed=%d, failed=%d, setupTimeouts=%d, skipped=%d, peakConcurrent=%d%n",
+                started.sum(), completed.sum(), failed.sum(), server.getSetupTimeoutCount(), skipped.sum(), peakVisitors);
+        System.out.printf("Connections/s: %.1f%n", completed.sum() / seconds);
+        System.out.printf("Throughput: upload %.2f MB/s, download %.2f MB/s%n",
+                uploadedBytes.sum() / seconds / 1024 / 1024, downloadedBytes.sum() / seconds / 1024 / 1024);
+        System.out.println("Setup latency (visitor accepted -> transfer arrived): " + server.getSetupLatency().describe());
+        System.out.println("Time to first byte (TCP visitor): " + timeToFirstByte.describe());
+        if (udpFirstReply.getCount() > 0) {
+            System.out.println("UDP first reply: " + udpFirstReply.describe());
+            System.out.println("UDP RTT: " + udpRtt.describe() + ", lost=" + udpLost.sum());
+            System.out.printf("UDP datagrams per frame: client -> stand-in %.2f, stand-in -> client %s%n",
+                    server.getUdpDatagramsPerFrame(), sampler.describeDownloadBatching());
+            System.out.println("UDP sessions on client: " + sampler.describeUdpSessions());
+            System.out.println("Datagram transport: client " + sampler.describeDatagramTransport()
+                    + "; stand-in " + server.describeDatagramEndpoint());
+        }
+        System.out.println("Client: " + sampler.describe());
+        System.out.println("Heartbeats received by stand-in: " + server.getPingCount());
+        System.out.println("Client logs: " + workDir);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * 每秒从客户端的指标端点读取一次进程 CPU 时间、堆占用与线程数。
+     */
+    private static final class ResourceSampler implements Runnable {
+        private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        private final HttpRequest request;
+        private volatile boolean running = true;
+        private double firstCpuSeconds = -1, lastCpuSeconds = -1;
+        private long firstSampleAt, lastSampleAt;
+        private double peakCpuPercent = 0;
+        private long peakHeapBytes = 0;
+        private long peakThreads = 0;
+        private int samples = 0;
+        private double downloadDatagramsPerFrame = -1;
+        private long udpIdleEvictions = -1, udpSessionsOpen = -1;
+        private long datagramNative = -1, datagramFallback = -1, datagramReplayDrops = -1;
+
+        ResourceSampler(int metricsPort) {
+            request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + metricsPort + "/metrics")).timeout(Duration.ofSeconds(2)).build();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        private synchronized void sample() {
+            Map<String, Double> metrics;
+            try {
+                metrics = parse(http.send(request, HttpResponse.BodyHandlers.ofString()).body());
+            } catch (Exception e) {
+                return; // 客户端尚未启动指标端点或已退出
+            }
+            long now = System.nanoTime();
+            Double cpu = metrics.get("neolink_process_cpu_seconds_total");
+            if (cpu != null) {
+                if (firstCpuSeconds < 0) {
+                    firstCpuSeconds = cpu;
+                    firstSampleAt = now;
+                } else {
+                    peakCpuPercent = Math.max(peakCpuPercent, (cpu - lastCpuSeconds) / ((now - lastSampleAt) / 1e9) * 100);
+                }
+                lastCpuSeconds = cpu;
+                lastSampleAt = now;
+            }
+            peakHeapBytes = Math.max(peakHeapBytes, metrics.getOrDefault("neolink_jvm_heap_bytes{state=\"used\"}", 0.0).longValue());
+            peakThreads = Math.max(peakThreads, metrics.getOrDefault("neolink_jvm_threads", 0.0).longValue());
+            downloadDatagramsPerFrame = metrics.getOrDefault("neolink_udp_datagrams_per_frame{direction=\"download\"}", -1.0);
+            udpIdleEvictions = metrics.getOrDefault("neolink_udp_idle_evictions_total", -1.0).longValue();
+            udpSessionsOpen = metrics.getOrDefault("neolink_tunnels_active{protocol=\"udp\"}", -1.0).longValue();
+            datagramNative = metrics.getOrDefault("neolink_datagram_sessions_total{transport=\"native\"}", -1.0).longValue();
+            datagramFallback = metrics.getOrDefault("neolink_datagram_sessions_total{transport=\"fallback\"}", -1.0).longValue();
+            datagramReplayDrops = metrics.getOrDefault("neolink_datagram_packets_dropped_total{reason=\"replay\"}", -1.0).longValue();
+            samples++;
+        }
+
+        private static Map<String, Double> parse(String body) {
+            Map<String, Double> values = new HashMap<>();
+            for (String line : body.split("\n")) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int space = line.lastIndexOf(' ');
+                try {
+                    values.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                } catch (RuntimeException ignore) {
+                }
+            }
+            return values;
+        }
+
+        synchronized String describeDownloadBatching() {
+            return downloadDatagramsPerFrame < 0 ? "n/a" : String.format("%.2f", downloadDatagramsPerFrame);
+        }
+
+        /**
+         * 替身服务端不会主动结束 UDP 会话，访客离开后会话只能由客户端的空闲回收关闭。
+         */
+        synchronized String describeUdpSessions() {
+            if (udpIdleEvictions < 0) return "n/a";
+            return "evicted idle " + udpIdleEvictions + ", still open " + udpSessionsOpen;
+        }
+
+        /**
+         * 回退会话数只统计尝试过原生传输的会话，未开启原生传输时两者都是 0。
+         */
+        synchronized String describeDatagramTransport() {
+            if (datagramNative < 0) return "n/a";
+            return "native " + datagramNative + ", fallback " + datagramFallback + ", replays dropped " + datagramReplayDrops;
+        }
+
+        synchronized String describe() {
+            if (samples == 0) return "no samples (metrics endpoint unreachable)";
+            double averageCpu = lastSampleAt > firstSampleAt
+                    ? (lastCpuSeconds - firstCpuSeconds) / ((lastSampleAt - firstSampleAt) / 1e9) * 100 : 0;
+            return String.format("CPU avg %.0f%% / peak %.0f%% of one core, heap peak %d MB, threads peak %d (%d samples)",
+                    averageCpu, peakCpuPercent, peakHeapBytes / 1024 / 1024, peakThreads, samples);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package neoproxy.neolink.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 一个 TCP 访客的行为：进行 rounds 轮请求 / 响应，每轮发送 requestBytes、接收 responseBytes，轮间停顿 thinkMillis。
+ */
+enum PayloadProfile {
+    INTERACTIVE(20, 64, 64, 20),
+    WEB(1, 512, 32 * 1024, 0),
+    DOWNLOAD(1, 64, 8 * 1024 * 1024, 0),
+    UPLOAD(1, 8 * 1024 * 1024, 64, 0);
+
+    final int rounds;
+    final int requestBytes;
+    final int responseBytes;
+    final int thinkMillis;
+
+    PayloadProfile(int rounds, int requestBytes, int responseBytes, int thinkMillis) {
+        this.rounds = rounds;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.thinkMillis = thinkMillis;
+    }
+
+    /**
+     * 按权重混合的多个 Profile。
+     */
+    static final class Mix {
+        private final List<PayloadProfile> profiles = new ArrayList<>();
+        private final List<Integer> cumulativeWeights = new ArrayList<>();
+        private final String description;
+
+        private Mix(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @param spec 单个名称（如 "web"）、"mixed"，或 "interactive:6,web:3,download:1" 形式的权重表
+         */
+        static Mix parse(String spec) {
+            if ("mixed".equalsIgnoreCase(spec)) spec = "interactive:60,web:35,download:3,upload:2";
+            Mix mix = new Mix(spec);
+            int total = 0;
+            for (String part : spec.split(",")) {
+                String[] nameAndWeight = part.trim().split(":");
+                int weight = nameAndWeight.length > 1 ? Integer.parseInt(nameAndWeight[1].trim()) : 1;
+                if (weight <= 0) continue;
+                total += weight;
+                mix.profiles.add(PayloadProfile.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT)));
+                mix.cumulativeWeights.add(total);
+            }
+            if (mix.profiles.isEmpty()) throw new IllegalArgumentException("Empty payload profile: " + spec);
+            return mix;
+        }
+
+        PayloadProfile pick(Random random) {
+            int roll = random.nextInt(cumulativeWeights.get(cumulativeWeights.size() - 1));
+            for (int i = 0; i < profiles.size(); i++) {
+                if (roll < cumulativeWeights.get(i)) return profiles.get(i);
+            }
+            return profiles.get(profiles.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
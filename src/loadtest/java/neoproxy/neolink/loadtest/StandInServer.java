@@ -0,0 +1,548 @@
+package neoproxy.neolink.loadtest;
+
+import fun.ceroxe.api.net.SecureServerSocket;
+import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.channel.CompressingTransferChannel;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.channel.TransferChannel;
+import neoproxy.neolink.dgram.DatagramFrame;
+import neoproxy.neolink.threads.LatencyHistogram;
+import neoproxy.neolink.threads.UDPTransformer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地的 NeoServer 替身，只实现负载测试需要的旧版协议，协商特性中只接受压缩 (Z)、UDP 数据报合并 (B) 与原生 UDP 传输 (D)：
+ * <ul>
+ *     <li>Hook：接收 "语言;版本;密钥;TU[;特性]"，回复连接成功，下发 ":>远程端口"，客户端请求了 Z / B / D 时再下发 ":>features;接受的特性"，
+ *     接受 D 时随后下发 ":>datagram;端口;令牌;密钥"；
+ *     之后为每个访客下发 ":>sendSocketTCP;id;地址" / ":>sendSocketUDP;id;地址"，客户端的 PING 只计数不回应</li>
+ *     <li>传输：客户端连上传输端口后发送 "TCP;id" / "UDP;id"，之后双方按帧收发，sendByte(null) 表示结束；
+ *     协商了压缩时传输连接两端都叠加 {@link CompressingTransferChannel}；
+ *     协商了合并时 UDP 方向接受合并帧，传输连接到达前排队的数据报也合并成一帧补发</li>
+ *     <li>原生 UDP 传输：UDP 会话也可以由客户端经 {@link DatagramEndpoint} 以 OPEN 接入，之后的帧以加密 UDP 包收发，不压缩</li>
+ *     <li>公网端口：在 127.0.0.1 上监听 TCP 与同号的 UDP 端口，访客从这里进入隧道</li>
+ * </ul>
+ * 同一时间只服务一个客户端，所有连接都跑在虚拟线程上。
+ */
+public final class StandInServer implements Closeable {
+    public static final String SUCCESS_MESSAGE = "Connection build up successfully";
+    private static final long TRANSFER_TIMEOUT_MILLIS = 10_000;
+    private static final int MAX_QUEUED_DATAGRAMS = 256;
+    private static final int BATCH_MAGIC = 0xDEADBA7C;
+    private static final int MAX_BATCH_BYTES = 16 * 1024;
+
+    private final SecureServerSocket hookServer;
+    private final SecureServerSocket transferServer;
+    private final ServerSocket publicTcp;
+    private final DatagramSocket publicUdp;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<String, CompletableFuture<TransferChannel>> pendingTcp = new ConcurrentHashMap<>();
+    private final Map<String, UdpSession> udpSessionsById = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, UdpSession> udpSessionsByVisitor = new ConcurrentHashMap<>();
+    private final CountDownLatch hookReady = new CountDownLatch(1);
+    // 虚拟线程在 synchronized 中阻塞 I/O 会占住载体线程，这里用 ReentrantLock
+    private final ReentrantLock hookLock = new ReentrantLock();
+    private volatile SecureSocket hook;
+    private volatile boolean running = true;
+    private volatile boolean batching = false;
+    private volatile boolean compression = false;
+    private final DatagramEndpoint datagramEndpoint;
+
+    // 访客被接受到客户端的传输连接带着对应 id 到达，即客户端一侧的完整建连耗时
+    private final LatencyHistogram setupLatency = new LatencyHistogram();
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder setupTimeouts = new LongAdder();
+    private final LongAdder relayedBytes = new LongAdder();
+    // 客户端发来的 UDP 帧数与其中的数据报数，两者之比即客户端实际的合并效果
+    private final LongAdder batchFrames = new LongAdder();
+    private final LongAdder batchedDatagrams = new LongAdder();
+    private final LongAdder datagramSessions = new LongAdder();
+
+    public StandInServer(int hookPort, int transferPort) throws IOException {
+        hookServer = new SecureServerSocket(hookPort);
+        transferServer = new SecureServerSocket(transferPort);
+        publicTcp = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        // 真实服务端对同一个远程端口同时提供 TCP 与 UDP
+        publicUdp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), publicTcp.getLocalPort()));
+        datagramEndpoint = new DatagramEndpoint(new DatagramEndpoint.Listener() {
+            @Override
+            public boolean onOpen(long sessionId) {
+                UdpSession session = udpSessionsById.get(String.valueOf(sessionId));
+                return session != null && session.attachDatagram(sessionId);
+            }
+
+            @Override
+            public void onData(long sessionId, byte[] frame) {
+                UdpSession session = udpSessionsById.get(String.valueOf(sessionId));
+                if (session != null) session.deliver(frame);
+            }
+
+            @Override
+            public void onClose(long sessionId) {
+                UdpSession session = udpSessionsById.get(String.valueOf(sessionId));
+                if (session != null) session.end();
+            }
+        });
+    }
+
+    public void start() {
+        executor.submit(this::acceptHooks);
+        executor.submit(this::acceptTransfers);
+        executor.submit(this::acceptVisitors);
+        // JDK 21 中 DatagramSocket.receive 会占住虚拟线程的载体线程，UDP 接收放在平台线程上
+        Thread.ofPlatform().daemon().name("stand-in-udp").start(this::receiveDatagrams);
+        datagramEndpoint.start();
+    }
+
+    /**
+     * 原生 UDP 传输的故障注入，见 {@link DatagramEndpoint}。
+     */
+    public void setDatagramFaults(boolean blocked, double lossRate, double replayRate) {
+        datagramEndpoint.blocked = blocked;
+        datagramEndpoint.lossRate = lossRate;
+        datagramEndpoint.replayRate = replayRate;
+    }
+
+    /**
+     * @return 经原生 UDP 传输接入的会话数
+     */
+    public long getDatagramSessionCount() {
+        return datagramSessions.sum();
+    }
+
+    public String describeDatagramEndpoint() {
+        return "sessions " + datagramSessions.sum() + ", injected loss " + datagramEndpoint.getLostCount()
+                + ", injected replays " + datagramEndpoint.getDuplicatedCount()
+                + ", rejected " + datagramEndpoint.getRejectedCount() + ", replays dropped " + datagramEndpoint.getReplayedCount();
+    }
+
+    /**
+     * @return 访客连接的端口（TCP 与 UDP 相同）
+     */
+    public int getPublicPort() {
+        return publicTcp.getLocalPort();
+    }
+
+    public boolean awaitClient(long timeout, TimeUnit unit) throws InterruptedException {
+        return hookReady.await(timeout, unit);
+    }
+
+    public LatencyHistogram getSetupLatency() {
+        return setupLatency;
+    }
+
+    public long getPingCount() {
+        return pings.sum();
+    }
+
+    public long getSetupTimeoutCount() {
+        return setupTimeouts.sum();
+    }
+
+    public long getRelayedBytes() {
+        return relayedBytes.sum();
+    }
+
+    /**
+     * @return 客户端发来的 UDP 帧平均携带的数据报数，没有 UDP 流量时为 0
+     */
+    public double getUdpDatagramsPerFrame() {
+        long frames = batchFrames.sum();
+        return frames == 0 ? 0 : (double) batchedDatagrams.sum() / frames;
+    }
+
+    // ==================== Hook ====================
+
+    private void acceptHooks() {
+        while (running) {
+            try {
+                SecureSocket socket = hookServer.accept();
+                executor.submit(() -> serveHook(socket));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serveHook(SecureSocket socket) {
+        try {
+            String clientInfo = socket.receiveStr();
+            if (clientInfo == null) return;
+            String[] parts = clientInfo.split(";");
+            if (parts.length < 4) {
+                socket.sendStr("Invalid client info, exit");
+                return;
+            }
+            hookLock.lock();
+            try {
+                InternetOperator.close(hook);
+                hook = socket;
+                String requested = parts.length > 4 ? parts[4] : "";
+                compression = requested.indexOf('Z') >= 0;
+                batching = requested.indexOf('B') >= 0;
+                boolean datagram = requested.indexOf('D') >= 0;
+                socket.sendStr(SUCCESS_MESSAGE);
+                socket.sendStr(":>" + getPublicPort());
+                String accepted = (compression ? "Z" : "") + (batching ? "B" : "") + (datagram ? "D" : "");
+                if (!accepted.isEmpty()) socket.sendStr(":>features;" + accepted);
+                if (datagram) socket.sendStr(":>" + datagramEndpoint.offer());
+            } finally {
+                hookLock.unlock();
+            }
+            hookReady.countDown();
+            String message;
+            while ((message = socket.receiveStr()) != null) {
+                if ("PING".equals(message)) pings.increment();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            if (running) System.err.println("[stand-in] hook closed: " + e.getMessage());
+        } finally {
+            InternetOperator.close(socket);
+        }
+    }
+
+    private void sendCommand(String command) throws IOException {
+        hookLock.lock();
+        try {
+            if (hook == null) throw new IOException("No client connected");
+            hook.sendStr(":>" + command);
+        } finally {
+            hookLock.unlock();
+        }
+    }
+
+    // ==================== 传输连接 ====================
+
+    private void acceptTransfers() {
+        while (running) {
+            try {
+                SecureSocket socket = transferServer.accept();
+                executor.submit(() -> serveTransfer(socket));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serveTransfer(SecureSocket socket) {
+        try {
+            String header = socket.receiveStr();
+            String[] parts = header == null ? new String[0] : header.split(";");
+            if (parts.length == 2 && "TCP".equals(parts[0])) {
+                CompletableFuture<TransferChannel> pending = pendingTcp.remove(parts[1]);
+                if (pending != null && pending.complete(openChannel(socket))) return;
+            } else if (parts.length == 2 && "UDP".equals(parts[0])) {
+                UdpSession session = udpSessionsById.get(parts[1]);
+                if (session != null) {
+                    session.attach(openChannel(socket));
+                    return;
+                }
+            }
+            // 未知会话或不支持的头（如 "MUX;..."）
+            InternetOperator.close(socket);
+        } catch (IOException e) {
+            InternetOperator.close(socket);
+        }
+    }
+
+    /**
+     * 与客户端的 openTransferChannel 对应：协商了压缩时在传输连接外层叠加同样的压缩。
+     */
+    private TransferChannel openChannel(SecureSocket socket) {
+        TransferChannel channel = new SecureTransferChannel(socket);
+        return compression ? new CompressingTransferChannel(channel) : channel;
+    }
+
+    // ==================== TCP 访客 ====================
+
+    private void acceptVisitors() {
+        while (running) {
+            try {
+                Socket visitor = publicTcp.accept();
+                executor.submit(() -> serveTcpVisitor(visitor));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serveTcpVisitor(Socket visitor) {
+        String id = String.valueOf(nextId.getAndIncrement());
+        long acceptedAt = System.nanoTime();
+        CompletableFuture<TransferChannel> transferFuture = new CompletableFuture<>();
+        pendingTcp.put(id, transferFuture);
+        TransferChannel transfer;
+        try {
+            sendCommand("sendSocketTCP;" + id + ";" + formatAddress(visitor.getRemoteSocketAddress()));
+            transfer = transferFuture.get(TRANSFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            setupTimeouts.increment();
+            pendingTcp.remove(id);
+            InternetOperator.close(visitor);
+            return;
+        } catch (Exception e) {
+            pendingTcp.remove(id);
+            InternetOperator.close(visitor);
+            return;
+        }
+        setupLatency.record((System.nanoTime() - acceptedAt) / 1000);
+
+        Runnable visitorToClient = () -> {
+            try (InputStream input = visitor.getInputStream()) {
+                byte[] buffer = new byte[65536];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    transfer.sendByte(buffer, 0, read);
+                    relayedBytes.add(read);
+                }
+                transfer.sendByte(null); // 与客户端相同的结束信号
+            } catch (IOException ignore) {
+                // 任一方向出错时由另一方向关闭
+            }
+        };
+        executor.submit(visitorToClient);
+        try (OutputStream output = visitor.getOutputStream()) {
+            byte[] frame;
+            while ((frame = transfer.receiveByte()) != null) {
+                output.write(frame);
+                relayedBytes.add(frame.length);
+            }
+        } catch (IOException ignore) {
+        } finally {
+            InternetOperator.close(visitor, transfer);
+        }
+    }
+
+    // ==================== UDP 访客 ====================
+
+    private void receiveDatagrams() {
+        byte[] buffer = new byte[65535];
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                publicUdp.receive(packet);
+                SocketAddress visitor = packet.getSocketAddress();
+                UdpSession session = udpSessionsByVisitor.computeIfAbsent(visitor, this::openUdpSession);
+                if (session != null) session.forward(packet);
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private UdpSession openUdpSession(SocketAddress visitor) {
+        String id = String.valueOf(nextId.getAndIncrement());
+        UdpSession session = new UdpSession(id, (InetSocketAddress) visitor);
+        udpSessionsById.put(id, session);
+        try {
+            sendCommand("sendSocketUDP;" + id + ";" + formatAddress(visitor));
+        } catch (IOException e) {
+            udpSessionsById.remove(id);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * 发往客户端的一个 UDP 帧：经传输连接，或经原生 UDP 传输。
+     */
+    @FunctionalInterface
+    private interface FrameSink {
+        void send(byte[] frame) throws IOException;
+    }
+
+    /**
+     * 一个访客地址对应的 UDP 会话。客户端的传输连接（或原生传输的 OPEN）到达之前收到的数据报先排队，到达后按序补发。
+     */
+    private final class UdpSession {
+        private final String id;
+        private final InetSocketAddress visitor;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<byte[]> queued = new ArrayDeque<>(); // 受 lock 保护
+        private FrameSink transfer; // 受 lock 保护
+
+        UdpSession(String id, InetSocketAddress visitor) {
+            this.id = id;
+            this.visitor = visitor;
+        }
+
+        void forward(DatagramPacket packet) throws IOException {
+            byte[] frame = encode(visitor, packet.getData(), packet.getOffset(), packet.getLength());
+            lock.lock();
+            try {
+                if (transfer == null) {
+                    if (queued.size() < MAX_QUEUED_DATAGRAMS) queued.offer(frame);
+                    return;
+                }
+                transfer.send(frame);
+            } finally {
+                lock.unlock();
+            }
+            relayedBytes.add(packet.getLength());
+        }
+
+        private void connect(FrameSink sink) throws IOException {
+            lock.lock();
+            try {
+                transfer = sink;
+                if (batching) {
+                    sendAsBatches(queued, sink);
+                } else {
+                    byte[] frame;
+                    while ((frame = queued.poll()) != null) sink.send(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void attach(TransferChannel channel) throws IOException {
+            connect(channel::sendByte);
+            try {
+                byte[] received;
+                while ((received = channel.receiveByte()) != null) deliver(received);
+            } finally {
+                end();
+                InternetOperator.close(channel);
+            }
+        }
+
+        /**
+         * 客户端经原生 UDP 传输发来 OPEN；客户端等不到 OPEN_ACK 时会重发，重复的 OPEN 同样确认。
+         */
+        boolean attachDatagram(long sessionId) {
+            lock.lock();
+            try {
+                if (transfer != null) return true;
+                connect(frame -> datagramEndpoint.send(DatagramFrame.DATA, sessionId, frame));
+                datagramSessions.increment();
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 客户端发来的一帧（可能是合并帧）拆成数据报发给访客。
+         */
+        void deliver(byte[] received) {
+            batchFrames.increment();
+            try {
+                for (byte[] frame : unbatch(received)) {
+                    batchedDatagrams.increment();
+                    DatagramPacket reply = UDPTransformer.deserializeToDatagramPacket(frame);
+                    if (reply == null) continue;
+                    publicUdp.send(new DatagramPacket(reply.getData(), reply.getLength(), visitor));
+                    relayedBytes.add(reply.getLength());
+                }
+            } catch (IOException ignore) {
+                // 访客端口不可达时丢弃，与真实服务端一样不影响会话
+            }
+        }
+
+        void end() {
+            udpSessionsById.remove(id);
+            udpSessionsByVisitor.remove(visitor, this);
+        }
+    }
+
+    /**
+     * 把排队的数据报帧按 MAX_BATCH_BYTES 合并成若干合并帧发出，只剩一个时发送普通帧。
+     */
+    private static void sendAsBatches(ArrayDeque<byte[]> queued, FrameSink sink) throws IOException {
+        while (!queued.isEmpty()) {
+            List<byte[]> batch = new ArrayList<>();
+            int size = 8;
+            while (!queued.isEmpty() && (batch.isEmpty() || size + 4 + queued.peek().length <= MAX_BATCH_BYTES)) {
+                byte[] frame = queued.poll();
+                batch.add(frame);
+                size += 4 + frame.length;
+            }
+            if (batch.size() == 1) {
+                sink.send(batch.get(0));
+                continue;
+            }
+            ByteBuffer combined = ByteBuffer.allocate(size).putInt(BATCH_MAGIC).putInt(batch.size());
+            for (byte[] frame : batch) combined.putInt(frame.length).put(frame);
+            sink.send(combined.array());
+        }
+    }
+
+    /**
+     * 合并帧按长度前缀拆成普通数据报帧，其他帧原样返回。
+     */
+    static List<byte[]> unbatch(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        if (frame.length < 8 || buffer.getInt() != BATCH_MAGIC) return List.of(frame);
+        int count = buffer.getInt();
+        List<byte[]> frames = new ArrayList<>(count);
+        for (int i = 0; i < count && buffer.remaining() >= 4; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) break;
+            byte[] record = new byte[length];
+            buffer.get(record);
+            frames.add(record);
+        }
+        return frames;
+    }
+
+    /**
+     * 与 UDPTransformer 相同的帧格式：魔数、数据长度、地址长度、地址、端口、数据，大端序。
+     */
+    static byte[] encode(InetSocketAddress address, byte[] data, int offset, int length) {
+        byte[] ip = address.getAddress().getAddress();
+        ByteBuffer frame = ByteBuffer.allocate(4 + 4 + 4 + ip.length + 2 + length);
+        frame.putInt(0xDEADBEEF).putInt(length).putInt(ip.length).put(ip).putShort((short) address.getPort()).put(data, offset, length);
+        return frame.array();
+    }
+
+    private static String formatAddress(SocketAddress address) {
+        InetSocketAddress inet = (InetSocketAddress) address;
+        String host = inet.getAddress().getHostAddress();
+        return (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + inet.getPort();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        InternetOperator.close(hookServer, transferServer, publicTcp, publicUdp, datagramEndpoint);
+        hookLock.lock();
+        try {
+            InternetOperator.close(hook);
+        } finally {
+            hookLock.unlock();
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,42 @@
+package neoproxy.neolink;
+
+/**
+ * 预热连接池共用的容量估算：用指数加权平均跟踪访客到达速率和建连耗时，
+ * 目标池大小 = 建连耗时内预计到达的访客数（向上取整）+ 1，且不超过池的上限。
+ */
+final class ArrivalRateEstimator {
+    // 到达速率的 EWMA 时间常数
+    private static final double RATE_DECAY_MILLIS = 10_000.0;
+
+    private double arrivalRatePerSecond = 0;
+    private long lastArrivalTime = System.currentTimeMillis();
+    private double averageDialMillis;
+
+    ArrivalRateEstimator(double initialDialMillis) {
+        this.averageDialMillis = initialDialMillis;
+    }
+
+    synchronized void recordArrival() {
+        decayRate(System.currentTimeMillis());
+        arrivalRatePerSecond += 1000.0 / RATE_DECAY_MILLIS;
+    }
+
+    synchronized void recordDial(double millis) {
+        averageDialMillis = averageDialMillis * 0.8 + millis * 0.2;
+    }
+
+    synchronized int targetSize(int maxSize) {
+        decayRate(System.currentTimeMillis());
+        if (arrivalRatePerSecond < 0.01) return 0;
+        int target = (int) Math.ceil(arrivalRatePerSecond * averageDialMillis / 1000.0) + 1;
+        return Math.min(maxSize, target);
+    }
+
+    private void decayRate(long now) {
+        long elapsed = now - lastArrivalTime;
+        if (elapsed > 0) {
+            arrivalRatePerSecond *= Math.exp(-elapsed / RATE_DECAY_MILLIS);
+            lastArrivalTime = now;
+        }
+    }
+}
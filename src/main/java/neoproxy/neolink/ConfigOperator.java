@@ -1,7 +1,20 @@
 package neoproxy.neolink;
 
 import fun.ceroxe.api.utils.config.LineConfigReader;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.dgram.DatagramTransport;
+import neoproxy.neolink.threads.AdaptiveReadSizer;
+import neoproxy.neolink.threads.BufferPool;
 import neoproxy.neolink.threads.CheckAliveThread;
+import neoproxy.neolink.threads.DatagramBatcher;
+import neoproxy.neolink.threads.InFlightBudget;
+import neoproxy.neolink.threads.NioTransferEngine;
+import neoproxy.neolink.threads.TCPTransformer;
+import neoproxy.neolink.threads.TrafficShaper;
+import neoproxy.neolink.threads.TunnelExecutor;
+import neoproxy.neolink.threads.UDPTransformer;
+import neoproxy.neolink.threads.UdpIdleTimeout;
+import neoproxy.neolink.threads.WriteCoalescer;
 
 import java.io.File;
 import java.io.IOException;
@@ -89,6 +102,54 @@ public final class ConfigOperator {
             ProxyOperator.PROXY_IP_TO_NEO_SERVER = reader.getOptional("PROXY_IP_TO_NEO_SERVER").orElse("");
             ProxyOperator.PROXY_IP_TO_LOCAL_SERVER = reader.getOptional("PROXY_IP_TO_LOCAL_SERVER").orElse("");
             CheckAliveThread.HEARTBEAT_PACKET_DELAY = reader.getOptional("HEARTBEAT_PACKET_DELAY").map(Integer::parseInt).orElse(1000);
+            if (NeoLink.transferEngine == null) {
+                NeoLink.transferEngine = reader.getOptional("TRANSFER_ENGINE").orElse(NioTransferEngine.ENGINE_THREAD);
+            }
+            TunnelExecutor.MODE = reader.getOptional("EXECUTOR_MODE").orElse(TunnelExecutor.MODE_PLATFORM);
+            TunnelExecutor.MAX_THREADS = reader.getOptional("EXECUTOR_MAX_THREADS").map(Integer::parseInt).orElse(0);
+            ServerFeatures.requestMultiplex = reader.getOptional("ENABLE_MULTIPLEX").map(Boolean::parseBoolean).orElse(false);
+            ServerFeatures.requestCompression = reader.getOptional("ENABLE_COMPRESSION").map(Boolean::parseBoolean).orElse(false);
+            ServerFeatures.requestBatching = reader.getOptional("ENABLE_UDP_BATCHING").map(Boolean::parseBoolean).orElse(false);
+            DatagramBatcher.DELAY_MICROS = reader.getOptional("UDP_BATCH_DELAY_US").map(Long::parseLong).orElse(0L);
+            // 合并帧不能超过一个最大数据报帧，否则多路复用与独占连接都可能拒收
+            DatagramBatcher.MAX_BYTES = reader.getOptional("UDP_BATCH_MAX_BYTES").map(Integer::parseInt)
+                    .map(len -> Math.max(256, Math.min(len, UDPTransformer.BUFFER_LENGTH))).orElse(8 * 1024);
+            ServerFeatures.requestDatagram = reader.getOptional("ENABLE_DATAGRAM_TRANSPORT").map(Boolean::parseBoolean).orElse(false);
+            DatagramTransport.OPEN_TIMEOUT_MILLIS = reader.getOptional("DATAGRAM_OPEN_TIMEOUT").map(Long::parseLong).orElse(1000L);
+            UdpIdleTimeout.DEFAULT_SECONDS = reader.getOptional("UDP_IDLE_TIMEOUT").map(Long::parseLong).orElse(120L);
+            UdpIdleTimeout.setPortOverrides(reader.getOptional("UDP_IDLE_TIMEOUT_PORTS").orElse(""));
+            TransferSocketPool.MAX_SIZE = reader.getOptional("TRANSFER_POOL_MAX").map(Integer::parseInt).orElse(0);
+            TransferSocketPool.MAX_IDLE_MILLIS = reader.getOptional("TRANSFER_POOL_MAX_IDLE").map(Long::parseLong).orElse(15000L);
+            LocalSocketPool.MAX_SIZE = reader.getOptional("LOCAL_POOL_MAX").map(Integer::parseInt).orElse(0);
+            LocalSocketPool.MAX_IDLE_MILLIS = reader.getOptional("LOCAL_POOL_MAX_IDLE").map(Long::parseLong).orElse(10000L);
+            HappyEyeballs.ATTEMPT_DELAY_MILLIS = reader.getOptional("CONNECTION_ATTEMPT_DELAY").map(Long::parseLong).orElse(250L);
+            DnsCache.TTL_MILLIS = reader.getOptional("DNS_CACHE_TTL").map(Long::parseLong).orElse(60000L);
+            DnsCache.NEGATIVE_TTL_MILLIS = reader.getOptional("DNS_NEGATIVE_TTL").map(Long::parseLong).orElse(10000L);
+            SocketTuning.NEO.setProfile(reader.getOptional("SOCKET_PROFILE_NEO").orElse(SocketTuning.PROFILE_SYSTEM));
+            SocketTuning.LOCAL.setProfile(reader.getOptional("SOCKET_PROFILE_LOCAL").orElse(SocketTuning.PROFILE_SYSTEM));
+            AdaptiveReadSizer.MIN_SIZE = reader.getOptional("BUFFER_LEN").map(Integer::parseInt)
+                    .map(len -> Math.max(1, Math.min(len, AdaptiveReadSizer.MAX_SIZE))).orElse(4096);
+            // 上限不能小于一个完整的 UDP 数据报帧
+            SecureTransferChannel.MAX_FRAME_LENGTH = reader.getOptional("MAX_FRAME_LENGTH").map(Integer::parseInt)
+                    .map(len -> Math.max(len, BufferPool.MAX_BUFFER_SIZE)).orElse(256 * 1024);
+            WriteCoalescer.ENABLED = reader.getOptional("ENABLE_WRITE_COALESCING").map(Boolean::parseBoolean).orElse(false);
+            WriteCoalescer.DELAY_MICROS = reader.getOptional("COALESCE_DELAY_US").map(Long::parseLong).orElse(200L);
+            WriteCoalescer.THRESHOLD = reader.getOptional("COALESCE_THRESHOLD").map(Integer::parseInt)
+                    .map(len -> Math.max(1, Math.min(len, TCPTransformer.BUFFER_LENGTH))).orElse(16 * 1024);
+            // 旧名 BUFFER_POOL_MAX_MB 仍然接受
+            BufferPool.MAX_IDLE_BYTES = reader.getOptional("BUFFER_POOL_MAX_IDLE_MB").or(() -> reader.getOptional("BUFFER_POOL_MAX_MB"))
+                    .map(Long::parseLong).orElse(64L) * 1024 * 1024;
+            InFlightBudget.MAX_BYTES = reader.getOptional("IN_FLIGHT_BUDGET_MB").map(Long::parseLong).orElse(128L) * 1024 * 1024;
+            TrafficShaper.GLOBAL_RATE = reader.getOptional("RATE_LIMIT_GLOBAL_KBPS").map(Long::parseLong).orElse(0L) * 1024;
+            TrafficShaper.VISITOR_RATE = reader.getOptional("RATE_LIMIT_VISITOR_KBPS").map(Long::parseLong).orElse(0L) * 1024;
+            TrafficShaper.TUNNEL_RATE = reader.getOptional("RATE_LIMIT_TUNNEL_KBPS").map(Long::parseLong).orElse(0L) * 1024;
+            TrafficShaper.INTERACTIVE_PERCENT = reader.getOptional("RATE_LIMIT_INTERACTIVE_PERCENT").map(Integer::parseInt)
+                    .map(percent -> Math.max(0, Math.min(percent, 100))).orElse(25);
+            TrafficShaper.reconfigure();
+            if (MetricsServer.PORT < 0) {
+                MetricsServer.PORT = reader.getOptional("METRICS_PORT").map(Integer::parseInt).orElse(0);
+            }
+            NioTransferEngine.EVENT_LOOP_COUNT = reader.getOptional("NIO_EVENT_LOOPS").map(Integer::parseInt).orElse(NioTransferEngine.EVENT_LOOP_COUNT);
         } catch (IOException e) {
             System.exit(-1);
         }
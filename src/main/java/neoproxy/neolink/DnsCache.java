@@ -0,0 +1,159 @@
+package neoproxy.neolink;
+
+import neoproxy.neolink.threads.TunnelExecutor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 进程内的域名解析缓存，remoteDomainName、localDomainName 的每次建连以及 UDP 的每个数据报都从这里取地址，
+ * 突发流量下不再为每个连接或每个包都向系统解析器发起一次查询。
+ * <p>
+ * 解析成功的结果缓存 TTL_MILLIS，进入最后 1/5 的有效期后被访问时在后台提前刷新，刷新期间继续返回旧结果；
+ * 解析失败的结果缓存 NEGATIVE_TTL_MILLIS，期间直接抛出同样的 UnknownHostException。
+ * 同一域名未命中时只有一个线程向系统解析器查询，同时到达的其他线程等待它的结果，突发建连不会放大成一串相同的查询。
+ */
+public final class DnsCache {
+    public static long TTL_MILLIS = 60_000;
+    public static long NEGATIVE_TTL_MILLIS = 10_000;
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 正在前台查询的域名，同一域名的并发未命中共享一个结果
+    private static final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+
+    private DnsCache() {
+    }
+
+    /**
+     * @return host 解析出的全部地址，顺序与 InetAddress.getAllByName 相同
+     */
+    public static InetAddress[] resolveAll(String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(host);
+        if (entry != null && entry.expiresAt > now) {
+            hits.increment();
+            if (entry.addresses != null && now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                TunnelExecutor.execute(() -> refresh(host));
+            }
+            return entry.get();
+        }
+        misses.increment();
+        return lookupOnce(host).get();
+    }
+
+    /**
+     * @return host 解析出的第一个地址，与 InetAddress.getByName 相同
+     */
+    public static InetAddress resolve(String host) throws UnknownHostException {
+        return resolveAll(host)[0];
+    }
+
+    public static void clear() {
+        entries.clear();
+    }
+
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 未命中时等待了其他线程查询结果、没有自己查询的次数
+     */
+    public static long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public static String describe() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", coalesced=" + getCoalescedCount() + ", entries=" + entries.size();
+    }
+
+    /**
+     * 同一域名同时只有一个线程查询，其余线程等待同一个 CompletableFuture。
+     */
+    private static Entry lookupOnce(String host) {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(host, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                throw e;
+            }
+        }
+        try {
+            // 前一个查询可能刚好在本线程读缓存之后完成
+            Entry entry = entries.get(host);
+            if (entry == null || entry.expiresAt <= System.currentTimeMillis()) entry = lookup(host);
+            mine.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(host, mine);
+        }
+    }
+
+    private static Entry lookup(String host) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(host);
+            entry = new Entry(addresses, null, now + TTL_MILLIS, now + TTL_MILLIS * 4 / 5);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, e, now + NEGATIVE_TTL_MILLIS, Long.MAX_VALUE);
+        }
+        entries.put(host, entry);
+        return entry;
+    }
+
+    private static void refresh(String host) {
+        Entry current = entries.get(host);
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(host);
+            long now = System.currentTimeMillis();
+            entries.put(host, new Entry(addresses, null, now + TTL_MILLIS, now + TTL_MILLIS * 4 / 5));
+        } catch (UnknownHostException e) {
+            // 刷新失败时保留旧结果直到过期，过期后再由前台查询决定是否转为负缓存
+            debugOperation(e);
+            if (current != null) current.refreshing.set(false);
+        }
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final UnknownHostException failure;
+        final long expiresAt;
+        final long refreshAt;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(InetAddress[] addresses, UnknownHostException failure, long expiresAt, long refreshAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+
+        InetAddress[] get() throws UnknownHostException {
+            if (addresses == null) throw failure;
+            return addresses;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package neoproxy.neolink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 按 RFC 8305（Happy Eyeballs v2）建立 TCP 连接：解析出的地址按 IPv6 / IPv4 交替排列，
+ * 每隔 ATTEMPT_DELAY_MILLIS 发起下一个地址的非阻塞连接（前一个失败时立即发起），
+ * 第一个连上的地址胜出，其余尝试全部取消。这样双栈主机上 IPv6 不通时不必再等满超时才尝试 IPv4。
+ * <p>
+ * 胜出的地址族按主机名记住 FAMILY_TTL_MILLIS，期间优先尝试该地址族。
+ * 所有尝试都在调用线程上通过一个临时 Selector 完成，不额外占用线程；关闭该 Selector 即可从其他线程中止整次连接。
+ */
+public final class HappyEyeballs {
+    public static long ATTEMPT_DELAY_MILLIS = 250;
+    public static long FAMILY_TTL_MILLIS = 10 * 60 * 1000;
+
+    private static final Map<String, PreferredFamily> preferredFamilies = new ConcurrentHashMap<>();
+    private static final AtomicLong dialCount = new AtomicLong(0);
+    private static final AtomicLong totalDialMillis = new AtomicLong(0);
+
+    private HappyEyeballs() {
+    }
+
+    /**
+     * 连接 host:port 并返回阻塞模式的 Socket（由 SocketChannel 创建，可交给 NIO 引擎接管）。
+     *
+     * @param timeoutMillis 每个地址的连接超时
+     * @param tuning        在每个尝试 connect 之前应用的调优方案，握手耗时也作为 RTT 样本记入其中
+     */
+    public static Socket connect(String host, int port, int timeoutMillis, SocketTuning tuning) throws IOException {
+        return connect(host, port, timeoutMillis, tuning, null);
+    }
+
+    /**
+     * 同 {@link #connect(String, int, int, SocketTuning)}，但在发起尝试之前把本次连接的取消句柄交给 onDialing，
+     * 其他线程关闭该句柄后所有进行中的尝试立即关闭，本方法抛出 IOException（如 GUI 的停止按钮）。
+     *
+     * @param onDialing 接收取消句柄，可为 null
+     */
+    public static Socket connect(String host, int port, int timeoutMillis, SocketTuning tuning,
+                                 Consumer<Closeable> onDialing) throws IOException {
+        long start = System.nanoTime();
+        List<InetAddress> addresses = sortAddresses(host, DnsCache.resolveAll(host));
+        SocketChannel channel = race(addresses, port, timeoutMillis, tuning, onDialing);
+        try {
+            channel.configureBlocking(true);
+        } catch (IOException e) {
+            InternetOperator.close(channel);
+            throw e;
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        dialCount.incrementAndGet();
+        totalDialMillis.addAndGet(elapsedMillis);
+
+        InetAddress winner = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+        preferredFamilies.put(host, new PreferredFamily(winner instanceof Inet6Address, System.currentTimeMillis() + FAMILY_TTL_MILLIS));
+        debugOperation("Connected to " + host + ":" + port + " via " + winner.getHostAddress() + " in " + elapsedMillis + "ms, " + tuning.describe(channel.socket()));
+        return channel.socket();
+    }
+
+    /**
+     * 按 RFC 8305 第 4 节交替排列两个地址族，优先使用记住的地址族，否则沿用解析结果中第一个地址的地址族。
+     */
+    private static List<InetAddress> sortAddresses(String host, InetAddress[] resolved) {
+        List<InetAddress> ipv6 = new ArrayList<>();
+        List<InetAddress> ipv4 = new ArrayList<>();
+        for (InetAddress address : resolved) {
+            (address instanceof Inet6Address ? ipv6 : ipv4).add(address);
+        }
+        boolean preferIpv6 = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+        PreferredFamily preferred = preferredFamilies.get(host);
+        if (preferred != null) {
+            if (preferred.expiresAt > System.currentTimeMillis()) {
+                preferIpv6 = preferred.ipv6;
+            } else {
+                preferredFamilies.remove(host, preferred);
+            }
+        }
+        List<InetAddress> first = preferIpv6 ? ipv6 : ipv4;
+        List<InetAddress> second = preferIpv6 ? ipv4 : ipv6;
+        List<InetAddress> sorted = new ArrayList<>(resolved.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) sorted.add(first.get(i));
+            if (i < second.size()) sorted.add(second.get(i));
+        }
+        return sorted;
+    }
+
+    private static SocketChannel race(List<InetAddress> addresses, int port, int timeoutMillis, SocketTuning tuning,
+                                      Consumer<Closeable> onDialing) throws IOException {
+        // 每个进行中的尝试及其发起时间
+        Map<SocketChannel, Long> attempts = new HashMap<>();
+        IOException lastException = null;
+        int next = 0;
+        long nextAttemptAt = 0;
+        try (Selector selector = Selector.open()) {
+            if (onDialing != null) onDialing.accept(selector);
+            while (next < addresses.size() || !attempts.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (next < addresses.size() && (now >= nextAttemptAt || attempts.isEmpty())) {
+                    InetAddress address = addresses.get(next++);
+                    debugOperation("Trying address: " + address);
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        tuning.apply(channel.socket());
+                        if (channel.connect(new InetSocketAddress(address, port))) {
+                            return win(channel, now, attempts, tuning);
+                        }
+                        channel.register(selector, SelectionKey.OP_CONNECT);
+                        attempts.put(channel, now);
+                    } catch (IOException e) {
+                        InternetOperator.close(channel);
+                        lastException = e;
+                    }
+                    nextAttemptAt = now + ATTEMPT_DELAY_MILLIS;
+                    continue;
+                }
+
+                long wakeAt = Long.MAX_VALUE;
+                for (long startedAt : attempts.values()) wakeAt = Math.min(wakeAt, startedAt + timeoutMillis);
+                if (next < addresses.size()) wakeAt = Math.min(wakeAt, nextAttemptAt);
+                selector.select(Math.max(1, wakeAt - now));
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            key.cancel();
+                            return win(channel, attempts.remove(channel), attempts, tuning);
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        attempts.remove(channel);
+                        InternetOperator.close(channel);
+                        lastException = e;
+                        nextAttemptAt = 0; // 前一个尝试失败，立即尝试下一个地址
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                now = System.currentTimeMillis();
+                var iterator = attempts.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    var entry = iterator.next();
+                    if (entry.getValue() + timeoutMillis <= now) {
+                        InternetOperator.close(entry.getKey());
+                        iterator.remove();
+                        lastException = new IOException("Connect timed out: " + entry.getKey());
+                        nextAttemptAt = 0;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            for (SocketChannel channel : attempts.keySet()) InternetOperator.close(channel);
+            throw e;
+        } catch (ClosedSelectorException e) {
+            // 取消句柄被关闭
+            for (SocketChannel channel : attempts.keySet()) InternetOperator.close(channel);
+            throw new IOException("Connect to port " + port + " cancelled");
+        }
+        throw (lastException != null) ? lastException : new IOException("No address to connect to");
+    }
+
+    /**
+     * 取消其余尝试并记录胜出连接的握手耗时。胜出的连接在 Selector 关闭、注册解除之后才能切回阻塞模式。
+     */
+    private static SocketChannel win(SocketChannel winner, long startedAt, Map<SocketChannel, Long> others, SocketTuning tuning) {
+        tuning.recordHandshake(System.currentTimeMillis() - startedAt);
+        for (SocketChannel channel : others.keySet()) InternetOperator.close(channel);
+        others.clear();
+        return winner;
+    }
+
+    public static long getDialCount() {
+        return dialCount.get();
+    }
+
+    public static long getAverageDialMillis() {
+        long count = dialCount.get();
+        return count == 0 ? 0 : totalDialMillis.get() / count;
+    }
+
+    private record PreferredFamily(boolean ipv6, long expiresAt) {
+    }
+}
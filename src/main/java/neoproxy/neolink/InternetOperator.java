@@ -2,6 +2,7 @@ package neoproxy.neolink;
 
 
 import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.channel.TransferChannel;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -38,6 +39,13 @@ public class InternetOperator {
         }
     }
 
+    public static void shutdownInput(TransferChannel channel) {
+        try {
+            channel.shutdownInput();
+        } catch (Exception ignore) {
+        }
+    }
+
     public static void shutdownInput(Socket socket) {
         try {
             socket.shutdownInput();
@@ -52,6 +60,13 @@ public class InternetOperator {
         }
     }
 
+    public static void shutdownOutput(TransferChannel channel) {
+        try {
+            channel.shutdownOutput();
+        } catch (Exception ignore) {
+        }
+    }
+
     public static void shutdownOutput(Socket socket) {
         try {
             socket.shutdownOutput();
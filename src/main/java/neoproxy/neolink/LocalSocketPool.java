@@ -0,0 +1,130 @@
+package neoproxy.neolink;
+
+import neoproxy.neolink.threads.TunnelExecutor;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 预热的本地后端连接池：提前连好 localDomainName:localPort（或经本地代理完成握手），
+ * 访客到达时直接取用，省去解析、建连与代理握手的时间。默认关闭（MAX_SIZE 为 0），只用于 TCP。
+ * <p>
+ * 取出前做一次非阻塞健康检查：对端已关闭的连接直接丢弃；若闲置连接上收到了数据，
+ * 说明后端是 SSH、SMTP、MySQL 这类由服务端先发送欢迎信息的协议，预先建连会让欢迎信息过期，
+ * 此时本次运行内自动停用连接池并回退到按需建连。
+ * 经本地代理建立的连接没有 SocketChannel，只能检查是否已有数据到达，失效连接依靠 MAX_IDLE_MILLIS 淘汰。
+ */
+public final class LocalSocketPool {
+    public static int MAX_SIZE = 0;
+    public static long MAX_IDLE_MILLIS = 10000;
+
+    private static final ConcurrentLinkedDeque<PooledSocket> idleSockets = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger idleCount = new AtomicInteger(0);
+    private static final AtomicBoolean refilling = new AtomicBoolean(false);
+    private static final ArrivalRateEstimator estimator = new ArrivalRateEstimator(10);
+
+    private static volatile boolean serverFirstDetected = false;
+
+    private LocalSocketPool() {
+    }
+
+    public static boolean isEnabled() {
+        return MAX_SIZE > 0 && !serverFirstDetected;
+    }
+
+    /**
+     * 获取一个已连接的本地后端 Socket；池为空、已关闭或所有闲置连接都不健康时直接新建。
+     */
+    public static Socket acquire() throws IOException {
+        if (!isEnabled()) return NeoLink.openLocalSocket();
+        estimator.recordArrival();
+        PooledSocket pooled;
+        while ((pooled = idleSockets.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (System.currentTimeMillis() - pooled.createdAt <= MAX_IDLE_MILLIS && isHealthy(pooled.socket)) {
+                scheduleRefill();
+                return pooled.socket;
+            }
+            InternetOperator.close(pooled.socket);
+            if (serverFirstDetected) {
+                clear();
+                return NeoLink.openLocalSocket();
+            }
+        }
+        scheduleRefill();
+        return NeoLink.openLocalSocket();
+    }
+
+    /**
+     * 清空连接池，在与服务端的连接断开或本地目标变化时调用。
+     */
+    public static void clear() {
+        PooledSocket pooled;
+        while ((pooled = idleSockets.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            InternetOperator.close(pooled.socket);
+        }
+    }
+
+    public static int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public static boolean isServerFirstDetected() {
+        return serverFirstDetected;
+    }
+
+    private static boolean isHealthy(Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown()) return false;
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel == null) {
+                if (socket.getInputStream().available() > 0) onServerFirstData();
+                return !serverFirstDetected;
+            }
+            channel.configureBlocking(false);
+            int read = channel.read(ByteBuffer.allocate(1));
+            channel.configureBlocking(true);
+            if (read > 0) onServerFirstData();
+            return read == 0;
+        } catch (IOException e) {
+            debugOperation(e);
+            return false;
+        }
+    }
+
+    private static void onServerFirstData() {
+        if (serverFirstDetected) return;
+        serverFirstDetected = true;
+        debugOperation("Local backend sent data on an idle pooled connection, disabling the local socket pool.");
+    }
+
+    private static void scheduleRefill() {
+        if (!refilling.compareAndSet(false, true)) return;
+        TunnelExecutor.execute(() -> {
+            try {
+                while (isEnabled() && idleCount.get() < estimator.targetSize(MAX_SIZE) && NeoLink.hookSocket != null) {
+                    long start = System.nanoTime();
+                    Socket socket = NeoLink.openLocalSocket();
+                    estimator.recordDial((System.nanoTime() - start) / 1_000_000.0);
+                    idleSockets.offerLast(new PooledSocket(socket, System.currentTimeMillis()));
+                    idleCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                debugOperation(e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    private record PooledSocket(Socket socket, long createdAt) {
+    }
+}
@@ -0,0 +1,201 @@
+package neoproxy.neolink;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import neoproxy.neolink.channel.CompressingTransferChannel;
+import neoproxy.neolink.dgram.DatagramTransport;
+import neoproxy.neolink.mux.MuxSession;
+import neoproxy.neolink.threads.BufferPool;
+import neoproxy.neolink.threads.DatagramBatcher;
+import neoproxy.neolink.threads.InFlightBudget;
+import neoproxy.neolink.threads.LatencyHistogram;
+import neoproxy.neolink.threads.SetupTrace;
+import neoproxy.neolink.threads.TrafficShaper;
+import neoproxy.neolink.threads.TunnelExecutor;
+import neoproxy.neolink.threads.TunnelMetrics;
+import neoproxy.neolink.threads.UdpIdleTimeout;
+import neoproxy.neolink.threads.WriteCoalescer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 可选的本地指标端点，以 Prometheus 文本格式在 http://127.0.0.1:PORT/metrics 导出运行状态。
+ * 只绑定回环地址，PORT 为 0（默认）时不启动。所有数值都在抓取时从各模块的计数器读取，不影响转发路径。
+ */
+public final class MetricsServer {
+    // 命令行 --metrics-port 优先于配置文件，-1 表示未指定
+    public static int PORT = -1;
+    // 建连耗时直方图导出的桶边界（秒）
+    private static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static HttpServer server;
+
+    private MetricsServer() {
+    }
+
+    /**
+     * 按 PORT 启动端点，已启动时直接返回，重连时不会重复绑定。
+     */
+    public static synchronized void start() {
+        if (server != null || PORT <= 0) return;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+            server.createContext("/metrics", MetricsServer::handle);
+            server.start(); // 未指定执行器时在 HttpServer 自己的分发线程上处理，抓取请求很轻
+            debugOperation("Metrics endpoint listening on http://127.0.0.1:" + PORT + "/metrics");
+        } catch (IOException e) {
+            debugOperation(e);
+            server = null;
+        }
+    }
+
+    public static synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        server = null;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    static String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "neolink_tunnels_active", "gauge", "Tunnels currently forwarding.");
+        sample(out, "neolink_tunnels_active{protocol=\"tcp\"}", TunnelMetrics.getActiveCount(TunnelMetrics.TCP));
+        sample(out, "neolink_tunnels_active{protocol=\"udp\"}", TunnelMetrics.getActiveCount(TunnelMetrics.UDP));
+        header(out, "neolink_tunnels_opened_total", "counter", "Tunnels opened since start.");
+        sample(out, "neolink_tunnels_opened_total{protocol=\"tcp\"}", TunnelMetrics.getOpenedCount(TunnelMetrics.TCP));
+        sample(out, "neolink_tunnels_opened_total{protocol=\"udp\"}", TunnelMetrics.getOpenedCount(TunnelMetrics.UDP));
+        header(out, "neolink_tunnel_setup_failures_total", "counter", "TCP tunnels that failed before forwarding.");
+        sample(out, "neolink_tunnel_setup_failures_total", SetupTrace.getFailureCount());
+        header(out, "neolink_transfer_bytes_total", "counter", "Payload bytes forwarded.");
+        sample(out, "neolink_transfer_bytes_total{direction=\"upload\"}", TunnelMetrics.getUploadBytes());
+        sample(out, "neolink_transfer_bytes_total{direction=\"download\"}", TunnelMetrics.getDownloadBytes());
+
+        header(out, "neolink_setup_latency_seconds", "histogram", "TCP tunnel setup latency by stage.");
+        for (SetupTrace.Stage stage : SetupTrace.Stage.values()) {
+            histogram(out, "neolink_setup_latency_seconds", "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"", SetupTrace.getHistogram(stage));
+        }
+
+        header(out, "neolink_reconnects_total", "counter", "Reconnections to the Neo server.");
+        sample(out, "neolink_reconnects_total", TunnelMetrics.getReconnectCount());
+        header(out, "neolink_hook_connected", "gauge", "Whether the hook connection is up.");
+        sample(out, "neolink_hook_connected", NeoLink.hookSocket != null ? 1 : 0);
+
+        header(out, "neolink_executor_active_tasks", "gauge", "Tunnel executor tasks currently running.");
+        sample(out, "neolink_executor_active_tasks", TunnelExecutor.getActiveCount());
+        header(out, "neolink_executor_queued_tasks", "gauge", "Tunnel executor tasks waiting for a thread.");
+        sample(out, "neolink_executor_queued_tasks", TunnelExecutor.getQueuedCount());
+        header(out, "neolink_executor_completed_tasks_total", "counter", "Tunnel executor tasks completed.");
+        sample(out, "neolink_executor_completed_tasks_total", TunnelExecutor.getCompletedCount());
+        header(out, "neolink_executor_rejected_tunnels_total", "counter", "Tunnels refused because all transfer threads were taken.");
+        sample(out, "neolink_executor_rejected_tunnels_total", TunnelExecutor.getRejectedCount());
+
+        header(out, "neolink_buffer_pool_bytes", "gauge", "Buffer pool memory by state.");
+        sample(out, "neolink_buffer_pool_bytes{state=\"in_use\"}", BufferPool.getInUseBytes());
+        sample(out, "neolink_buffer_pool_bytes{state=\"pooled\"}", BufferPool.getPooledBytes());
+        header(out, "neolink_buffer_pool_requests_total", "counter", "Buffer pool requests by result.");
+        sample(out, "neolink_buffer_pool_requests_total{result=\"hit\"}", BufferPool.getHitCount());
+        sample(out, "neolink_buffer_pool_requests_total{result=\"miss\"}", BufferPool.getMissCount());
+        header(out, "neolink_in_flight_bytes", "gauge", "Bytes read but not yet written to the peer.");
+        sample(out, "neolink_in_flight_bytes", InFlightBudget.getUsedBytes());
+        header(out, "neolink_in_flight_pauses_total", "counter", "Reads paused by the in-flight budget.");
+        sample(out, "neolink_in_flight_pauses_total", InFlightBudget.getPauseCount());
+
+        header(out, "neolink_pool_idle_sockets", "gauge", "Pre-established idle sockets by pool.");
+        sample(out, "neolink_pool_idle_sockets{pool=\"transfer\"}", TransferSocketPool.getIdleCount());
+        sample(out, "neolink_pool_idle_sockets{pool=\"local\"}", LocalSocketPool.getIdleCount());
+        header(out, "neolink_mux_streams_active", "gauge", "Streams open on the multiplexed session.");
+        sample(out, "neolink_mux_streams_active", MuxSession.getActiveStreamCount());
+        header(out, "neolink_dns_cache_lookups_total", "counter", "DNS cache lookups by result.");
+        sample(out, "neolink_dns_cache_lookups_total{result=\"hit\"}", DnsCache.getHitCount());
+        sample(out, "neolink_dns_cache_lookups_total{result=\"miss\"}", DnsCache.getMissCount());
+        header(out, "neolink_dns_cache_coalesced_total", "counter", "DNS cache misses that waited for a concurrent lookup of the same host.");
+        sample(out, "neolink_dns_cache_coalesced_total", DnsCache.getCoalescedCount());
+        header(out, "neolink_dials_total", "counter", "Outbound TCP dials completed.");
+        sample(out, "neolink_dials_total", HappyEyeballs.getDialCount());
+        header(out, "neolink_upload_frames_total", "counter", "Frames sent to the Neo server by TCP tunnels.");
+        sample(out, "neolink_upload_frames_total", WriteCoalescer.getFramesSent());
+        header(out, "neolink_udp_frames_total", "counter", "UDP tunnel frames exchanged with the Neo server by direction.");
+        sample(out, "neolink_udp_frames_total{direction=\"upload\"}", DatagramBatcher.getFrameCount(TrafficShaper.UPLOAD));
+        sample(out, "neolink_udp_frames_total{direction=\"download\"}", DatagramBatcher.getFrameCount(TrafficShaper.DOWNLOAD));
+        header(out, "neolink_udp_datagrams_per_frame", "gauge", "Average datagrams carried per UDP tunnel frame.");
+        sample(out, "neolink_udp_datagrams_per_frame{direction=\"upload\"}", DatagramBatcher.getDatagramsPerFrame(TrafficShaper.UPLOAD));
+        sample(out, "neolink_udp_datagrams_per_frame{direction=\"download\"}", DatagramBatcher.getDatagramsPerFrame(TrafficShaper.DOWNLOAD));
+        header(out, "neolink_datagram_sessions_total", "counter", "UDP tunnels opened on the native datagram transport or fallen back to the transfer connection.");
+        sample(out, "neolink_datagram_sessions_total{transport=\"native\"}", DatagramTransport.getNativeSessionCount());
+        sample(out, "neolink_datagram_sessions_total{transport=\"fallback\"}", DatagramTransport.getFallbackSessionCount());
+        header(out, "neolink_datagram_packets_dropped_total", "counter", "Datagram transport packets dropped by reason.");
+        sample(out, "neolink_datagram_packets_dropped_total{reason=\"auth\"}", DatagramTransport.getRejectedPacketCount());
+        sample(out, "neolink_datagram_packets_dropped_total{reason=\"replay\"}", DatagramTransport.getReplayedPacketCount());
+        sample(out, "neolink_datagram_packets_dropped_total{reason=\"overflow\"}", DatagramTransport.getDroppedPacketCount());
+        header(out, "neolink_udp_sessions_tracked", "gauge", "UDP sessions currently tracked for idle eviction.");
+        sample(out, "neolink_udp_sessions_tracked", UdpIdleTimeout.getTrackedCount());
+        header(out, "neolink_udp_idle_evictions_total", "counter", "UDP sessions closed after the idle timeout.");
+        sample(out, "neolink_udp_idle_evictions_total", UdpIdleTimeout.getEvictionCount());
+        header(out, "neolink_compression_ratio", "gauge", "Compressed over original bytes for compressed frames.");
+        sample(out, "neolink_compression_ratio", CompressingTransferChannel.getCompressionRatio());
+        header(out, "neolink_shaper_throttled_seconds_total", "counter", "Time spent waiting on rate limits.");
+        sample(out, "neolink_shaper_throttled_seconds_total", TrafficShaper.getThrottledMillis() / 1000.0);
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "neolink_jvm_heap_bytes", "gauge", "JVM heap by state.");
+        sample(out, "neolink_jvm_heap_bytes{state=\"used\"}", heap.getUsed());
+        sample(out, "neolink_jvm_heap_bytes{state=\"committed\"}", heap.getCommitted());
+        header(out, "neolink_jvm_threads", "gauge", "Live JVM threads.");
+        sample(out, "neolink_jvm_threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            header(out, "neolink_process_cpu_seconds_total", "counter", "CPU time used by the process.");
+            sample(out, "neolink_process_cpu_seconds_total", os.getProcessCpuTime() / 1_000_000_000.0);
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, long value) {
+        out.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, double value) {
+        out.append(series).append(' ').append(formatDouble(value)).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        for (double bound : LATENCY_BUCKETS) {
+            sample(out, name + "_bucket{" + labels + ",le=\"" + formatDouble(bound) + "\"}", histogram.getCountAtOrBelow((long) (bound * 1_000_000)));
+        }
+        sample(out, name + "_bucket{" + labels + ",le=\"+Inf\"}", histogram.getCount());
+        sample(out, name + "_sum{" + labels + "}", histogram.getSum() / 1_000_000.0);
+        sample(out, name + "_count{" + labels + "}", histogram.getCount());
+    }
+
+    private static String formatDouble(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : (Double.isNaN(value) ? "NaN" : value > 0 ? "+Inf" : "-Inf");
+    }
+}
@@ -6,20 +6,40 @@ import fun.ceroxe.api.net.TcpPingUtil;
 import fun.ceroxe.api.print.log.LogType;
 import fun.ceroxe.api.print.log.Loggist;
 import fun.ceroxe.api.print.log.State;
-import fun.ceroxe.api.thread.ThreadManager;
 import fun.ceroxe.api.utils.Sleeper;
 import fun.ceroxe.api.utils.TimeUtils;
+import neoproxy.neolink.channel.CompressingTransferChannel;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.channel.TransferChannel;
+import neoproxy.neolink.dgram.DatagramStream;
+import neoproxy.neolink.dgram.DatagramTransport;
 import neoproxy.neolink.gui.ComposeEntryKt;
+import neoproxy.neolink.jfr.TunnelEvents;
+import neoproxy.neolink.mux.MuxFrame;
+import neoproxy.neolink.mux.MuxSession;
+import neoproxy.neolink.threads.BufferPool;
 import neoproxy.neolink.threads.CheckAliveThread;
+import neoproxy.neolink.threads.DatagramBatcher;
+import neoproxy.neolink.threads.InFlightBudget;
+import neoproxy.neolink.threads.NioTransferEngine;
+import neoproxy.neolink.threads.SetupTrace;
 import neoproxy.neolink.threads.TCPTransformer;
+import neoproxy.neolink.threads.TrafficShaper;
+import neoproxy.neolink.threads.TunnelExecutor;
+import neoproxy.neolink.threads.TunnelMetrics;
 import neoproxy.neolink.threads.UDPTransformer;
+import neoproxy.neolink.threads.UdpIdleTimeout;
+import neoproxy.neolink.threads.WriteCoalescer;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Locale;
@@ -42,7 +62,7 @@ public class NeoLink {
     public static int hostHookPort = 44801;
     public static int hostConnectPort = 44802;
     public static volatile SecureSocket hookSocket;
-    public static volatile Socket connectingSocket = null;
+    public static volatile Closeable connectingSocket = null;
     public static String key = null;
     public static int localPort = INVALID_LOCAL_PORT;
     public static Loggist loggist;
@@ -55,6 +75,7 @@ public class NeoLink {
     public static boolean enableAutoUpdate = true;
     public static boolean enableProxyProtocol = false;
     public static int reconnectionIntervalSeconds = 30;
+    public static String transferEngine = null; // 命令行 --engine 优先于配置文件
 
     public static Scanner inputScanner = new Scanner(System.in);
     public static boolean isGUIMode = true;
@@ -84,7 +105,11 @@ public class NeoLink {
 
         initializeLogger();
         detectLanguage();
+        // 退出时输出建连各阶段的耗时分布，重连时不会重复安装
+        SetupTrace.installShutdownHook(NeoLink::say);
+        TunnelEvents.registerPeriodicEvents();
         ConfigOperator.readAndSetValue();
+        MetricsServer.start();
         NodeFetcher.fetchAndSaveNodes();
 
         if (specifiedNodeName != null) {
@@ -98,15 +123,24 @@ public class NeoLink {
             printBasicInfo();
         }
 
+        long dialStartedAt = 0, connectedAt = 0;
         try {
             promptForAccessKey();
+            dialStartedAt = System.nanoTime();
             connectToNeoServer();
-            exchangeClientInfoWithServer();
+            boolean accepted = exchangeClientInfoWithServer();
+            TunnelEvents.hookConnected(remoteDomainName, hostHookPort, dialStartedAt, accepted, null);
+            if (accepted) connectedAt = System.nanoTime();
             CheckAliveThread.startThread();
             promptForLocalPort();
             listenForServerCommands();
         } catch (Exception e) {
             debugOperation(e);
+            if (connectedAt != 0) {
+                TunnelEvents.hookDisconnected(remoteDomainName, connectedAt, e);
+            } else if (dialStartedAt != 0) {
+                TunnelEvents.hookConnected(remoteDomainName, hostHookPort, dialStartedAt, false, e);
+            }
             handleConnectionFailure(e);
         }
     }
@@ -182,6 +216,8 @@ public class NeoLink {
             case "--local-port" -> localPort = Integer.parseInt(parts[1]);
             case "--output-file" -> outputFilePath = parts[1];
             case "--node" -> specifiedNodeName = parts[1];
+            case "--engine" -> transferEngine = parts[1];
+            case "--metrics-port" -> MetricsServer.PORT = Integer.parseInt(parts[1]);
         }
     }
 
@@ -197,6 +233,7 @@ public class NeoLink {
             case "--disable-tcp" -> isDisableTCP = true;
             case "--disable-udp" -> isDisableUDP = true;
             case "--enable-pp" -> enableProxyProtocol = true;
+            case "--no-coalesce" -> WriteCoalescer.FORCE_DISABLED = true;
             case "--test-update" -> isTestUpdate = true;
         }
     }
@@ -215,11 +252,14 @@ public class NeoLink {
         if (!ProxyOperator.PROXY_IP_TO_NEO_SERVER.isEmpty()) {
             hookSocket = ProxyOperator.getHandledSecureSocket(ProxyOperator.Type.TO_NEO, hostHookPort);
         } else {
-            hookSocket = new SecureSocket(remoteDomainName, hostHookPort);
+            hookSocket = new SecureSocket(HappyEyeballs.connect(remoteDomainName, hostHookPort, 5000, SocketTuning.NEO));
         }
     }
 
-    public static void exchangeClientInfoWithServer() throws IOException {
+    /**
+     * @return 服务端是否接受了本次连接（被拒绝或需要更新时为 false）
+     */
+    public static boolean exchangeClientInfoWithServer() throws IOException {
         String clientInfo = formatClientInfoString(languageData, key);
         sendStr(clientInfo);
         String serverResponse = receiveStr();
@@ -237,11 +277,13 @@ public class NeoLink {
                 say(languageData.PLEASE_UPDATE_MANUALLY);
                 if (!isGUIMode) exitAndFreeze(2);
             }
+            return false;
         } else if (serverResponse.contains("exit") || serverResponse.contains("退") || serverResponse.contains("错误")
                 || serverResponse.contains("denied") || serverResponse.contains("already")
                 || serverResponse.contains("过期") || serverResponse.contains("占")) {
             say(serverResponse);
             if (!isGUIMode) exitAndFreeze(0);
+            return false;
         } else {
             lastReceivedTime = System.currentTimeMillis();
             if (OshiUtils.isWindows()) {
@@ -259,6 +301,7 @@ public class NeoLink {
             } else {
                 loggist.say(new State(LogType.INFO, "SERVER", serverResponse));
             }
+            return true;
         }
     }
 
@@ -303,14 +346,26 @@ public class NeoLink {
         throw new IOException("Connection closed.");
     }
 
-    private static void handleServerCommand(String command) {
+    static void handleServerCommand(String command) {
         String[] parts = command.split(";");
         switch (parts[0]) {
             case "sendSocketTCP" -> {
-                if (!isDisableTCP) ThreadManager.runAsync(() -> createNewTCPConnection(parts[1], parts[2]));
+                if (!isDisableTCP) {
+                    SetupTrace trace = SetupTrace.begin();
+                    TunnelEvents.connectionRequested("TCP", parts[1], parts[2]);
+                    TunnelExecutor.execute(() -> createNewTCPConnection(parts[1], parts[2], trace));
+                }
             }
             case "sendSocketUDP" -> {
-                if (!isDisableUDP) ThreadManager.runAsync(() -> createNewUDPConnection(parts[1], parts[2]));
+                if (!isDisableUDP) {
+                    long requestedAt = System.nanoTime();
+                    TunnelEvents.connectionRequested("UDP", parts[1], parts[2]);
+                    TunnelExecutor.execute(() -> createNewUDPConnection(parts[1], parts[2], requestedAt));
+                }
+            }
+            case "features" -> ServerFeatures.onServerAccepted(parts.length > 1 ? parts[1] : "");
+            case "datagram" -> {
+                if (ServerFeatures.requestDatagram) DatagramTransport.onServerOffer(parts);
             }
             case "exitNoFlow" -> {
                 say(languageData.NO_FLOW_LEFT, LogType.ERROR);
@@ -326,9 +381,22 @@ public class NeoLink {
 
     private static void handleConnectionFailure(Exception e) {
         CheckAliveThread.stopThread();
+        releaseTransferResources();
         attemptReconnection();
     }
 
+    /**
+     * Hook 连接断开后释放与本次连接绑定的传输资源：预热连接（含本地后端连接）、协商结果、多路复用会话、原生 UDP 传输与事件循环上的 UDP 会话。
+     */
+    public static void releaseTransferResources() {
+        TransferSocketPool.clear();
+        LocalSocketPool.clear();
+        ServerFeatures.reset();
+        MuxSession.closeCurrent();
+        DatagramTransport.closeCurrent();
+        NioTransferEngine.closeUdpSessions();
+    }
+
     private static void attemptReconnection() {
         say(languageData.FAIL_TO_BUILD_A_CHANNEL_FROM + remoteDomainName, LogType.ERROR);
         if (enableAutoReconnect) {
@@ -337,6 +405,8 @@ public class NeoLink {
                 Sleeper.sleep(1000);
             }
             isReconnectedOperation = true;
+            TunnelMetrics.reconnected();
+            TunnelEvents.reconnecting(remoteDomainName, TunnelMetrics.getReconnectCount(), reconnectionIntervalSeconds);
             main(new String[]{"--key=" + key, "--local-port=" + localPort});
             System.exit(0);
         } else {
@@ -381,6 +451,8 @@ public class NeoLink {
         String info = languageData.getCurrentLanguage() + ";" + versionToReport + ";" + key + ";";
         if (!isDisableTCP) info = info.concat("T");
         if (!isDisableUDP) info = info.concat("U");
+        String features = ServerFeatures.advertised();
+        if (!features.isEmpty()) info = info.concat(";" + features);
         return info;
     }
 
@@ -397,100 +469,242 @@ public class NeoLink {
     }
 
     /**
-     * [新增] 鲁棒连接逻辑：依次尝试解析出的所有 IP（包括 IPv4 和 IPv6）
+     * 建立到本地后端的连接：配置了本地代理时经代理握手，否则直连并适配双栈。
      */
-    private static Socket connectToLocalRobustly(String host, int port) throws IOException {
-        InetAddress[] addresses = InetAddress.getAllByName(host);
-        IOException lastException = null;
-        for (InetAddress address : addresses) {
-            try {
-                debugOperation("Trying local address: " + address);
-                Socket socket = new Socket();
-                socket.connect(new InetSocketAddress(address, port), 2000); // 2秒连接超时
-                return socket;
-            } catch (IOException e) {
-                lastException = e;
-            }
+    static Socket openLocalSocket() throws IOException {
+        if (!ProxyOperator.PROXY_IP_TO_LOCAL_SERVER.isEmpty()) {
+            return ProxyOperator.getHandledSocket(ProxyOperator.Type.TO_LOCAL, localPort);
         }
-        throw (lastException != null) ? lastException : new IOException("Failed to resolve " + host);
+        // 双栈主机上并行尝试 IPv6 / IPv4，返回的 Socket 由 SocketChannel 创建，可直接交给 NIO 引擎
+        return HappyEyeballs.connect(localDomainName, localPort, 2000, SocketTuning.LOCAL); // 每个地址 2 秒连接超时
     }
 
     public static void createNewTCPConnection(String socketID, String remoteAddress) {
-        debugOperation("Creating TCP Tunnel. ID: " + socketID);
+        createNewTCPConnection(socketID, remoteAddress, SetupTrace.begin());
+    }
+
+    /**
+     * @param trace 在 sendSocketTCP 指令到达时开始的建连计时
+     */
+    public static void createNewTCPConnection(String socketID, String remoteAddress, SetupTrace trace) {
+        trace.mark(SetupTrace.Stage.QUEUE);
+        debugOperation("Creating TCP Tunnel. ID: " + socketID + ", Executor: " + TunnelExecutor.describe() + ", Buffers: " + BufferPool.describe() + ", Coalescing: " + WriteCoalescer.describe() + ", In-flight: " + InFlightBudget.describe());
         Socket localServerSocket = null;
-        SecureSocket neoTransferSocket = null;
+        TransferChannel neoTransferChannel = null;
         try {
-            if (!ProxyOperator.PROXY_IP_TO_LOCAL_SERVER.isEmpty()) {
-                localServerSocket = ProxyOperator.getHandledSocket(ProxyOperator.Type.TO_LOCAL, localPort);
-            } else {
-                // [修改] 使用鲁棒连接逻辑适配双栈
-                localServerSocket = connectToLocalRobustly(localDomainName, localPort);
-            }
+            localServerSocket = LocalSocketPool.acquire();
+            trace.mark(SetupTrace.Stage.LOCAL_CONNECT);
 
-            if (!ProxyOperator.PROXY_IP_TO_NEO_SERVER.isEmpty()) {
-                neoTransferSocket = ProxyOperator.getHandledSecureSocket(ProxyOperator.Type.TO_NEO, hostConnectPort);
-            } else {
-                neoTransferSocket = new SecureSocket(remoteDomainName, hostConnectPort);
-            }
-
-            neoTransferSocket.sendStr("TCP" + ";" + socketID);
+            neoTransferChannel = openTransferChannel(MuxFrame.OPEN_TCP, "TCP", socketID, trace);
 
             if (showConnection) {
                 say(languageData.A_TCP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.BUILD_UP);
             }
 
-            TCPTransformer serverToNeoTask = new TCPTransformer(neoTransferSocket, localServerSocket, enableProxyProtocol);
-            TCPTransformer neoToServerTask = new TCPTransformer(localServerSocket, neoTransferSocket, false);
-            ThreadManager connectionThreadManager = new ThreadManager(serverToNeoTask, neoToServerTask);
+            // 经本地代理建立的 Socket 没有对应的 SocketChannel，此时回退到线程模式
+            SocketChannel localChannel = localServerSocket.getChannel();
+            long openedAt = System.nanoTime();
+            if (isNioEngine() && localChannel != null) {
+                // 关闭回调可能在 register 返回前执行，先计入活跃数；register 失败时已关闭 shaper
+                TunnelMetrics.tunnelStarting(TunnelMetrics.TCP);
+                try {
+                    NioTransferEngine.register(localChannel, neoTransferChannel, enableProxyProtocol, TrafficShaper.open(remoteAddress), trace, (uploaded, downloaded) -> {
+                        TunnelMetrics.tunnelClosed(TunnelMetrics.TCP);
+                        TunnelEvents.connectionClosed("TCP", socketID, remoteAddress, uploaded, downloaded, openedAt);
+                        if (showConnection) {
+                            say(languageData.A_TCP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.DESTROY);
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    TunnelMetrics.tunnelClosed(TunnelMetrics.TCP);
+                    throw e;
+                }
+                TunnelMetrics.tunnelOpened(TunnelMetrics.TCP);
+                trace.ready();
+                TunnelEvents.connectionEstablished("TCP", socketID, remoteAddress, trace.getArrivedAt(), trace);
+                return;
+            }
 
-            connectionThreadManager.startAsyncWithCallback(result -> {
+            TCPTransformer serverToNeoTask = new TCPTransformer(neoTransferChannel, localServerSocket, enableProxyProtocol);
+            TCPTransformer neoToServerTask = new TCPTransformer(localServerSocket, neoTransferChannel, false);
+            TrafficShaper shaper = TrafficShaper.open(remoteAddress);
+            serverToNeoTask.setShaper(shaper);
+            neoToServerTask.setShaper(shaper);
+            serverToNeoTask.setTrace(trace);
+            neoToServerTask.setTrace(trace);
+
+            // 两个任务可能在 executePair 返回前就已结束并回调，先计入活跃数
+            TunnelMetrics.tunnelStarting(TunnelMetrics.TCP);
+            boolean admitted = TunnelExecutor.executePair(serverToNeoTask, neoToServerTask, () -> {
+                if (shaper != null) shaper.close();
+                TunnelMetrics.tunnelClosed(TunnelMetrics.TCP);
+                TunnelEvents.connectionClosed("TCP", socketID, remoteAddress,
+                        neoToServerTask.getTransferredBytes(), serverToNeoTask.getTransferredBytes(), openedAt);
                 if (showConnection) {
                     say(languageData.A_TCP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.DESTROY);
                 }
-                connectionThreadManager.close();
             });
+            if (!admitted) {
+                if (shaper != null) shaper.close();
+                TunnelMetrics.tunnelClosed(TunnelMetrics.TCP);
+                throw new IOException("No transfer thread available for TCP tunnel " + socketID);
+            }
+            TunnelMetrics.tunnelOpened(TunnelMetrics.TCP);
+            trace.ready();
+            TunnelEvents.connectionEstablished("TCP", socketID, remoteAddress, trace.getArrivedAt(), trace);
 
         } catch (Exception e) {
             debugOperation(e);
+            trace.failed();
+            TunnelEvents.connectionFailed("TCP", socketID, remoteAddress, trace.getArrivedAt(), trace, e);
             if (showConnection) say(languageData.FAIL_TO_CONNECT_LOCALHOST + localPort, LogType.ERROR);
-            close(localServerSocket, neoTransferSocket);
+            close(localServerSocket, neoTransferChannel);
         }
     }
 
     public static void createNewUDPConnection(String socketID, String remoteAddress) {
-        SecureSocket neoTransferSocket = null;
+        createNewUDPConnection(socketID, remoteAddress, System.nanoTime());
+    }
+
+    /**
+     * @param requestedAt sendSocketUDP 指令到达时的 System.nanoTime()
+     */
+    public static void createNewUDPConnection(String socketID, String remoteAddress, long requestedAt) {
+        debugOperation("Creating UDP Tunnel. ID: " + socketID + ", Engine: " + transferEngine + ", Batching: " + DatagramBatcher.describe());
+        if (isNioEngine()) {
+            createNewNioUDPConnection(socketID, remoteAddress, requestedAt);
+            return;
+        }
+        TransferChannel neoTransferChannel = null;
         DatagramSocket datagramSocket = null;
         try {
-            neoTransferSocket = new SecureSocket(remoteDomainName, hostConnectPort);
-
             // [修改] 死锁 IPv4 栈：强制 DatagramSocket 绑定到 IPv4 的 0.0.0.0 通配符地址
             // 这样创建的 Socket 将只处理 IPv4 报文，绕过双栈环境下的 IPv6 干扰
             datagramSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 0));
 
-            neoTransferSocket.sendStr("UDP" + ";" + socketID);
+            neoTransferChannel = openTransferChannel(MuxFrame.OPEN_UDP, "UDP", socketID, SetupTrace.NONE);
 
             if (showConnection) {
                 say(languageData.A_UDP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.BUILD_UP);
             }
 
-            UDPTransformer localToNeoTask = new UDPTransformer(datagramSocket, neoTransferSocket);
-            UDPTransformer neoToLocalTask = new UDPTransformer(neoTransferSocket, datagramSocket);
-            ThreadManager connectionThreadManager = new ThreadManager(localToNeoTask, neoToLocalTask);
-
-            connectionThreadManager.startAsyncWithCallback(result -> {
-                if (showConnection) {
-                    say(languageData.A_UDP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.DESTROY);
-                }
-                connectionThreadManager.close();
+            UDPTransformer localToNeoTask = new UDPTransformer(datagramSocket, neoTransferChannel);
+            UDPTransformer neoToLocalTask = new UDPTransformer(neoTransferChannel, datagramSocket);
+            TrafficShaper shaper = TrafficShaper.open(remoteAddress);
+            localToNeoTask.setShaper(shaper);
+            neoToLocalTask.setShaper(shaper);
+            if (ServerFeatures.isAccepted(ServerFeatures.BATCHING)) {
+                localToNeoTask.setBatcher(DatagramBatcher.open(neoTransferChannel, false));
+            }
+            // 关闭两端后两个转发线程都会退出，随后按正常结束处理
+            DatagramSocket idleSocket = datagramSocket;
+            TransferChannel idleChannel = neoTransferChannel;
+            UdpIdleTimeout idleTimeout = UdpIdleTimeout.track(localPort, socketID + " (" + remoteAddress + ")",
+                    () -> close(idleSocket, idleChannel));
+            localToNeoTask.setIdleTimeout(idleTimeout);
+            neoToLocalTask.setIdleTimeout(idleTimeout);
+
+            long openedAt = System.nanoTime();
+            TunnelMetrics.tunnelStarting(TunnelMetrics.UDP);
+            boolean admitted = TunnelExecutor.executePair(localToNeoTask, neoToLocalTask, () -> {
+                if (idleTimeout != null) idleTimeout.cancel();
+                if (shaper != null) shaper.close();
+                udpConnectionClosed(socketID, remoteAddress,
+                        localToNeoTask.getTransferredBytes(), neoToLocalTask.getTransferredBytes(), openedAt);
             });
+            if (!admitted) {
+                if (idleTimeout != null) idleTimeout.cancel();
+                if (shaper != null) shaper.close();
+                TunnelMetrics.tunnelClosed(TunnelMetrics.UDP);
+                throw new IOException("No transfer thread available for UDP tunnel " + socketID);
+            }
+            TunnelMetrics.tunnelOpened(TunnelMetrics.UDP);
+            TunnelEvents.connectionEstablished("UDP", socketID, remoteAddress, requestedAt, SetupTrace.NONE);
 
         } catch (Exception e) {
             debugOperation(e);
+            TunnelEvents.connectionFailed("UDP", socketID, remoteAddress, requestedAt, SetupTrace.NONE, e);
             say(languageData.FAIL_TO_CONNECT_LOCALHOST + localPort, LogType.ERROR);
-            close(datagramSocket, neoTransferSocket);
+            close(datagramSocket, neoTransferChannel);
         }
     }
 
+    /**
+     * 事件循环模式：本地侧为连接到本地服务的非阻塞 DatagramChannel，与所有隧道共用事件循环，
+     * 不再为每个会话占用两个转发线程。
+     */
+    private static void createNewNioUDPConnection(String socketID, String remoteAddress, long requestedAt) {
+        TransferChannel neoTransferChannel = null;
+        DatagramChannel localChannel = null;
+        try {
+            localChannel = NioTransferEngine.openUdpChannel(new InetSocketAddress(DnsCache.resolve(localDomainName), localPort));
+
+            neoTransferChannel = openTransferChannel(MuxFrame.OPEN_UDP, "UDP", socketID, SetupTrace.NONE);
+
+            if (showConnection) {
+                say(languageData.A_UDP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.BUILD_UP);
+            }
+
+            TrafficShaper shaper = TrafficShaper.open(remoteAddress);
+            long openedAt = System.nanoTime();
+            DatagramBatcher batcher = ServerFeatures.isAccepted(ServerFeatures.BATCHING) ? DatagramBatcher.open(neoTransferChannel, true) : null;
+            // 与 TCP 相同，先计入活跃数再交出；registerUdp 失败时已关闭 shaper
+            TunnelMetrics.tunnelStarting(TunnelMetrics.UDP);
+            try {
+                NioTransferEngine.registerUdp(socketID, localChannel, neoTransferChannel, shaper, batcher,
+                        (uploaded, downloaded) -> udpConnectionClosed(socketID, remoteAddress, uploaded, downloaded, openedAt));
+            } catch (IOException | RuntimeException e) {
+                TunnelMetrics.tunnelClosed(TunnelMetrics.UDP);
+                throw e;
+            }
+            TunnelMetrics.tunnelOpened(TunnelMetrics.UDP);
+            TunnelEvents.connectionEstablished("UDP", socketID, remoteAddress, requestedAt, SetupTrace.NONE);
+
+        } catch (Exception e) {
+            debugOperation(e);
+            TunnelEvents.connectionFailed("UDP", socketID, remoteAddress, requestedAt, SetupTrace.NONE, e);
+            say(languageData.FAIL_TO_CONNECT_LOCALHOST + localPort, LogType.ERROR);
+            close(localChannel, neoTransferChannel);
+        }
+    }
+
+    private static void udpConnectionClosed(String socketID, String remoteAddress, long uploaded, long downloaded, long openedAt) {
+        TunnelMetrics.tunnelClosed(TunnelMetrics.UDP);
+        TunnelEvents.connectionClosed("UDP", socketID, remoteAddress, uploaded, downloaded, openedAt);
+        if (showConnection) {
+            say(languageData.A_UDP_CONNECTION + remoteAddress + " -> " + localDomainName + ":" + localPort + languageData.DESTROY);
+        }
+    }
+
+    /**
+     * 为一个会话打开到 Neo 服务器的传输通道：UDP 会话在服务端提供原生 UDP 传输且可达时直接使用加密的 UDP 包；
+     * 否则服务端接受多路复用时在共享连接上开一条流，再否则独占一条连接。服务端接受压缩时再在外层叠加自适应压缩，
+     * 原生 UDP 传输除外：流式压缩的字典跨帧共享，丢失或乱序一个包就会让之后的帧都无法解压，因此原生传输上的帧从不带压缩标记。
+     */
+    private static TransferChannel openTransferChannel(byte muxOpenType, String type, String socketID, SetupTrace trace) throws IOException {
+        TransferChannel channel = null;
+        if (muxOpenType == MuxFrame.OPEN_UDP && ServerFeatures.isAccepted(ServerFeatures.DATAGRAM)) {
+            channel = DatagramTransport.openStream(socketID);
+        }
+        if (channel != null) {
+            debugOperation("UDP tunnel " + socketID + " uses the datagram transport.");
+        } else if (ServerFeatures.isAccepted(ServerFeatures.MULTIPLEX)) {
+            channel = MuxSession.openStream(muxOpenType, socketID);
+            trace.mark(SetupTrace.Stage.NEO_HEADER);
+        } else {
+            channel = new SecureTransferChannel(TransferSocketPool.openTransfer(type + ";" + socketID, trace));
+        }
+        if (ServerFeatures.isAccepted(ServerFeatures.COMPRESSION) && !(channel instanceof DatagramStream)) {
+            debugOperation("Compression: " + CompressingTransferChannel.describe());
+            channel = new CompressingTransferChannel(channel);
+        }
+        return channel;
+    }
+
+    public static boolean isNioEngine() {
+        return NioTransferEngine.ENGINE_NIO.equalsIgnoreCase(transferEngine);
+    }
+
     public static File getCurrentFile() {
         try {
             String jarFilePath = NeoLink.class.getProtectionDomain().getCodeSource().getLocation().getFile();
@@ -113,6 +113,7 @@ public class ProxyOperator {
         }
 
         Socket socket = new Socket(proxy);
+        (socketType == Type.TO_NEO ? SocketTuning.NEO : SocketTuning.LOCAL).apply(socket);
         socket.connect(new InetSocketAddress(targetHost, targetPort));
         return socket;
     }
@@ -0,0 +1,51 @@
+package neoproxy.neolink;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 与服务端协商的可选传输特性。
+ * 客户端在 formatClientInfoString 的末尾追加一段 ";特性字母"，只有至少启用一项特性时才追加，
+ * 因此默认配置下发送给服务端的字符串与旧版完全一致。
+ * 支持这些特性的服务端会在 Hook 上下发 ":>features;字母"，未下发的特性一律按旧协议处理。
+ */
+public final class ServerFeatures {
+    public static final char MULTIPLEX = 'M';
+    public static final char COMPRESSION = 'Z';
+    public static final char BATCHING = 'B';
+    public static final char DATAGRAM = 'D';
+
+    public static boolean requestMultiplex = false;
+    public static boolean requestCompression = false;
+    public static boolean requestBatching = false;
+    public static boolean requestDatagram = false;
+
+    private static volatile String acceptedFeatures = "";
+
+    private ServerFeatures() {
+    }
+
+    /**
+     * @return 本客户端请求的特性字母，未启用任何特性时为空字符串
+     */
+    public static String advertised() {
+        StringBuilder features = new StringBuilder();
+        if (requestMultiplex) features.append(MULTIPLEX);
+        if (requestCompression) features.append(COMPRESSION);
+        if (requestBatching) features.append(BATCHING);
+        if (requestDatagram) features.append(DATAGRAM);
+        return features.toString();
+    }
+
+    public static void onServerAccepted(String features) {
+        acceptedFeatures = features == null ? "" : features;
+        debugOperation("Server accepted transfer features: " + acceptedFeatures);
+    }
+
+    public static boolean isAccepted(char feature) {
+        return acceptedFeatures.indexOf(feature) >= 0 && advertised().indexOf(feature) >= 0;
+    }
+
+    public static void reset() {
+        acceptedFeatures = "";
+    }
+}
@@ -0,0 +1,120 @@
+package neoproxy.neolink;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 按方向（到 Neo 服务器 / 到本地后端）配置的 Socket 调优方案，在连接建立之前应用：
+ * <ul>
+ *     <li>system：不做任何设置，保持操作系统默认值</li>
+ *     <li>interactive：开启 TCP_NODELAY 与 SO_KEEPALIVE，缓冲区交给系统自动调节，适合 SSH、游戏等交互流量</li>
+ *     <li>bulk：开启 SO_KEEPALIVE，收发缓冲区固定为 BULK_BUFFER_SIZE，适合大文件传输</li>
+ *     <li>auto：同 interactive，但收发缓冲区按实测的带宽时延积设置：2 × 带宽 × RTT，限制在 [MIN_BUFFER_SIZE, MAX_BUFFER_SIZE]</li>
+ * </ul>
+ * RTT 取自该方向最近几次 TCP 握手的耗时，带宽取自已结束的大流量隧道的平均吞吐；尚无样本时带宽按 DEFAULT_BANDWIDTH 估算。
+ * 默认为 system，与引入调优前的行为一致。经代理建立的 SecureSocket 由 SDK 内部创建，无法在连接前调优。
+ */
+public final class SocketTuning {
+    public static final String PROFILE_SYSTEM = "system";
+    public static final String PROFILE_INTERACTIVE = "interactive";
+    public static final String PROFILE_BULK = "bulk";
+    public static final String PROFILE_AUTO = "auto";
+
+    public static final SocketTuning NEO = new SocketTuning("neo");
+    public static final SocketTuning LOCAL = new SocketTuning("local");
+
+    public static int BULK_BUFFER_SIZE = 4 * 1024 * 1024;
+    public static int MIN_BUFFER_SIZE = 64 * 1024;
+    public static int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    // 没有吞吐样本时假定的带宽，12.5MB/s 即 100Mbit/s
+    public static double DEFAULT_BANDWIDTH = 12.5 * 1024 * 1024;
+    // 少于该字节数的隧道大多受应用本身限制，不计入带宽样本
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 1024 * 1024;
+
+    private final String direction;
+    private volatile String profile = PROFILE_SYSTEM;
+    private double smoothedRttMillis = -1;
+    private double bandwidthBytesPerSecond = -1;
+
+    private SocketTuning(String direction) {
+        this.direction = direction;
+    }
+
+    public void setProfile(String profile) {
+        switch (profile) {
+            case PROFILE_SYSTEM, PROFILE_INTERACTIVE, PROFILE_BULK, PROFILE_AUTO -> this.profile = profile;
+            default -> debugOperation("Unknown socket profile '" + profile + "' for " + direction + ", keeping " + this.profile);
+        }
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * 在 connect 之前应用当前方案，缓冲区大小必须在握手前设置才能协商窗口扩大因子。
+     */
+    public void apply(Socket socket) {
+        try {
+            switch (profile) {
+                case PROFILE_INTERACTIVE -> {
+                    socket.setTcpNoDelay(true);
+                    socket.setKeepAlive(true);
+                }
+                case PROFILE_BULK -> {
+                    socket.setKeepAlive(true);
+                    socket.setSendBufferSize(BULK_BUFFER_SIZE);
+                    socket.setReceiveBufferSize(BULK_BUFFER_SIZE);
+                }
+                case PROFILE_AUTO -> {
+                    socket.setTcpNoDelay(true);
+                    socket.setKeepAlive(true);
+                    int bufferSize = autoBufferSize();
+                    socket.setSendBufferSize(bufferSize);
+                    socket.setReceiveBufferSize(bufferSize);
+                }
+                default -> {
+                }
+            }
+        } catch (SocketException e) {
+            debugOperation(e);
+        }
+    }
+
+    /**
+     * @return 连接上实际生效的参数（系统可能会对缓冲区大小取整或加倍）
+     */
+    public String describe(Socket socket) {
+        try {
+            return direction + "/" + profile + " nodelay=" + socket.getTcpNoDelay() + ", keepalive=" + socket.getKeepAlive()
+                    + ", sndbuf=" + socket.getSendBufferSize() + ", rcvbuf=" + socket.getReceiveBufferSize();
+        } catch (SocketException e) {
+            return direction + "/" + profile;
+        }
+    }
+
+    /**
+     * 记录一次 TCP 握手耗时，作为一个 RTT 样本。
+     */
+    public synchronized void recordHandshake(double millis) {
+        smoothedRttMillis = smoothedRttMillis < 0 ? millis : smoothedRttMillis * 0.875 + millis * 0.125;
+    }
+
+    /**
+     * 记录一条已结束隧道单个方向的传输量与持续时间。
+     */
+    public synchronized void recordTransfer(long bytes, long nanos) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES || nanos <= 0) return;
+        double sample = bytes * 1_000_000_000.0 / nanos;
+        bandwidthBytesPerSecond = bandwidthBytesPerSecond < 0 ? sample : bandwidthBytesPerSecond * 0.75 + sample * 0.25;
+    }
+
+    synchronized int autoBufferSize() {
+        double rttSeconds = (smoothedRttMillis < 0 ? 50 : smoothedRttMillis) / 1000.0;
+        double bandwidth = bandwidthBytesPerSecond < 0 ? DEFAULT_BANDWIDTH : bandwidthBytesPerSecond;
+        long bdp = (long) (2 * bandwidth * rttSeconds);
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, bdp));
+    }
+}
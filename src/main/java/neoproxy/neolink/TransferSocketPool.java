@@ -0,0 +1,167 @@
+package neoproxy.neolink;
+
+import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.threads.SetupTrace;
+import neoproxy.neolink.threads.TunnelExecutor;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+import static neoproxy.neolink.NeoLink.hostConnectPort;
+import static neoproxy.neolink.NeoLink.remoteDomainName;
+
+/**
+ * 预热的传输连接池：提前建立好到 HOST_CONNECT_PORT 的 SecureSocket（TCP 握手与密钥交换均已完成），
+ * 新访客到达时只需发送 "TCP;id" / "UDP;id" 即可开始转发。
+ * 池的目标大小根据最近 sendSocket 指令的到达速率与建连耗时动态估算，上限为 MAX_SIZE，为 0 时关闭。
+ * 取出连接前先非阻塞地探测服务端是否已关闭，与 {@link LocalSocketPool} 的做法一致。
+ */
+public final class TransferSocketPool {
+    public static int MAX_SIZE = 0;
+    public static long MAX_IDLE_MILLIS = 15000;
+
+    private static final ConcurrentLinkedDeque<PooledSocket> idleSockets = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger idleCount = new AtomicInteger(0);
+    private static final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    private static final ArrivalRateEstimator estimator = new ArrivalRateEstimator(100);
+
+    private TransferSocketPool() {
+    }
+
+    public static boolean isEnabled() {
+        return MAX_SIZE > 0;
+    }
+
+    /**
+     * 获取一个已完成握手的传输连接；池为空或已关闭时直接新建。
+     */
+    public static SecureSocket acquire() throws IOException {
+        if (!isEnabled()) return dial();
+        estimator.recordArrival();
+        PooledSocket pooled;
+        while ((pooled = idleSockets.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (System.currentTimeMillis() - pooled.createdAt <= MAX_IDLE_MILLIS && isAlive(pooled.raw)) {
+                scheduleRefill();
+                return pooled.socket;
+            }
+            InternetOperator.close(pooled.socket); // 闲置过久或已被服务端回收
+        }
+        scheduleRefill();
+        return dial();
+    }
+
+    /**
+     * 获取传输连接并发送会话头（如 "TCP;id"）。取出时的探测发现不了的失效连接（如经代理建立的连接）发送会失败，
+     * 此时改用新建连接重试一次。
+     */
+    public static SecureSocket openTransfer(String header) throws IOException {
+        return openTransfer(header, SetupTrace.NONE);
+    }
+
+    /**
+     * @param trace 分别记录取得连接（NEO_DIAL）与发送会话头（NEO_HEADER）的耗时
+     */
+    public static SecureSocket openTransfer(String header, SetupTrace trace) throws IOException {
+        SecureSocket socket = acquire();
+        trace.mark(SetupTrace.Stage.NEO_DIAL);
+        try {
+            socket.sendStr(header);
+            trace.mark(SetupTrace.Stage.NEO_HEADER);
+            return socket;
+        } catch (IOException e) {
+            InternetOperator.close(socket);
+            if (!isEnabled()) throw e;
+            debugOperation("Pooled transfer socket is stale, dialing a new one.");
+        }
+        SecureSocket fresh = dial();
+        trace.mark(SetupTrace.Stage.NEO_DIAL);
+        try {
+            fresh.sendStr(header);
+            trace.mark(SetupTrace.Stage.NEO_HEADER);
+        } catch (IOException e) {
+            InternetOperator.close(fresh);
+            throw e;
+        }
+        return fresh;
+    }
+
+    /**
+     * 清空连接池，在与服务端的 Hook 连接断开时调用，避免复用失效连接。
+     */
+    public static void clear() {
+        PooledSocket pooled;
+        while ((pooled = idleSockets.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            InternetOperator.close(pooled.socket);
+        }
+    }
+
+    public static int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private static SecureSocket dial() throws IOException {
+        return dialPooled().socket;
+    }
+
+    private static PooledSocket dialPooled() throws IOException {
+        long start = System.nanoTime();
+        SecureSocket socket;
+        Socket raw = null; // 经代理建立时拿不到底层 Socket
+        if (!ProxyOperator.PROXY_IP_TO_NEO_SERVER.isEmpty()) {
+            socket = ProxyOperator.getHandledSecureSocket(ProxyOperator.Type.TO_NEO, hostConnectPort);
+        } else {
+            raw = HappyEyeballs.connect(remoteDomainName, hostConnectPort, 5000, SocketTuning.NEO);
+            socket = new SecureSocket(raw);
+        }
+        estimator.recordDial((System.nanoTime() - start) / 1_000_000.0);
+        return new PooledSocket(socket, raw, System.currentTimeMillis());
+    }
+
+    /**
+     * 非阻塞地读一个字节：空闲的传输连接在发送会话头之前不应收到任何数据，读到 0 字节才可复用；
+     * 读到 EOF 说明服务端已关闭，读到数据说明流已错位，两者都丢弃。
+     */
+    private static boolean isAlive(Socket raw) {
+        if (raw == null) return true;
+        if (raw.isClosed() || raw.isInputShutdown()) return false;
+        SocketChannel channel = raw.getChannel();
+        if (channel == null) return true;
+        try {
+            channel.configureBlocking(false);
+            int read = channel.read(ByteBuffer.allocate(1));
+            channel.configureBlocking(true);
+            return read == 0;
+        } catch (IOException e) {
+            debugOperation(e);
+            return false;
+        }
+    }
+
+    private static void scheduleRefill() {
+        if (!refilling.compareAndSet(false, true)) return;
+        TunnelExecutor.execute(() -> {
+            try {
+                while (idleCount.get() < estimator.targetSize(MAX_SIZE) && NeoLink.hookSocket != null) {
+                    idleSockets.offerLast(dialPooled());
+                    idleCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                debugOperation(e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    private record PooledSocket(SecureSocket socket, Socket raw, long createdAt) {
+    }
+}
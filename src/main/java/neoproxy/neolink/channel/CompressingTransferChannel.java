@@ -0,0 +1,261 @@
+package neoproxy.neolink.channel;
+
+import neoproxy.neolink.threads.BufferPool;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 在任意传输通道外层叠加的自适应压缩，仅在服务端接受 'Z' 特性后启用。启用后每一帧都带一个字节的标记：
+ * <pre>
+ * [0][原始数据...]                          未压缩
+ * [1][原始长度 4 字节，大端][deflate 数据...]  压缩
+ * </pre>
+ * 每个方向各用一个流式 Deflater / Inflater，压缩帧以 SYNC_FLUSH 结尾，前后帧共享字典，小包也能压缩；
+ * 未压缩帧不经过压缩器，两端字典始终一致。调用方预留了 {@link #headroom()} 时，未压缩帧的标记直接写在负载之前，不拷贝负载。
+ * <p>
+ * 发送端逐帧判断：小于 MIN_COMPRESS_SIZE 的帧、抽样熵高于 MAX_ENTROPY_BITS 的帧（已压缩或已加密的数据）直接原样发送；
+ * 一条连接累计试压 PROBE_BYTES 字节后压缩率仍高于 DISABLE_RATIO，则该连接此后不再压缩。
+ */
+public final class CompressingTransferChannel implements TransferChannel {
+    public static int MIN_COMPRESS_SIZE = 128;
+    public static double MAX_ENTROPY_BITS = 7.2;
+    public static long PROBE_BYTES = 256 * 1024;
+    public static double DISABLE_RATIO = 0.9;
+
+    private static final byte FLAG_RAW = 0;
+    private static final byte FLAG_DEFLATE = 1;
+    private static final int DEFLATE_HEADER_LENGTH = 5;
+    // 熵估计最多抽样的字节数
+    private static final int ENTROPY_SAMPLE = 512;
+
+    private static final LongAdder originalBytes = new LongAdder();
+    private static final LongAdder compressedBytes = new LongAdder();
+    private static final LongAdder skippedBytes = new LongAdder();
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder decompressNanos = new LongAdder();
+    private static final LongAdder disabledConnections = new LongAdder();
+
+    private final TransferChannel delegate;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final ReceivedFrame wireFrame = new ReceivedFrame();
+    // 熵估计的直方图，仅由发送线程使用
+    private final int[] entropyCounts = new int[256];
+
+    // 仅由发送线程访问
+    private boolean compressionEnabled = true;
+    private long probedOriginal = 0;
+    private long probedCompressed = 0;
+    // 仅由接收线程访问
+    private byte[] inflateBuffer = new byte[0];
+
+    public CompressingTransferChannel(TransferChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void sendByte(byte[] data, int offset, int length) throws IOException {
+        if (compressionEnabled && length >= MIN_COMPRESS_SIZE && estimateEntropy(data, offset, length, entropyCounts) <= MAX_ENTROPY_BITS) {
+            sendCompressed(data, offset, length);
+        } else {
+            sendRaw(data, offset, length);
+        }
+    }
+
+    @Override
+    public void sendByte(byte[] data) throws IOException {
+        if (data == null) {
+            delegate.sendByte(null);
+            return;
+        }
+        sendByte(data, 0, data.length);
+    }
+
+    private void sendRaw(byte[] data, int offset, int length) throws IOException {
+        skippedBytes.add(length);
+        if (offset >= headroom()) {
+            data[offset - 1] = FLAG_RAW;
+            delegate.sendByte(data, offset - 1, length + 1);
+            return;
+        }
+        byte[] frame = BufferPool.acquire(length + 1);
+        try {
+            frame[0] = FLAG_RAW;
+            System.arraycopy(data, offset, frame, 1, length);
+            delegate.sendByte(frame, 0, length + 1);
+        } finally {
+            BufferPool.release(frame);
+        }
+    }
+
+    private void sendCompressed(byte[] data, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        byte[] frame = BufferPool.acquire(length + DEFLATE_HEADER_LENGTH + 64);
+        int frameLength;
+        try {
+            synchronized (deflater) {
+                deflater.setInput(data, offset, length);
+                frameLength = DEFLATE_HEADER_LENGTH;
+                while (true) {
+                    frameLength += deflater.deflate(frame, frameLength, frame.length - frameLength, Deflater.SYNC_FLUSH);
+                    if (frameLength < frame.length) break;
+                    // 输入一旦交给压缩器就必须完整发出，否则两端字典会不一致
+                    byte[] larger = BufferPool.acquire(frame.length * 2);
+                    System.arraycopy(frame, 0, larger, 0, frameLength);
+                    BufferPool.release(frame);
+                    frame = larger;
+                }
+            }
+            frame[0] = FLAG_DEFLATE;
+            frame[1] = (byte) (length >>> 24);
+            frame[2] = (byte) (length >>> 16);
+            frame[3] = (byte) (length >>> 8);
+            frame[4] = (byte) length;
+            compressNanos.add(System.nanoTime() - start);
+            delegate.sendByte(frame, 0, frameLength);
+        } finally {
+            BufferPool.release(frame);
+        }
+        originalBytes.add(length);
+        compressedBytes.add(frameLength);
+        probedOriginal += length;
+        probedCompressed += frameLength;
+        if (probedOriginal >= PROBE_BYTES) {
+            if (probedCompressed > probedOriginal * DISABLE_RATIO) {
+                compressionEnabled = false;
+                disabledConnections.increment();
+            }
+            probedOriginal = 0;
+            probedCompressed = 0;
+        }
+    }
+
+    /**
+     * 按字节直方图估算香农熵（比特/字节），大帧只抽样均匀分布的 ENTROPY_SAMPLE 个字节。
+     *
+     * @param counts 调用方复用的 256 项直方图，返回时已清零
+     */
+    static double estimateEntropy(byte[] data, int offset, int length, int[] counts) {
+        int step = Math.max(1, length / ENTROPY_SAMPLE);
+        int samples = 0;
+        for (int i = offset; i < offset + length; i += step) {
+            counts[data[i] & 0xFF]++;
+            samples++;
+        }
+        double entropy = 0;
+        for (int i = 0; i < counts.length; i++) {
+            int count = counts[i];
+            if (count == 0) continue;
+            counts[i] = 0;
+            double p = (double) count / samples;
+            entropy -= p * (Math.log(p) / Math.log(2));
+        }
+        return entropy;
+    }
+
+    @Override
+    public byte[] receiveByte() throws IOException {
+        ReceivedFrame frame = new ReceivedFrame();
+        if (!receive(frame)) return null;
+        return Arrays.copyOfRange(frame.array(), frame.offset(), frame.offset() + frame.length());
+    }
+
+    @Override
+    public boolean receive(ReceivedFrame frame) throws IOException {
+        if (!delegate.receive(wireFrame)) return false;
+        byte[] data = wireFrame.array();
+        int offset = wireFrame.offset();
+        int length = wireFrame.length();
+        if (length < 1) throw new IOException("Empty compressed-channel frame");
+        if (data[offset] == FLAG_RAW) {
+            frame.set(data, offset + 1, length - 1, wireFrame.isOwned());
+            return true;
+        }
+        if (data[offset] != FLAG_DEFLATE || length < DEFLATE_HEADER_LENGTH) {
+            throw new IOException("Unknown compressed-channel frame flag: " + data[offset]);
+        }
+        int originalLength = ((data[offset + 1] & 0xFF) << 24) | ((data[offset + 2] & 0xFF) << 16)
+                | ((data[offset + 3] & 0xFF) << 8) | (data[offset + 4] & 0xFF);
+        // 原始长度同样受最大帧长度约束，防止解压炸弹
+        if (originalLength < 0 || originalLength > SecureTransferChannel.MAX_FRAME_LENGTH) {
+            throw new IOException("Decompressed frame of " + originalLength + " bytes exceeds MAX_FRAME_LENGTH");
+        }
+        if (inflateBuffer.length < originalLength) inflateBuffer = new byte[originalLength];
+        long start = System.nanoTime();
+        int inflated = 0;
+        try {
+            synchronized (inflater) {
+                inflater.setInput(data, offset + DEFLATE_HEADER_LENGTH, length - DEFLATE_HEADER_LENGTH);
+                while (inflated < originalLength) {
+                    int n = inflater.inflate(inflateBuffer, inflated, originalLength - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) break;
+                    inflated += n;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed frame", e);
+        }
+        decompressNanos.add(System.nanoTime() - start);
+        if (inflated != originalLength) throw new IOException("Compressed frame inflated to " + inflated + " of " + originalLength + " bytes");
+        // 解压缓冲区在下一次 receive 时复用
+        frame.set(inflateBuffer, 0, originalLength, false);
+        return true;
+    }
+
+    @Override
+    public int preferredMaxFrameLength() {
+        return delegate.preferredMaxFrameLength();
+    }
+
+    @Override
+    public int headroom() {
+        return delegate.headroom() + 1;
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        delegate.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        delegate.shutdownOutput();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            synchronized (deflater) {
+                deflater.end();
+            }
+            synchronized (inflater) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * @return 压缩后字节数 / 原始字节数，只统计实际压缩过的帧
+     */
+    public static double getCompressionRatio() {
+        long original = originalBytes.sum();
+        return original == 0 ? 1 : (double) compressedBytes.sum() / original;
+    }
+
+    public static String describe() {
+        long original = originalBytes.sum();
+        long compressed = compressedBytes.sum();
+        return "ratio=" + String.format("%.2f", getCompressionRatio())
+                + ", saved=" + (original - compressed) / 1024 + "KB"
+                + ", skipped=" + skippedBytes.sum() / 1024 + "KB"
+                + ", cpu=" + compressNanos.sum() / 1_000_000 + "ms/" + decompressNanos.sum() / 1_000_000 + "ms"
+                + ", disabledConnections=" + disabledConnections.sum();
+    }
+}
@@ -0,0 +1,38 @@
+package neoproxy.neolink.channel;
+
+/**
+ * 一次 receive 得到的帧数据视图：有效数据为 array 中 [offset, offset + length) 的部分。
+ * 同一个视图对象在转发循环中反复使用，不为每帧再包装或拷贝一次数组。
+ * <p>
+ * owned 为 true 表示 array 是为这一帧单独分配的，调用方可以在下一次 receive 之后继续持有；
+ * 为 false 时数组可能被通道复用，需要跨调用保留数据的调用方必须自行拷贝。
+ */
+public final class ReceivedFrame {
+    private byte[] array;
+    private int offset;
+    private int length;
+    private boolean owned;
+
+    public void set(byte[] array, int offset, int length, boolean owned) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.owned = owned;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isOwned() {
+        return owned;
+    }
+}
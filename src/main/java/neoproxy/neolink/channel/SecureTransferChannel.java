@@ -0,0 +1,77 @@
+package neoproxy.neolink.channel;
+
+import fun.ceroxe.api.net.SecureSocket;
+
+import java.io.IOException;
+
+/**
+ * 独占一条 SecureSocket 的传输通道（旧版每会话一连接的模式）。
+ * 超过 MAX_FRAME_LENGTH 的帧视为畸形数据，直接断开通道，不会继续交给转发器处理。
+ * <p>
+ * 注意：长度前缀由 SecureSocket 在内部读取，receiveByte 返回时整帧已经分配并解密，
+ * 因此这里的检查只能阻止超长帧继续向下游传递，不能限制单帧占用的内存。
+ * 压缩帧解压后的长度则在 {@link CompressingTransferChannel} 中于分配前检查。
+ */
+public final class SecureTransferChannel implements TransferChannel {
+    public static int MAX_FRAME_LENGTH = 256 * 1024;
+
+    private final SecureSocket secureSocket;
+
+    public SecureTransferChannel(SecureSocket secureSocket) {
+        this.secureSocket = secureSocket;
+    }
+
+    public SecureSocket getSecureSocket() {
+        return secureSocket;
+    }
+
+    @Override
+    public void sendByte(byte[] data, int offset, int length) throws IOException {
+        secureSocket.sendByte(data, offset, length);
+    }
+
+    @Override
+    public void sendByte(byte[] data) throws IOException {
+        secureSocket.sendByte(data);
+    }
+
+    @Override
+    public byte[] receiveByte() throws IOException {
+        return checkFrameLength(secureSocket.receiveByte());
+    }
+
+    @Override
+    public boolean receive(ReceivedFrame frame) throws IOException {
+        byte[] data = checkFrameLength(secureSocket.receiveByte());
+        if (data == null) return false;
+        // SecureSocket 每帧解密到新数组，这里直接借用：本路径的分配全部来自 SecureSocket，视图接口不会减少它
+        frame.set(data, 0, data.length, true);
+        return true;
+    }
+
+    /**
+     * 在 SecureSocket 已经读入并解密整帧之后执行，见类注释。
+     */
+    private byte[] checkFrameLength(byte[] data) throws IOException {
+        if (data != null && data.length > MAX_FRAME_LENGTH) {
+            secureSocket.close();
+            throw new IOException("Frame of " + data.length + " bytes exceeds MAX_FRAME_LENGTH " + MAX_FRAME_LENGTH);
+        }
+        return data;
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        secureSocket.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        secureSocket.shutdownOutput();
+    }
+
+    @Override
+    public void close() throws IOException {
+        secureSocket.close();
+    }
+}
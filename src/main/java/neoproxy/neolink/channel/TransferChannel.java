@@ -0,0 +1,81 @@
+package neoproxy.neolink.channel;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 到 Neo 服务器的一条逻辑传输通道，方法语义与 SecureSocket 的帧接口保持一致：
+ * 每次 sendByte 对应对端的一次 receiveByte，sendByte(null) 表示发送结束，receiveByte 返回 null 表示对端结束。
+ * 可以是独占的 SecureSocket，也可以是多路复用连接上的一条流。
+ */
+public interface TransferChannel extends Closeable {
+
+    /**
+     * 发送 data[offset, offset + length) 作为一帧。通道可以改写 offset 之前的 {@link #headroom()} 个字节来就地写入自己的帧头，
+     * 调用方不得在这段预留空间中存放发送后还要使用的数据；offset 小于 headroom() 时通道自行拷贝。
+     */
+    void sendByte(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * 发送一整帧；data 为 null 时发送结束信号。
+     */
+    void sendByte(byte[] data) throws IOException;
+
+    byte[] receiveByte() throws IOException;
+
+    /**
+     * 接收一帧到调用方复用的视图中。通道内部已经持有帧数据时（如多路复用流）直接借出，不再拷贝；
+     * 独占 SecureSocket 的通道仍由 SecureSocket 为每帧分配新数组，与 receiveByte 的开销相同。
+     *
+     * @return false 表示对端已结束
+     */
+    default boolean receive(ReceivedFrame frame) throws IOException {
+        byte[] data = receiveByte();
+        if (data == null) return false;
+        frame.set(data, 0, data.length, true);
+        return true;
+    }
+
+    /**
+     * 请求通道在自己的读线程上直接把收到的帧推送给 listener，调用方不必再为这条通道占用一个阻塞在 receive 上的线程。
+     * 调用成功后不能再调用 receive。
+     *
+     * @return false 表示通道不支持推送（如独占的 SecureSocket），调用方仍需自行 receive
+     */
+    default boolean pushFramesTo(FrameListener listener) {
+        return false;
+    }
+
+    /**
+     * @return 单帧不被拆分的建议上限，合并 UDP 数据报时不超过它；面向流的通道没有限制
+     */
+    default int preferredMaxFrameLength() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return 通道希望调用方在负载之前预留的字节数，预留后 sendByte 不必为帧头拷贝负载
+     */
+    default int headroom() {
+        return 0;
+    }
+
+    void shutdownInput() throws IOException;
+
+    void shutdownOutput() throws IOException;
+
+    /**
+     * 推送模式下的接收回调，在通道的读线程中执行，不得阻塞。
+     */
+    interface FrameListener {
+        /**
+         * 帧数据为 array 中 [offset, offset + length) 的部分，只在回调期间有效。
+         */
+        void onFrame(byte[] array, int offset, int length);
+
+        /**
+         * 对端结束或通道被重置，只会回调一次。
+         */
+        void onEnd();
+    }
+}
@@ -0,0 +1,149 @@
+package neoproxy.neolink.dgram;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次 Hook 连接上原生 UDP 传输的密钥与加解密，客户端与服务端使用同一实现。
+ * <p>
+ * 两个方向的 AES-256-GCM 密钥与 4 字节 nonce 盐用 HKDF-SHA256 (RFC 5869) 从服务端在 Hook 上下发的随机密钥派生，
+ * 以连接令牌为盐、方向标签为 info，两个方向的密钥互不相同。nonce 为 盐 + 8 字节序号，
+ * 序号每包递增且密钥只在一次 Hook 连接内有效，因此同一密钥下 nonce 不会重复。
+ * <p>
+ * seal 可被多个线程同时调用（每个线程一个 Cipher 实例与 nonce 缓冲区）；open 与其中的防重放窗口只能由接收线程调用。
+ * Cipher 与 nonce 缓冲区按线程或按连接复用；GCMParameterSpec 在构造时复制 nonce 且不可修改，每包仍需新建一个，
+ * JDK 的 GCM 实现每次 init 也会新建内部状态（JDK 21 上每包约 1KB），这部分无法通过 JCE 接口复用。
+ */
+public final class DatagramCrypto {
+    // open 的返回值
+    public static final int INVALID = -1;
+    public static final int REPLAYED = -2;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] CLIENT_TO_SERVER = "neolink udp c2s".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SERVER_TO_CLIENT = "neolink udp s2c".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_LENGTH = 32;
+    private static final int SALT_LENGTH = 4;
+
+    private final long token;
+    private final SecretKeySpec sendKey;
+    private final SecretKeySpec receiveKey;
+    private final byte[] sendSalt;
+    private final byte[] receiveSalt;
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private final ThreadLocal<Sealer> sealers = ThreadLocal.withInitial(this::newSealer);
+    private final Cipher opener = newCipher();
+    private final byte[] receiveNonce = new byte[12];
+    private final ReplayWindow replayWindow = new ReplayWindow();
+
+    /**
+     * @param secret 服务端下发的随机密钥
+     * @param client 本端是否为客户端，决定哪个方向用于发送
+     */
+    public DatagramCrypto(long token, byte[] secret, boolean client) throws GeneralSecurityException {
+        this.token = token;
+        byte[] salt = new byte[8];
+        DatagramFrame.writeLong(salt, 0, token);
+        byte[] pseudoRandomKey = hmac(salt, secret);
+        byte[] upload = expand(pseudoRandomKey, CLIENT_TO_SERVER);
+        byte[] download = expand(pseudoRandomKey, SERVER_TO_CLIENT);
+        byte[] send = client ? upload : download;
+        byte[] receive = client ? download : upload;
+        sendKey = new SecretKeySpec(send, 0, KEY_LENGTH, "AES");
+        receiveKey = new SecretKeySpec(receive, 0, KEY_LENGTH, "AES");
+        sendSalt = Arrays.copyOfRange(send, KEY_LENGTH, KEY_LENGTH + SALT_LENGTH);
+        receiveSalt = Arrays.copyOfRange(receive, KEY_LENGTH, KEY_LENGTH + SALT_LENGTH);
+        System.arraycopy(receiveSalt, 0, receiveNonce, 0, SALT_LENGTH);
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * 在 packet 的 offset 处写入包头，并把 data 加密到包头之后，packet 至少需要 {@link DatagramFrame#OVERHEAD} + dataLength 字节。
+     *
+     * @return 整包长度
+     */
+    public int seal(byte[] packet, int offset, byte type, long sessionId, byte[] data, int dataOffset, int dataLength)
+            throws GeneralSecurityException {
+        long sequence = nextSequence.getAndIncrement();
+        // 序号用尽后继续发送会重复 nonce，对端的防重放窗口也不接受非正序号
+        if (sequence <= 0) throw new GeneralSecurityException("Datagram sequence space exhausted");
+        DatagramFrame.writeHeader(packet, offset, type, token, sequence, sessionId);
+        Sealer sealer = sealers.get();
+        DatagramFrame.writeLong(sealer.nonce, SALT_LENGTH, sequence);
+        Cipher cipher = sealer.cipher;
+        cipher.init(Cipher.ENCRYPT_MODE, sendKey, new GCMParameterSpec(DatagramFrame.TAG_LENGTH * 8, sealer.nonce));
+        cipher.updateAAD(packet, offset, DatagramFrame.HEADER_LENGTH);
+        int sealed = data == null ? cipher.doFinal(packet, offset + DatagramFrame.HEADER_LENGTH)
+                : cipher.doFinal(data, dataOffset, dataLength, packet, offset + DatagramFrame.HEADER_LENGTH);
+        return DatagramFrame.HEADER_LENGTH + sealed;
+    }
+
+    /**
+     * 校验并就地解密一个包，明文位于包头之后。认证通过且序号未见过时才记入防重放窗口。
+     *
+     * @return 明文长度；{@link #INVALID} 表示令牌不符、被篡改或长度不合法，{@link #REPLAYED} 表示重放或过旧
+     */
+    public int open(byte[] packet, int offset, int length) {
+        if (length < DatagramFrame.OVERHEAD || DatagramFrame.token(packet, offset) != token) return INVALID;
+        long sequence = DatagramFrame.sequence(packet, offset);
+        if (!replayWindow.mayAccept(sequence)) return REPLAYED;
+        DatagramFrame.writeLong(receiveNonce, SALT_LENGTH, sequence);
+        int plain;
+        try {
+            opener.init(Cipher.DECRYPT_MODE, receiveKey, new GCMParameterSpec(DatagramFrame.TAG_LENGTH * 8, receiveNonce));
+            opener.updateAAD(packet, offset, DatagramFrame.HEADER_LENGTH);
+            int body = offset + DatagramFrame.HEADER_LENGTH;
+            plain = opener.doFinal(packet, body, length - DatagramFrame.HEADER_LENGTH, packet, body);
+        } catch (GeneralSecurityException e) {
+            return INVALID;
+        }
+        replayWindow.accept(sequence);
+        return plain;
+    }
+
+    private Sealer newSealer() {
+        Sealer sealer = new Sealer();
+        System.arraycopy(sendSalt, 0, sealer.nonce, 0, SALT_LENGTH);
+        return sealer;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    /**
+     * HKDF-Expand，输出 KEY_LENGTH + SALT_LENGTH 字节，不超过一个 SHA-256 块，只需一轮。
+     */
+    private static byte[] expand(byte[] pseudoRandomKey, byte[] info) throws GeneralSecurityException {
+        byte[] input = Arrays.copyOf(info, info.length + 1);
+        input[info.length] = 1;
+        return Arrays.copyOf(hmac(pseudoRandomKey, input), KEY_LENGTH + SALT_LENGTH);
+    }
+
+    /**
+     * 一个发送线程的加密状态，nonce 的盐部分在创建时写好，每包只改写序号部分。
+     */
+    private static final class Sealer {
+        private final Cipher cipher = newCipher();
+        private final byte[] nonce = new byte[12];
+    }
+}
@@ -0,0 +1,67 @@
+package neoproxy.neolink.dgram;
+
+/**
+ * 原生 UDP 传输的包格式，每个包恰好是一个 UDP 数据报：
+ * <pre>
+ * [类型 1 字节][连接令牌 8 字节][序号 8 字节][会话 ID 8 字节][密文...][GCM 标签 16 字节]
+ * </pre>
+ * 前 25 字节为明文头，整体作为 AES-GCM 的附加认证数据，篡改任何一个字节都无法通过校验。
+ * 连接令牌由服务端在 Hook 上下发，标识一次 Hook 连接，客户端地址因 NAT 重绑定变化后服务端仍能找到对应的密钥；
+ * 会话 ID 即 sendSocketUDP 下发的 socketID。
+ * DATA 的明文为一个 UDP 帧（与传输连接上的帧格式相同，包括合并帧），OPEN / OPEN_ACK / CLOSE / KEEPALIVE 的明文为空。
+ */
+public final class DatagramFrame {
+    public static final byte OPEN = 1;
+    public static final byte OPEN_ACK = 2;
+    public static final byte DATA = 3;
+    public static final byte CLOSE = 4;
+    public static final byte KEEPALIVE = 5;
+
+    public static final int HEADER_LENGTH = 1 + 8 + 8 + 8;
+    public static final int TAG_LENGTH = 16;
+    public static final int OVERHEAD = HEADER_LENGTH + TAG_LENGTH;
+    // IPv4 下单个 UDP 数据报的最大负载
+    public static final int MAX_PACKET_LENGTH = 65507;
+    public static final int MAX_PAYLOAD = MAX_PACKET_LENGTH - OVERHEAD;
+    // 合并数据报时整包不超过常见路径 MTU，避免 IP 分片后丢一片即丢整包
+    public static final int PREFERRED_PAYLOAD = 1200 - OVERHEAD;
+
+    private DatagramFrame() {
+    }
+
+    public static void writeHeader(byte[] packet, int offset, byte type, long token, long sequence, long sessionId) {
+        packet[offset] = type;
+        writeLong(packet, offset + 1, token);
+        writeLong(packet, offset + 9, sequence);
+        writeLong(packet, offset + 17, sessionId);
+    }
+
+    public static byte type(byte[] packet, int offset) {
+        return packet[offset];
+    }
+
+    public static long token(byte[] packet, int offset) {
+        return readLong(packet, offset + 1);
+    }
+
+    public static long sequence(byte[] packet, int offset) {
+        return readLong(packet, offset + 9);
+    }
+
+    public static long sessionId(byte[] packet, int offset) {
+        return readLong(packet, offset + 17);
+    }
+
+    public static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (data[offset + i] & 0xFF);
+        return value;
+    }
+
+    public static void writeLong(byte[] data, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
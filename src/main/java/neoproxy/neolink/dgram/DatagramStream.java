@@ -0,0 +1,215 @@
+package neoproxy.neolink.dgram;
+
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.TransferChannel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 原生 UDP 传输上的一条 UDP 会话，对转发器而言与多路复用流没有区别：一次 sendByte 对应一个加密的 UDP 包。
+ * 没有重传也没有流控，包丢了就是数据报丢了，与 UDP 本身的语义一致；接收队列满时直接丢弃新到的数据报。
+ * 支持推送模式：接收线程解密后直接把包内的帧交给 {@link FrameListener}，不拷贝也不入队。
+ * <p>
+ * 即使协商了压缩也不叠加 CompressingTransferChannel：它的字典跨帧共享，丢包或乱序后对端无法再解压，
+ * 且压缩头会让合并后的包超出 {@link DatagramFrame#PREFERRED_PAYLOAD}。
+ */
+public final class DatagramStream implements TransferChannel {
+    // 接收队列中的结束标记
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final int MAX_QUEUED_FRAMES = 1024;
+
+    final long sessionId;
+    private final DatagramTransport transport;
+    private final CountDownLatch openSettled = new CountDownLatch(1);
+    private volatile boolean opened = false;
+    private final LinkedBlockingQueue<byte[]> inboundFrames = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger(0);
+    // 切换到推送模式与接收线程入队互斥，保证切换前已入队的帧先于之后的帧交付
+    private final Object pushLock = new Object();
+    private final AtomicBoolean pushEnded = new AtomicBoolean(false);
+    private volatile FrameListener frameListener;
+    private final AtomicBoolean outputFinished = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    DatagramStream(DatagramTransport transport, long sessionId) {
+        this.transport = transport;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * @return 服务端是否在超时前确认了 OPEN
+     */
+    boolean awaitOpen(long timeoutMillis) throws InterruptedIOException {
+        try {
+            openSettled.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening datagram session");
+        }
+        return opened;
+    }
+
+    boolean isSettled() {
+        return openSettled.getCount() == 0;
+    }
+
+    void onOpenAck() {
+        opened = true;
+        openSettled.countDown();
+    }
+
+    @Override
+    public void sendByte(byte[] data, int offset, int length) throws IOException {
+        if (data == null) {
+            sendEnd();
+            return;
+        }
+        if (closed.get() || outputFinished.get()) throw new EOFException("Datagram session " + sessionId + " closed");
+        transport.send(DatagramFrame.DATA, sessionId, data, offset, length);
+    }
+
+    @Override
+    public void sendByte(byte[] data) throws IOException {
+        if (data == null) {
+            sendEnd();
+        } else {
+            sendByte(data, 0, data.length);
+        }
+    }
+
+    private void sendEnd() throws IOException {
+        if (outputFinished.compareAndSet(false, true)) transport.send(DatagramFrame.CLOSE, sessionId, null, 0, 0);
+    }
+
+    @Override
+    public byte[] receiveByte() throws IOException {
+        return takeFrame();
+    }
+
+    @Override
+    public boolean receive(ReceivedFrame received) throws IOException {
+        byte[] frame = takeFrame();
+        if (frame == null) return false;
+        received.set(frame, 0, frame.length, true);
+        return true;
+    }
+
+    private byte[] takeFrame() throws IOException {
+        byte[] frame;
+        try {
+            frame = inboundFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for datagram");
+        }
+        if (frame == END_OF_STREAM) {
+            inboundFrames.offer(END_OF_STREAM); // 之后的调用同样返回结束
+            return null;
+        }
+        queuedFrames.decrementAndGet();
+        return frame;
+    }
+
+    @Override
+    public boolean pushFramesTo(FrameListener listener) {
+        synchronized (pushLock) {
+            byte[] frame;
+            boolean ended = false;
+            while ((frame = inboundFrames.poll()) != null) {
+                if (frame == END_OF_STREAM) {
+                    ended = true;
+                    break;
+                }
+                queuedFrames.decrementAndGet();
+                listener.onFrame(frame, 0, frame.length);
+            }
+            frameListener = listener;
+            if (ended || closed.get()) endPush(listener);
+        }
+        return true;
+    }
+
+    /**
+     * 合并数据报时整包不超过路径 MTU。
+     */
+    @Override
+    public int preferredMaxFrameLength() {
+        return DatagramFrame.PREFERRED_PAYLOAD;
+    }
+
+    private void endPush(FrameListener listener) {
+        if (pushEnded.compareAndSet(false, true)) listener.onEnd();
+    }
+
+    /**
+     * 由接收线程调用，帧数据只在调用期间有效。
+     */
+    void onData(byte[] packet, int offset, int length) {
+        FrameListener listener = frameListener;
+        if (listener == null) {
+            synchronized (pushLock) {
+                listener = frameListener;
+                if (listener == null) {
+                    if (closed.get()) return;
+                    if (queuedFrames.incrementAndGet() > MAX_QUEUED_FRAMES) {
+                        queuedFrames.decrementAndGet();
+                        DatagramTransport.recordDropped();
+                        return;
+                    }
+                    inboundFrames.offer(Arrays.copyOfRange(packet, offset, offset + length));
+                    return;
+                }
+            }
+        }
+        if (!pushEnded.get()) listener.onFrame(packet, offset, length);
+    }
+
+    /**
+     * 对端发来 CLOSE 或传输被关闭。
+     */
+    void onRemoteClose() {
+        openSettled.countDown();
+        outputFinished.set(true); // 对端已结束，不再回送 CLOSE
+        FrameListener listener = frameListener;
+        if (listener == null) {
+            synchronized (pushLock) {
+                listener = frameListener;
+                if (listener == null) {
+                    inboundFrames.offer(END_OF_STREAM);
+                    return;
+                }
+            }
+        }
+        endPush(listener);
+    }
+
+    @Override
+    public void shutdownInput() {
+        // 对端结束后由 CLOSE 触发，本端无需额外动作
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        sendEnd();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            sendEnd();
+        } catch (IOException ignore) {
+            // 尽力通知对端，UDP 发送失败时由服务端的会话超时清理
+        }
+        transport.removeStream(this);
+        onRemoteClose();
+    }
+}
@@ -0,0 +1,280 @@
+package neoproxy.neolink.dgram;
+
+import neoproxy.neolink.DnsCache;
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.NeoLink;
+import neoproxy.neolink.ProxyOperator;
+import neoproxy.neolink.threads.BufferPool;
+import neoproxy.neolink.threads.LongObjectMap;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 原生 UDP 传输：服务端接受 {@code ServerFeatures.DATAGRAM} 后在 Hook 上下发 ":>datagram;端口;令牌;密钥"，
+ * UDP 隧道的帧改为加密后直接以 UDP 包发给服务端，不再经过基于 TCP 的 SecureSocket。
+ * 丢一个包只丢这一个数据报，不会像 TCP 那样让同一会话后面的数据报都等待重传（队头阻塞）。
+ * <p>
+ * 密钥派生与包格式见 {@link DatagramCrypto} 与 {@link DatagramFrame}；密钥经已加密的 Hook 下发，不会明文出现在网络上。
+ * 每条会话先发送 OPEN，在 OPEN_TIMEOUT_MILLIS 内收不到 OPEN_ACK（UDP 被防火墙拦截）时回退到 SecureSocket，
+ * 之后 BLOCKED_RETRY_MILLIS 内的新会话直接走回退路径，不再逐个等待超时。
+ * <p>
+ * 每次 Hook 连接对应一个实例：一个连接到服务端的 DatagramSocket 承载所有会话，由一个平台线程接收并按会话 ID 分发。
+ */
+public final class DatagramTransport {
+    public static long OPEN_TIMEOUT_MILLIS = 1000;
+    private static final int OPEN_ATTEMPTS = 4; // 超时时间内均匀重发 OPEN，容忍个别丢包
+    private static final long BLOCKED_RETRY_MILLIS = 60_000;
+    // 这么久没有收到任何包时发送 KEEPALIVE，维持 NAT 映射
+    private static final int KEEPALIVE_MILLIS = 15_000;
+    // 一个 socket 承载所有会话，系统默认的约 200KB 接收缓冲区在多个会话同时突发时会溢出丢包；实际大小受系统上限约束
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static volatile DatagramTransport current;
+    private static final LongAdder nativeSessions = new LongAdder();
+    private static final LongAdder fallbackSessions = new LongAdder();
+    private static final LongAdder rejectedPackets = new LongAdder();
+    private static final LongAdder replayedPackets = new LongAdder();
+    private static final LongAdder droppedPackets = new LongAdder();
+
+    private final DatagramSocket socket;
+    private final DatagramCrypto crypto;
+    // 接收线程逐包按会话 ID 查找；所有访问都对 streams 加锁
+    private final LongObjectMap<DatagramStream> streams = new LongObjectMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile long blockedUntil = 0;
+
+    private DatagramTransport(DatagramSocket socket, DatagramCrypto crypto) {
+        this.socket = socket;
+        this.crypto = crypto;
+    }
+
+    /**
+     * 处理服务端下发的 ":>datagram;端口;令牌(十六进制);密钥(Base64)"，替换上一次 Hook 连接留下的实例。
+     */
+    public static void onServerOffer(String[] parts) {
+        closeCurrent();
+        if (parts.length < 4) {
+            debugOperation("Malformed datagram transport offer, UDP tunnels stay on the transfer connection.");
+            return;
+        }
+        if (!ProxyOperator.PROXY_IP_TO_NEO_SERVER.isEmpty()) {
+            debugOperation("Datagram transport is unavailable through a proxy, UDP tunnels stay on the transfer connection.");
+            return;
+        }
+        DatagramSocket socket = null;
+        try {
+            int port = Integer.parseInt(parts[1]);
+            long token = HexFormat.fromHexDigitsToLong(parts[2]);
+            byte[] secret = Base64.getDecoder().decode(parts[3]);
+            socket = new DatagramSocket();
+            socket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+            socket.connect(new InetSocketAddress(DnsCache.resolve(NeoLink.remoteDomainName), port));
+            socket.setSoTimeout(KEEPALIVE_MILLIS);
+            DatagramTransport transport = new DatagramTransport(socket, new DatagramCrypto(token, secret, true));
+            // JDK 21 中 DatagramSocket.receive 会占住虚拟线程的载体线程，接收放在平台线程上
+            Thread.ofPlatform().daemon().name("NeoLink-Datagram-Reader").start(transport::readLoop);
+            current = transport;
+            debugOperation("Datagram transport offered on port " + port + ".");
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            debugOperation(e);
+            InternetOperator.close(socket);
+        }
+    }
+
+    /**
+     * 为一条 UDP 会话打开原生传输。
+     *
+     * @param socketID 服务端在 sendSocketUDP 中下发的会话 ID
+     * @return 服务端未提供原生传输、UDP 不通或服务端拒绝时为 null，调用方应回退到传输连接
+     */
+    public static DatagramStream openStream(String socketID) throws IOException {
+        DatagramTransport transport = current;
+        if (transport == null || !transport.running.get()) {
+            fallbackSessions.increment(); // 服务端接受了特性，但下发的端点无效或传输已关闭
+            return null;
+        }
+        long blockedUntil = transport.blockedUntil;
+        if (blockedUntil != 0 && System.nanoTime() - blockedUntil < 0) {
+            fallbackSessions.increment();
+            return null;
+        }
+        long sessionId;
+        try {
+            sessionId = Long.parseLong(socketID);
+        } catch (NumberFormatException e) {
+            fallbackSessions.increment();
+            return null; // 包头中的会话 ID 为 8 字节整数
+        }
+        DatagramStream stream = new DatagramStream(transport, sessionId);
+        DatagramStream replaced;
+        synchronized (transport.streams) {
+            replaced = transport.streams.put(sessionId, stream);
+        }
+        if (replaced != null) replaced.onRemoteClose();
+        long attemptMillis = Math.max(1, OPEN_TIMEOUT_MILLIS / OPEN_ATTEMPTS);
+        for (int attempt = 0; attempt < OPEN_ATTEMPTS && !stream.isSettled(); attempt++) {
+            transport.send(DatagramFrame.OPEN, sessionId, null, 0, 0);
+            if (stream.awaitOpen(attemptMillis)) {
+                nativeSessions.increment();
+                return stream;
+            }
+        }
+        transport.removeStream(stream);
+        fallbackSessions.increment();
+        if (!stream.isSettled()) {
+            transport.blockedUntil = System.nanoTime() + BLOCKED_RETRY_MILLIS * 1_000_000;
+            debugOperation("No reply to datagram OPEN within " + OPEN_TIMEOUT_MILLIS + "ms, UDP to the server looks blocked. "
+                    + "Falling back to the transfer connection for " + BLOCKED_RETRY_MILLIS / 1000 + "s.");
+        }
+        return null;
+    }
+
+    /**
+     * 关闭当前实例，在 Hook 连接断开时调用，所有会话收到结束信号。
+     */
+    public static void closeCurrent() {
+        DatagramTransport transport = current;
+        current = null;
+        if (transport != null) transport.shutdown();
+    }
+
+    void send(byte type, long sessionId, byte[] data, int offset, int length) throws IOException {
+        if (length > DatagramFrame.MAX_PAYLOAD) {
+            // 超过单个 UDP 包上限的数据报无法经原生传输发送，与本地 UDP 的行为一样直接丢弃
+            droppedPackets.increment();
+            return;
+        }
+        byte[] packet = BufferPool.acquire(DatagramFrame.OVERHEAD + length);
+        try {
+            int packetLength = crypto.seal(packet, 0, type, sessionId, data, offset, length);
+            socket.send(new DatagramPacket(packet, packetLength));
+        } catch (PortUnreachableException e) {
+            // 服务端端口暂不可达，按丢包处理，会话超时由 OPEN 重试与空闲回收兜底
+            droppedPackets.increment();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            BufferPool.release(packet);
+        }
+    }
+
+    void removeStream(DatagramStream stream) {
+        synchronized (streams) {
+            streams.remove(stream.sessionId, stream);
+        }
+    }
+
+    private void readLoop() {
+        byte[] buffer = BufferPool.acquire(DatagramFrame.MAX_PACKET_LENGTH);
+        DatagramPacket packet = new DatagramPacket(buffer, DatagramFrame.MAX_PACKET_LENGTH);
+        try {
+            while (running.get()) {
+                packet.setData(buffer, 0, DatagramFrame.MAX_PACKET_LENGTH);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    send(DatagramFrame.KEEPALIVE, 0, null, 0, 0);
+                    continue;
+                } catch (PortUnreachableException e) {
+                    continue;
+                }
+                dispatch(buffer, packet.getLength());
+            }
+        } catch (IOException e) {
+            if (running.get()) debugOperation(e);
+        } finally {
+            BufferPool.release(buffer);
+            shutdown();
+        }
+    }
+
+    private void dispatch(byte[] packet, int length) {
+        int plain = crypto.open(packet, 0, length);
+        if (plain == DatagramCrypto.REPLAYED) {
+            replayedPackets.increment();
+            return;
+        }
+        if (plain < 0) {
+            rejectedPackets.increment();
+            return;
+        }
+        long sessionId = DatagramFrame.sessionId(packet, 0);
+        DatagramStream stream;
+        synchronized (streams) {
+            stream = streams.get(sessionId);
+        }
+        if (stream == null) return;
+        switch (DatagramFrame.type(packet, 0)) {
+            case DatagramFrame.DATA -> stream.onData(packet, DatagramFrame.HEADER_LENGTH, plain);
+            case DatagramFrame.OPEN_ACK -> stream.onOpenAck();
+            case DatagramFrame.CLOSE -> {
+                removeStream(stream);
+                stream.onRemoteClose();
+            }
+            default -> {
+                // KEEPALIVE 只用于维持 NAT 映射
+            }
+        }
+    }
+
+    private void shutdown() {
+        if (!running.compareAndSet(true, false)) return;
+        List<DatagramStream> remaining;
+        synchronized (streams) {
+            remaining = streams.values();
+            streams.clear();
+        }
+        debugOperation("Datagram transport closed, ending " + remaining.size() + " sessions.");
+        socket.close();
+        for (DatagramStream stream : remaining) stream.onRemoteClose();
+        if (current == this) current = null;
+    }
+
+    static void recordDropped() {
+        droppedPackets.increment();
+    }
+
+    public static boolean isActive() {
+        DatagramTransport transport = current;
+        return transport != null && transport.running.get();
+    }
+
+    public static long getNativeSessionCount() {
+        return nativeSessions.sum();
+    }
+
+    public static long getFallbackSessionCount() {
+        return fallbackSessions.sum();
+    }
+
+    public static long getRejectedPacketCount() {
+        return rejectedPackets.sum();
+    }
+
+    public static long getReplayedPacketCount() {
+        return replayedPackets.sum();
+    }
+
+    public static long getDroppedPacketCount() {
+        return droppedPackets.sum();
+    }
+
+    public static String describe() {
+        return "active=" + isActive() + ", native=" + getNativeSessionCount() + ", fallback=" + getFallbackSessionCount()
+                + ", rejected=" + getRejectedPacketCount() + ", replayed=" + getReplayedPacketCount();
+    }
+}
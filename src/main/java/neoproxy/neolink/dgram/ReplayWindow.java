@@ -0,0 +1,58 @@
+package neoproxy.neolink.dgram;
+
+import java.util.Arrays;
+
+/**
+ * 防重放滑动窗口（RFC 6479 的环形位图）：记住最近 WINDOW_SIZE 个序号中哪些已经收到过，
+ * 窗口内乱序到达的包照常接受，重复的序号与比窗口更旧的序号一律拒绝。
+ * <p>
+ * 先用 {@link #mayAccept} 预检，认证通过后才调用 {@link #accept}，伪造的包无法推动窗口。
+ * 非线程安全，由唯一的接收线程使用。
+ */
+public final class ReplayWindow {
+    private static final int WINDOW_SIZE = 2048;
+    private static final int WORDS = WINDOW_SIZE / 64;
+
+    private final long[] bitmap = new long[WORDS];
+    private long highest = 0;
+
+    public boolean mayAccept(long sequence) {
+        if (sequence <= 0) return false;
+        if (sequence > highest) return true;
+        if (highest - sequence >= WINDOW_SIZE) return false;
+        return (bitmap[word(sequence)] & bit(sequence)) == 0;
+    }
+
+    public void accept(long sequence) {
+        if (sequence > highest) {
+            if (sequence - highest >= WINDOW_SIZE) {
+                Arrays.fill(bitmap, 0);
+            } else {
+                // 窗口前移：清掉新旧最高序号之间的槽位，它们此前记录的是已滑出窗口的旧序号；
+                // 按剩余个数计数而不是比较 s <= sequence，sequence 为 Long.MAX_VALUE 时也能结束
+                long s = highest + 1;
+                for (long remaining = sequence - highest; remaining > 0; ) {
+                    if ((s & 63) == 0 && remaining >= 64) {
+                        bitmap[word(s)] = 0;
+                        s += 64;
+                        remaining -= 64;
+                    } else {
+                        bitmap[word(s)] &= ~bit(s);
+                        s++;
+                        remaining--;
+                    }
+                }
+            }
+            highest = sequence;
+        }
+        bitmap[word(sequence)] |= bit(sequence);
+    }
+
+    private static int word(long sequence) {
+        return (int) ((sequence >>> 6) & (WORDS - 1));
+    }
+
+    private static long bit(long sequence) {
+        return 1L << (sequence & 63);
+    }
+}
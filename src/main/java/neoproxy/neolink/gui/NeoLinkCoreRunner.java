@@ -1,13 +1,16 @@
 package neoproxy.neolink.gui;
 
 import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.HappyEyeballs;
 import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.MetricsServer;
 import neoproxy.neolink.NeoLink;
 import neoproxy.neolink.ProxyOperator;
+import neoproxy.neolink.SocketTuning;
+import neoproxy.neolink.jfr.TunnelEvents;
 import neoproxy.neolink.threads.CheckAliveThread;
-
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import neoproxy.neolink.threads.SetupTrace;
+import neoproxy.neolink.threads.TunnelMetrics;
 
 import static neoproxy.neolink.Debugger.debugOperation;
 import static neoproxy.neolink.NeoLink.enableAutoReconnect;
@@ -32,14 +35,20 @@ public class NeoLinkCoreRunner {
         NeoLink.localPort = localPort;
         NeoLink.key = accessKey;
         ProxyOperator.init();
+        SetupTrace.installShutdownHook(NeoLink::say);
+        TunnelEvents.registerPeriodicEvents();
+        MetricsServer.start();
         boolean firstRun = true;
 
         while (!shouldStop) {
             SecureSocket hookSocket = null;
-            Socket rawSocket = null;
+            long dialStartedAt = 0, connectedAt = 0;
+            Exception failure = null;
 
             try {
                 if (!firstRun) {
+                    TunnelMetrics.reconnected();
+                    TunnelEvents.reconnecting(remoteDomain, TunnelMetrics.getReconnectCount(), NeoLink.reconnectionIntervalSeconds);
                     debugOperation("Entering reconnection wait loop...");
                     for (int i = 0; i < NeoLink.reconnectionIntervalSeconds && !shouldStop; i++) {
                         if (NeoLink.languageData != null) {
@@ -59,24 +68,29 @@ public class NeoLinkCoreRunner {
                 if (NeoLink.languageData != null) {
                     NeoLink.say(NeoLink.languageData.CONNECT_TO + remoteDomain + NeoLink.languageData.OMITTED);
                 }
+                dialStartedAt = System.nanoTime();
 
                 if (!ProxyOperator.PROXY_IP_TO_NEO_SERVER.isEmpty()) {
                     hookSocket = ProxyOperator.getHandledSecureSocket(ProxyOperator.Type.TO_NEO, NeoLink.hostHookPort);
                 } else {
-                    rawSocket = new Socket();
-                    NeoLink.connectingSocket = rawSocket;
-                    rawSocket.connect(new InetSocketAddress(remoteDomain, NeoLink.hostHookPort), 10000);
-                    hookSocket = new SecureSocket(rawSocket);
+                    // 与命令行相同走 Happy Eyeballs；停止按钮关闭 connectingSocket 即可中止正在进行的连接
+                    hookSocket = new SecureSocket(HappyEyeballs.connect(remoteDomain, NeoLink.hostHookPort, 10000, SocketTuning.NEO, dialing -> {
+                        NeoLink.connectingSocket = dialing;
+                        if (shouldStop) InternetOperator.close(dialing);
+                    }));
                 }
 
                 NeoLink.connectingSocket = null;
                 NeoLink.hookSocket = hookSocket;
 
-                NeoLink.exchangeClientInfoWithServer();
+                boolean accepted = NeoLink.exchangeClientInfoWithServer();
+                TunnelEvents.hookConnected(remoteDomain, NeoLink.hostHookPort, dialStartedAt, accepted, null);
+                if (accepted) connectedAt = System.nanoTime();
                 CheckAliveThread.startThread();
                 NeoLink.listenForServerCommands();
 
             } catch (Exception e) {
+                if (!shouldStop) failure = e; // 用户主动停止时关闭 Socket 引起的异常不算作断开原因
                 if (!enableAutoReconnect && !shouldStop) {
                     // 通知 UI 停止
                     if (stopCallback != null) {
@@ -91,6 +105,11 @@ public class NeoLinkCoreRunner {
                     debugOperation(e);
                 }
             } finally {
+                if (connectedAt != 0) {
+                    TunnelEvents.hookDisconnected(remoteDomain, connectedAt, failure);
+                } else if (dialStartedAt != 0 && failure != null) {
+                    TunnelEvents.hookConnected(remoteDomain, NeoLink.hostHookPort, dialStartedAt, false, failure);
+                }
                 try {
                     if (NeoLink.connectingSocket != null) {
                         NeoLink.connectingSocket.close();
@@ -98,6 +117,7 @@ public class NeoLinkCoreRunner {
                     }
                     InternetOperator.close(hookSocket);
                     CheckAliveThread.stopThread();
+                    NeoLink.releaseTransferResources();
                     NeoLink.hookSocket = null;
                     NeoLink.remotePort = 0;
                 } catch (Exception ignored) {
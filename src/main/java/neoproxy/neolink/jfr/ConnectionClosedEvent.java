@@ -0,0 +1,42 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一条隧道关闭。
+ */
+@Name("neoproxy.neolink.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"NeoLink", "Tunnel"})
+@Description("Tunnel closed, with the bytes forwarded in each direction")
+@StackTrace(false)
+final class ConnectionClosedEvent extends jdk.jfr.Event {
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Socket ID")
+    String socketId;
+
+    @Label("Visitor Address")
+    String remoteAddress;
+
+    @Label("Upload")
+    @Description("Bytes forwarded local -> Neo")
+    @DataAmount
+    long uploadBytes;
+
+    @Label("Download")
+    @Description("Bytes forwarded Neo -> local")
+    @DataAmount
+    long downloadBytes;
+
+    @Label("Lifetime")
+    @Timespan(Timespan.NANOSECONDS)
+    long lifetime;
+}
@@ -0,0 +1,26 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 收到服务端的 sendSocketTCP / sendSocketUDP 指令。
+ */
+@Name("neoproxy.neolink.ConnectionRequest")
+@Label("Connection Request")
+@Category({"NeoLink", "Tunnel"})
+@Description("sendSocketTCP or sendSocketUDP received on the hook")
+@StackTrace(false)
+final class ConnectionRequestEvent extends jdk.jfr.Event {
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Socket ID")
+    String socketId;
+
+    @Label("Visitor Address")
+    String remoteAddress;
+}
@@ -0,0 +1,54 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一条隧道建立成功或失败，各阶段耗时与 SetupTrace 的定义相同，UDP 隧道只有总耗时。
+ */
+@Name("neoproxy.neolink.ConnectionSetup")
+@Label("Connection Setup")
+@Category({"NeoLink", "Tunnel"})
+@Description("Tunnel established or failed, with the time spent in each setup stage")
+@StackTrace(false)
+final class ConnectionSetupEvent extends jdk.jfr.Event {
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Socket ID")
+    String socketId;
+
+    @Label("Visitor Address")
+    String remoteAddress;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Failure")
+    String failure;
+
+    @Label("Total")
+    @Description("From the server command arriving to the tunnel starting to forward")
+    @Timespan(Timespan.MICROSECONDS)
+    long total;
+
+    @Label("Queue")
+    @Timespan(Timespan.MICROSECONDS)
+    long queue;
+
+    @Label("Local Connect")
+    @Timespan(Timespan.MICROSECONDS)
+    long localConnect;
+
+    @Label("Neo Dial")
+    @Timespan(Timespan.MICROSECONDS)
+    long neoDial;
+
+    @Label("Neo Header")
+    @Timespan(Timespan.MICROSECONDS)
+    long neoHeader;
+}
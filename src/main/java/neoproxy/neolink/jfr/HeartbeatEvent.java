@@ -0,0 +1,26 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 发送一次心跳。
+ */
+@Name("neoproxy.neolink.Heartbeat")
+@Label("Heartbeat")
+@Category({"NeoLink", "Hook"})
+@Description("Heartbeat sent on an idle hook connection")
+@StackTrace(false)
+final class HeartbeatEvent extends jdk.jfr.Event {
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Consecutive Failures")
+    int consecutiveFailures;
+
+    @Label("Failure")
+    String failure;
+}
@@ -0,0 +1,35 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Hook 连接建立，handshake 为从拨号开始到服务端回应客户端信息的耗时。
+ */
+@Name("neoproxy.neolink.HookConnect")
+@Label("Hook Connect")
+@Category({"NeoLink", "Hook"})
+@Description("Control connection to the NeoServer dialled and client info exchanged")
+@StackTrace(false)
+final class HookConnectEvent extends jdk.jfr.Event {
+    @Label("Host")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Accepted")
+    @Description("Whether the server accepted the access key and client version")
+    boolean accepted;
+
+    @Label("Failure")
+    String failure;
+
+    @Label("Handshake")
+    @Timespan(Timespan.NANOSECONDS)
+    long handshake;
+}
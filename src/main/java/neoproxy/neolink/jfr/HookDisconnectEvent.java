@@ -0,0 +1,28 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Hook 连接断开。
+ */
+@Name("neoproxy.neolink.HookDisconnect")
+@Label("Hook Disconnect")
+@Category({"NeoLink", "Hook"})
+@Description("Control connection to the NeoServer lost or closed")
+@StackTrace(false)
+final class HookDisconnectEvent extends jdk.jfr.Event {
+    @Label("Host")
+    String host;
+
+    @Label("Connected For")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectedFor;
+
+    @Label("Reason")
+    String reason;
+}
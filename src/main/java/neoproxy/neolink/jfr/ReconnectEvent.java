@@ -0,0 +1,28 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一次重连尝试，在等待结束、重新拨号之前记录。
+ */
+@Name("neoproxy.neolink.Reconnect")
+@Label("Reconnect")
+@Category({"NeoLink", "Hook"})
+@Description("Reconnection attempt after the hook connection was lost")
+@StackTrace(false)
+final class ReconnectEvent extends jdk.jfr.Event {
+    @Label("Host")
+    String host;
+
+    @Label("Attempt")
+    long attempt;
+
+    @Label("Delay")
+    @Timespan(Timespan.SECONDS)
+    long delay;
+}
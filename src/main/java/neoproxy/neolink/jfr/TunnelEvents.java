@@ -0,0 +1,147 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.FlightRecorder;
+import neoproxy.neolink.threads.SetupTrace;
+import neoproxy.neolink.threads.TunnelMetrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NeoLink 的 JFR 自定义事件入口，在 Flight Recorder 中与 GC、线程事件并列显示 Hook 与隧道的生命周期。
+ * <p>
+ * 每个方法都先创建事件再检查 isEnabled()：未录制或该事件被关闭时直接返回，事件对象不逃逸，
+ * JIT 会消除这次分配，因此调用方无需自行判断。所有事件只在连接级别的节点上发出，不进入逐帧转发的热路径。
+ */
+public final class TunnelEvents {
+    private static final AtomicBoolean periodicRegistered = new AtomicBoolean(false);
+
+    private TunnelEvents() {
+    }
+
+    /**
+     * 注册周期性的隧道统计事件，重复调用只注册一次。
+     */
+    public static void registerPeriodicEvents() {
+        if (!periodicRegistered.compareAndSet(false, true)) return;
+        FlightRecorder.addPeriodicEvent(TunnelStatisticsEvent.class, () -> {
+            TunnelStatisticsEvent event = new TunnelStatisticsEvent();
+            event.activeTcp = TunnelMetrics.getActiveCount(TunnelMetrics.TCP);
+            event.activeUdp = TunnelMetrics.getActiveCount(TunnelMetrics.UDP);
+            event.uploadBytes = TunnelMetrics.getUploadBytes();
+            event.downloadBytes = TunnelMetrics.getDownloadBytes();
+            event.commit();
+        });
+    }
+
+    /**
+     * Hook 握手结束（成功、被拒绝或拨号失败）。
+     *
+     * @param dialStartedAt 开始拨号时的 System.nanoTime()
+     * @param failure       拨号或握手失败的原因，成功或被服务端拒绝时为 null
+     */
+    public static void hookConnected(String host, int port, long dialStartedAt, boolean accepted, Throwable failure) {
+        HookConnectEvent event = new HookConnectEvent();
+        if (!event.isEnabled()) return;
+        event.host = host;
+        event.port = port;
+        event.accepted = accepted;
+        event.failure = describe(failure);
+        event.handshake = System.nanoTime() - dialStartedAt;
+        event.commit();
+    }
+
+    /**
+     * @param connectedAt 握手成功时的 System.nanoTime()
+     * @param reason      断开原因，主动停止时为 null
+     */
+    public static void hookDisconnected(String host, long connectedAt, Throwable reason) {
+        HookDisconnectEvent event = new HookDisconnectEvent();
+        if (!event.isEnabled()) return;
+        event.host = host;
+        event.connectedFor = System.nanoTime() - connectedAt;
+        event.reason = reason == null ? "stopped" : describe(reason);
+        event.commit();
+    }
+
+    public static void connectionRequested(String protocol, String socketId, String remoteAddress) {
+        ConnectionRequestEvent event = new ConnectionRequestEvent();
+        if (!event.isEnabled()) return;
+        event.protocol = protocol;
+        event.socketId = socketId;
+        event.remoteAddress = remoteAddress;
+        event.commit();
+    }
+
+    /**
+     * 隧道开始转发。
+     *
+     * @param requestedAt 指令到达时的 System.nanoTime()
+     * @param trace       TCP 隧道的分阶段计时，UDP 隧道传 {@link SetupTrace#NONE}
+     */
+    public static void connectionEstablished(String protocol, String socketId, String remoteAddress, long requestedAt, SetupTrace trace) {
+        connectionSetup(protocol, socketId, remoteAddress, requestedAt, trace, null);
+    }
+
+    public static void connectionFailed(String protocol, String socketId, String remoteAddress, long requestedAt, SetupTrace trace, Throwable cause) {
+        connectionSetup(protocol, socketId, remoteAddress, requestedAt, trace, cause);
+    }
+
+    private static void connectionSetup(String protocol, String socketId, String remoteAddress, long requestedAt, SetupTrace trace, Throwable cause) {
+        ConnectionSetupEvent event = new ConnectionSetupEvent();
+        if (!event.isEnabled()) return;
+        event.protocol = protocol;
+        event.socketId = socketId;
+        event.remoteAddress = remoteAddress;
+        event.succeeded = cause == null;
+        event.failure = describe(cause);
+        event.total = (System.nanoTime() - requestedAt) / 1000;
+        event.queue = trace.getStageMicros(SetupTrace.Stage.QUEUE);
+        event.localConnect = trace.getStageMicros(SetupTrace.Stage.LOCAL_CONNECT);
+        event.neoDial = trace.getStageMicros(SetupTrace.Stage.NEO_DIAL);
+        event.neoHeader = trace.getStageMicros(SetupTrace.Stage.NEO_HEADER);
+        event.commit();
+    }
+
+    /**
+     * @param openedAt 隧道开始转发时的 System.nanoTime()
+     */
+    public static void connectionClosed(String protocol, String socketId, String remoteAddress,
+                                        long uploadBytes, long downloadBytes, long openedAt) {
+        ConnectionClosedEvent event = new ConnectionClosedEvent();
+        if (!event.isEnabled()) return;
+        event.protocol = protocol;
+        event.socketId = socketId;
+        event.remoteAddress = remoteAddress;
+        event.uploadBytes = uploadBytes;
+        event.downloadBytes = downloadBytes;
+        event.lifetime = System.nanoTime() - openedAt;
+        event.commit();
+    }
+
+    /**
+     * @param failure 发送失败的原因，成功时为 null
+     */
+    public static void heartbeat(int consecutiveFailures, Throwable failure) {
+        HeartbeatEvent event = new HeartbeatEvent();
+        if (!event.isEnabled()) return;
+        event.succeeded = failure == null;
+        event.consecutiveFailures = consecutiveFailures;
+        event.failure = describe(failure);
+        event.commit();
+    }
+
+    public static void reconnecting(String host, long attempt, long delaySeconds) {
+        ReconnectEvent event = new ReconnectEvent();
+        if (!event.isEnabled()) return;
+        event.host = host;
+        event.attempt = attempt;
+        event.delay = delaySeconds;
+        event.commit();
+    }
+
+    private static String describe(Throwable throwable) {
+        if (throwable == null) return null;
+        return throwable.getMessage() == null ? throwable.getClass().getSimpleName()
+                : throwable.getClass().getSimpleName() + ": " + throwable.getMessage();
+    }
+}
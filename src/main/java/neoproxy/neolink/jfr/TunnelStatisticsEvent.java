@@ -0,0 +1,34 @@
+package neoproxy.neolink.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * 周期性的隧道计数快照，与 GC、线程等周期事件并列显示转发活动。
+ */
+@Name("neoproxy.neolink.TunnelStatistics")
+@Label("Tunnel Statistics")
+@Category({"NeoLink", "Tunnel"})
+@Description("Periodic snapshot of active tunnels and forwarded bytes")
+@Period("1 s")
+@StackTrace(false)
+final class TunnelStatisticsEvent extends jdk.jfr.Event {
+    @Label("Active TCP Tunnels")
+    long activeTcp;
+
+    @Label("Active UDP Tunnels")
+    long activeUdp;
+
+    @Label("Upload Total")
+    @DataAmount
+    long uploadBytes;
+
+    @Label("Download Total")
+    @DataAmount
+    long downloadBytes;
+}
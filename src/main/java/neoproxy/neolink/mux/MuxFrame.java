@@ -0,0 +1,61 @@
+package neoproxy.neolink.mux;
+
+/**
+ * 多路复用帧格式，每一帧对应底层 SecureSocket 的一次 sendByte：
+ * <pre>
+ * [类型 1 字节][流 ID 4 字节，大端][负载...]
+ * </pre>
+ * OPEN_TCP / OPEN_UDP 的负载为服务端下发的 socketID（UTF-8），WINDOW 的负载为 4 字节窗口增量，
+ * DATA 的负载为原始数据（UDP 流为 0xDEADBEEF 序列化后的数据报），FIN / RST 无负载。
+ */
+public final class MuxFrame {
+    public static final byte OPEN_TCP = 1;
+    public static final byte OPEN_UDP = 2;
+    public static final byte DATA = 3;
+    public static final byte WINDOW = 4;
+    public static final byte FIN = 5;
+    public static final byte RST = 6;
+
+    public static final int HEADER_LENGTH = 5;
+    // 单帧最大负载，同时也是公平调度器每轮分给一条流的配额
+    public static final int MAX_PAYLOAD = 16 * 1024;
+    // 报文模式下单帧可能携带一个完整的数据报
+    public static final int MAX_FRAME_LENGTH = HEADER_LENGTH + 65560;
+    // 每条流的初始流控窗口
+    public static final int INITIAL_WINDOW = 256 * 1024;
+
+    private MuxFrame() {
+    }
+
+    public static byte[] encode(byte type, int streamId, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        frame[0] = type;
+        writeInt(frame, 1, streamId);
+        if (length > 0) System.arraycopy(payload, offset, frame, HEADER_LENGTH, length);
+        return frame;
+    }
+
+    public static byte[] encode(byte type, int streamId) {
+        return encode(type, streamId, null, 0, 0);
+    }
+
+    public static byte[] encodeWindow(int streamId, int increment) {
+        byte[] frame = new byte[HEADER_LENGTH + 4];
+        frame[0] = WINDOW;
+        writeInt(frame, 1, streamId);
+        writeInt(frame, HEADER_LENGTH, increment);
+        return frame;
+    }
+
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
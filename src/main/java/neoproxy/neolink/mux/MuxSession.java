@@ -0,0 +1,207 @@
+package neoproxy.neolink.mux;
+
+import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.NeoLink;
+import neoproxy.neolink.TransferSocketPool;
+import neoproxy.neolink.threads.LongObjectMap;
+import neoproxy.neolink.threads.TunnelExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 多路复用传输会话：在一条长连接的 SecureSocket 上承载多条 TCP/UDP 会话。
+ * 只有服务端在 Hook 上回复 ":>features;...M..." 后才会启用，旧服务端继续使用每会话一连接的模式。
+ * <p>
+ * 写出由单独的写线程完成：控制帧（OPEN / WINDOW）优先，数据帧按流做亏损轮询 (DRR)，
+ * 每条流每轮最多发送 {@link MuxFrame#MAX_PAYLOAD} 字节，大流量的流不会饿死交互式的流。
+ */
+public final class MuxSession {
+    private static volatile MuxSession current;
+
+    private final SecureSocket secureSocket;
+    // 读线程逐帧按流 ID 查找，使用原始类型键的表避免每帧装箱；所有访问都对 streams 加锁
+    private final LongObjectMap<MuxStream> streams = new LongObjectMap<>();
+    private final Queue<byte[]> controlFrames = new ConcurrentLinkedQueue<>();
+    private final Queue<MuxStream> activeStreams = new ArrayDeque<>(); // 受 lock 保护
+    private final Object lock = new Object();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1);
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private MuxSession(SecureSocket secureSocket) {
+        this.secureSocket = secureSocket;
+    }
+
+    /**
+     * 打开一条新流，必要时先建立多路复用连接。
+     *
+     * @param openType {@link MuxFrame#OPEN_TCP} 或 {@link MuxFrame#OPEN_UDP}
+     * @param socketID 服务端在 sendSocketTCP / sendSocketUDP 中下发的会话 ID
+     */
+    public static MuxStream openStream(byte openType, String socketID) throws IOException {
+        MuxSession session = getOrCreate();
+        MuxStream stream = new MuxStream(session, session.nextStreamId.getAndAdd(2), openType == MuxFrame.OPEN_UDP);
+        synchronized (session.streams) {
+            session.streams.put(stream.streamId, stream);
+        }
+        byte[] id = socketID.getBytes(StandardCharsets.UTF_8);
+        session.enqueueControl(MuxFrame.encode(openType, stream.streamId, id, 0, id.length));
+        return stream;
+    }
+
+    private static MuxSession getOrCreate() throws IOException {
+        MuxSession session = current;
+        if (session != null && session.running.get()) return session;
+        synchronized (MuxSession.class) {
+            if (current == null || !current.running.get()) {
+                SecureSocket socket = TransferSocketPool.openTransfer("MUX" + ";" + NeoLink.key);
+                MuxSession created = new MuxSession(socket);
+                TunnelExecutor.submitDedicated("NeoLink-Mux-Reader", created::readLoop);
+                TunnelExecutor.submitDedicated("NeoLink-Mux-Writer", created::writeLoop);
+                current = created;
+                debugOperation("Multiplexed transfer session established.");
+            }
+            return current;
+        }
+    }
+
+    /**
+     * 关闭当前会话，在 Hook 连接断开时调用。
+     */
+    public static void closeCurrent() {
+        MuxSession session = current;
+        current = null;
+        if (session != null) session.shutdown();
+    }
+
+    public static int getActiveStreamCount() {
+        MuxSession session = current;
+        if (session == null) return 0;
+        synchronized (session.streams) {
+            return session.streams.size();
+        }
+    }
+
+    void enqueueControl(byte[] frame) {
+        controlFrames.offer(frame);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    void enqueueData(MuxStream stream, byte[] frame) {
+        stream.outboundFrames.offer(frame);
+        if (stream.scheduled.compareAndSet(false, true)) {
+            synchronized (lock) {
+                activeStreams.offer(stream);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void removeStream(MuxStream stream) {
+        synchronized (streams) {
+            streams.remove(stream.streamId, stream);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (running.get()) {
+                MuxStream stream;
+                synchronized (lock) {
+                    while (running.get() && controlFrames.isEmpty() && activeStreams.isEmpty()) lock.wait();
+                    stream = activeStreams.poll();
+                }
+                byte[] control;
+                while ((control = controlFrames.poll()) != null) secureSocket.sendByte(control);
+                if (stream != null) serviceStream(stream);
+            }
+        } catch (Exception e) {
+            debugOperation(e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * 为一条流累加一个配额并发送配额内的数据，仍有积压时重新排到队尾。
+     * 配额跨轮累积，因此大于单轮配额的数据报帧也会在若干轮后发出。
+     */
+    private void serviceStream(MuxStream stream) throws IOException {
+        stream.deficit += MuxFrame.MAX_PAYLOAD + MuxFrame.HEADER_LENGTH;
+        byte[] frame;
+        while ((frame = stream.outboundFrames.peek()) != null && frame.length <= stream.deficit) {
+            stream.outboundFrames.poll();
+            secureSocket.sendByte(frame);
+            stream.deficit -= frame.length;
+        }
+        if (stream.outboundFrames.isEmpty()) {
+            stream.deficit = 0;
+            stream.scheduled.set(false);
+            // 防止与 enqueueData 竞争导致丢失调度
+            if (stream.outboundFrames.isEmpty() || !stream.scheduled.compareAndSet(false, true)) return;
+        }
+        synchronized (lock) {
+            activeStreams.offer(stream);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            byte[] frame;
+            while (running.get() && (frame = secureSocket.receiveByte()) != null) {
+                if (frame.length < MuxFrame.HEADER_LENGTH) continue;
+                // 整帧已由 SecureSocket 分配并解密，这里只能拒绝继续处理并断开会话
+                if (frame.length > MuxFrame.MAX_FRAME_LENGTH) {
+                    debugOperation("Mux frame of " + frame.length + " bytes exceeds the limit, closing session.");
+                    break;
+                }
+                int streamId = MuxFrame.readInt(frame, 1);
+                MuxStream stream;
+                synchronized (streams) {
+                    stream = streams.get(streamId);
+                }
+                if (stream == null) {
+                    if (frame[0] != MuxFrame.RST) enqueueControl(MuxFrame.encode(MuxFrame.RST, streamId));
+                    continue;
+                }
+                switch (frame[0]) {
+                    case MuxFrame.DATA -> stream.onData(frame);
+                    case MuxFrame.WINDOW -> stream.onWindowUpdate(MuxFrame.readInt(frame, MuxFrame.HEADER_LENGTH));
+                    case MuxFrame.FIN -> stream.onRemoteFin();
+                    case MuxFrame.RST -> stream.onReset();
+                    default -> debugOperation("Unknown mux frame type: " + frame[0]);
+                }
+            }
+        } catch (Exception e) {
+            debugOperation(e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        if (!running.compareAndSet(true, false)) return;
+        List<MuxStream> remaining;
+        synchronized (streams) {
+            remaining = streams.values();
+        }
+        debugOperation("Multiplexed transfer session closed, resetting " + remaining.size() + " streams.");
+        InternetOperator.close(secureSocket);
+        for (MuxStream stream : remaining) stream.onReset();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        if (current == this) current = null;
+    }
+}
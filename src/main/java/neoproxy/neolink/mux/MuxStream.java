@@ -0,0 +1,286 @@
+package neoproxy.neolink.mux;
+
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.TransferChannel;
+import neoproxy.neolink.threads.InFlightBudget;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多路复用连接上的一条流，对转发器而言与独占的 SecureSocket 没有区别。
+ * 发送受对端通告的流控窗口约束，窗口耗尽时 sendByte 阻塞；接收到的数据被消费后再向对端归还窗口。
+ * UDP 流为报文模式：一次 sendByte 恰好对应一个 DATA 帧，保证数据报边界不被拆分。
+ * 支持推送模式：读线程收到 DATA 后直接交给 {@link FrameListener}，数据立即被消费，不进入接收队列。
+ */
+public final class MuxStream implements TransferChannel {
+    // 接收队列中的结束标记
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    final int streamId;
+    final Queue<byte[]> outboundFrames = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean(false);
+    int deficit = 0; // 仅由写线程访问
+
+    private final MuxSession session;
+    private final boolean messageMode;
+    private final AtomicInteger inboundBytes = new AtomicInteger(0);
+    private final LinkedBlockingQueue<byte[]> inboundFrames = new LinkedBlockingQueue<>();
+    private final Object windowLock = new Object();
+    private final AtomicBoolean outputFinished = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // 切换到推送模式与读线程入队互斥，保证切换前已入队的帧先于之后的帧交付
+    private final Object pushLock = new Object();
+    private final AtomicBoolean pushEnded = new AtomicBoolean(false);
+    private volatile FrameListener frameListener;
+    private int sendWindow = MuxFrame.INITIAL_WINDOW;
+    private int unackedBytes = 0;
+    private volatile boolean reset = false;
+
+    MuxStream(MuxSession session, int streamId, boolean messageMode) {
+        this.session = session;
+        this.streamId = streamId;
+        this.messageMode = messageMode;
+    }
+
+    @Override
+    public void sendByte(byte[] data, int offset, int length) throws IOException {
+        if (data == null) {
+            sendEnd();
+            return;
+        }
+        if (messageMode) {
+            acquireWindow(length, true);
+            session.enqueueData(this, MuxFrame.encode(MuxFrame.DATA, streamId, data, offset, length));
+            return;
+        }
+        while (length > 0) {
+            int chunk = acquireWindow(Math.min(length, MuxFrame.MAX_PAYLOAD), false);
+            session.enqueueData(this, MuxFrame.encode(MuxFrame.DATA, streamId, data, offset, chunk));
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void sendByte(byte[] data) throws IOException {
+        if (data == null) {
+            sendEnd();
+        } else {
+            sendByte(data, 0, data.length);
+        }
+    }
+
+    private void sendEnd() throws IOException {
+        if (outputFinished.compareAndSet(false, true)) {
+            // FIN 走数据队列，保证排在本流所有已入队的 DATA 之后
+            session.enqueueData(this, MuxFrame.encode(MuxFrame.FIN, streamId));
+        }
+    }
+
+    /**
+     * @param whole 为 true 时一次扣除全部长度（窗口允许暂时为负），用于不可拆分的数据报
+     */
+    private int acquireWindow(int wanted, boolean whole) throws IOException {
+        synchronized (windowLock) {
+            while (sendWindow <= 0 && !reset && !closed.get()) {
+                try {
+                    windowLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for mux window");
+                }
+            }
+            if (reset || closed.get() || outputFinished.get()) throw new EOFException("Mux stream " + streamId + " closed");
+            int granted = whole ? wanted : Math.min(wanted, sendWindow);
+            sendWindow -= granted;
+            return granted;
+        }
+    }
+
+    @Override
+    public byte[] receiveByte() throws IOException {
+        byte[] frame = takeFrame();
+        return frame == null ? null : Arrays.copyOfRange(frame, MuxFrame.HEADER_LENGTH, frame.length);
+    }
+
+    /**
+     * 直接返回读线程收到的整帧，视图跳过帧头，负载不再拷贝。
+     */
+    @Override
+    public boolean receive(ReceivedFrame received) throws IOException {
+        byte[] frame = takeFrame();
+        if (frame == null) return false;
+        received.set(frame, MuxFrame.HEADER_LENGTH, frame.length - MuxFrame.HEADER_LENGTH, true);
+        return true;
+    }
+
+    private byte[] takeFrame() throws IOException {
+        byte[] frame;
+        try {
+            frame = inboundFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for mux data");
+        }
+        if (frame == END_OF_STREAM) {
+            inboundFrames.offer(END_OF_STREAM); // 之后的调用同样返回结束
+            if (reset) throw new EOFException("Mux stream " + streamId + " reset by peer");
+            return null;
+        }
+        int length = frame.length - MuxFrame.HEADER_LENGTH;
+        inboundBytes.addAndGet(-length);
+        InFlightBudget.release(length);
+        creditWindow(length);
+        return frame;
+    }
+
+    /**
+     * 数据被消费后累计归还窗口，达到初始窗口一半时统一发送 WINDOW 帧，避免每帧都回一个控制帧。
+     */
+    private void creditWindow(int consumed) {
+        int increment = 0;
+        synchronized (windowLock) {
+            unackedBytes += consumed;
+            if (unackedBytes >= MuxFrame.INITIAL_WINDOW / 2) {
+                increment = unackedBytes;
+                unackedBytes = 0;
+            }
+        }
+        if (increment > 0 && !closed.get()) session.enqueueControl(MuxFrame.encodeWindow(streamId, increment));
+    }
+
+    @Override
+    public boolean pushFramesTo(FrameListener listener) {
+        synchronized (pushLock) {
+            byte[] frame;
+            boolean ended = false;
+            while ((frame = inboundFrames.poll()) != null) {
+                if (frame == END_OF_STREAM) {
+                    ended = true;
+                    break;
+                }
+                int length = frame.length - MuxFrame.HEADER_LENGTH;
+                inboundBytes.addAndGet(-length);
+                InFlightBudget.release(length);
+                listener.onFrame(frame, MuxFrame.HEADER_LENGTH, length);
+                creditWindow(length);
+            }
+            frameListener = listener;
+            if (ended || closed.get()) endPush(listener);
+        }
+        return true;
+    }
+
+    private void endPush(FrameListener listener) {
+        if (pushEnded.compareAndSet(false, true)) listener.onEnd();
+    }
+
+    void onData(byte[] frame) {
+        FrameListener listener = frameListener;
+        if (listener == null) {
+            synchronized (pushLock) {
+                listener = frameListener;
+                if (listener == null) {
+                    enqueueInbound(frame);
+                    return;
+                }
+            }
+        }
+        if (pushEnded.get()) return;
+        int length = frame.length - MuxFrame.HEADER_LENGTH;
+        listener.onFrame(frame, MuxFrame.HEADER_LENGTH, length);
+        creditWindow(length);
+    }
+
+    private void enqueueInbound(byte[] frame) {
+        int length = frame.length - MuxFrame.HEADER_LENGTH;
+        // 对端无视我们通告的窗口时视为协议错误，防止接收队列无限增长
+        if (inboundBytes.addAndGet(length) > MuxFrame.INITIAL_WINDOW + MuxFrame.MAX_FRAME_LENGTH) {
+            close();
+            return;
+        }
+        // 读线程不能阻塞，只记入全局在途预算，占用已由流控窗口约束
+        InFlightBudget.forceAcquire(length);
+        inboundFrames.offer(frame); // 保留帧头，由 receive 以偏移量跳过，避免逐帧拷贝负载
+        if (closed.get()) drainInbound();
+    }
+
+    /**
+     * 流关闭后丢弃未消费的数据并归还额度，结束标记放回队列，保证阻塞中的读取方能够返回。
+     */
+    private void drainInbound() {
+        byte[] frame;
+        boolean ended = false;
+        while ((frame = inboundFrames.poll()) != null) {
+            if (frame == END_OF_STREAM) {
+                ended = true;
+                continue;
+            }
+            int length = frame.length - MuxFrame.HEADER_LENGTH;
+            inboundBytes.addAndGet(-length);
+            InFlightBudget.release(length);
+        }
+        if (ended) inboundFrames.offer(END_OF_STREAM);
+    }
+
+    void onWindowUpdate(int increment) {
+        synchronized (windowLock) {
+            sendWindow += increment;
+            windowLock.notifyAll();
+        }
+    }
+
+    void onRemoteFin() {
+        signalEnd();
+    }
+
+    void onReset() {
+        reset = true;
+        signalEnd();
+        synchronized (windowLock) {
+            windowLock.notifyAll();
+        }
+        session.removeStream(this);
+    }
+
+    private void signalEnd() {
+        FrameListener listener = frameListener;
+        if (listener == null) {
+            synchronized (pushLock) {
+                listener = frameListener;
+                if (listener == null) {
+                    inboundFrames.offer(END_OF_STREAM);
+                    return;
+                }
+            }
+        }
+        endPush(listener);
+    }
+
+    @Override
+    public void shutdownInput() {
+        // 对端结束后由 FIN 触发，本端无需额外动作
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        sendEnd();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        // RST 同样排在已入队的 DATA / FIN 之后，避免正常结束的数据被截断
+        if (!reset) session.enqueueData(this, MuxFrame.encode(MuxFrame.RST, streamId));
+        onReset();
+        drainInbound();
+    }
+}
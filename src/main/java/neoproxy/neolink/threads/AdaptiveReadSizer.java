@@ -0,0 +1,45 @@
+package neoproxy.neolink.threads;
+
+/**
+ * 每条连接独立的自适应读取大小预测器。
+ * 连接以 MIN_SIZE（配置项 BUFFER_LEN）起步：一次读取填满当前大小时翻倍，直到 MAX_SIZE；
+ * 连续两次读取不足当前大小的四分之一时减半，但不低于 MIN_SIZE。
+ * 这样 SSH、游戏协议这类交互式流量始终使用小缓冲区，大文件传输则很快升到大块读取。
+ */
+public final class AdaptiveReadSizer {
+    public static int MIN_SIZE = 4096;
+    public static int MAX_SIZE = TCPTransformer.BUFFER_LENGTH;
+
+    private int currentSize;
+    private boolean shrinkPending = false;
+
+    public AdaptiveReadSizer() {
+        this.currentSize = Math.min(MIN_SIZE, MAX_SIZE);
+    }
+
+    /**
+     * @return 下一次读取应使用的最大字节数
+     */
+    public int nextSize() {
+        return currentSize;
+    }
+
+    /**
+     * 记录一次读取的实际字节数并调整下一次的大小。
+     */
+    public void record(int bytesRead) {
+        if (bytesRead >= currentSize) {
+            currentSize = Math.min(currentSize << 1, MAX_SIZE);
+            shrinkPending = false;
+        } else if (bytesRead < (currentSize >> 2)) {
+            if (shrinkPending) {
+                currentSize = Math.max(currentSize >> 1, MIN_SIZE);
+                shrinkPending = false;
+            } else {
+                shrinkPending = true;
+            }
+        } else {
+            shrinkPending = false;
+        }
+    }
+}
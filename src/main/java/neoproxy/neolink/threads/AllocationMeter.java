@@ -0,0 +1,55 @@
+package neoproxy.neolink.threads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 基于 HotSpot 线程分配计数器的轻量测量工具，用来对比转发路径改动前后每转发 1KB 数据产生多少堆分配。
+ * 只在调试模式下于隧道开始和结束时各读取一次计数器，不影响转发本身；JVM 不支持时返回 -1。
+ */
+public final class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = resolveBean();
+
+    private final long startBytes;
+
+    private AllocationMeter() {
+        this.startBytes = currentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean resolveBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean hotspotBean && hotspotBean.isThreadAllocatedMemorySupported()) {
+            return hotspotBean;
+        }
+        return null;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_BEAN == null ? -1 : THREAD_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * 在转发线程上开始计量。
+     */
+    public static AllocationMeter start() {
+        return new AllocationMeter();
+    }
+
+    /**
+     * @return 从 start 到现在当前线程分配的字节数
+     */
+    public long allocatedBytes() {
+        if (startBytes < 0) return -1;
+        return currentThreadAllocatedBytes() - startBytes;
+    }
+
+    /**
+     * @return 形如 "allocated=...B (...B/KB)" 的描述
+     */
+    public String describe(long forwardedBytes) {
+        long allocated = allocatedBytes();
+        if (allocated < 0) return "allocated=n/a";
+        long perKb = forwardedBytes <= 0 ? 0 : allocated * 1024 / forwardedBytes;
+        return "allocated=" + allocated + "B (" + perKb + "B/KB)";
+    }
+}
@@ -0,0 +1,171 @@
+package neoproxy.neolink.threads;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局共享的分级缓冲池，所有转发器只在真正读写数据时租用缓冲区，用完立即归还，
+ * 空闲隧道不再各自持有 64KB 数组，内存占用随活跃流量而不是连接数增长。
+ * <p>
+ * 缓冲区为堆内 byte[]：SecureSocket 的帧接口只接受 byte[]，堆外内存在这里反而要多一次拷贝。
+ * MAX_IDLE_BYTES 只限制池中保留的空闲内存总量，超出部分归还时直接丢弃交给 GC。
+ * <p>
+ * 本类不限制租出中的内存：acquire 从不等待也不失败，getInUseBytes 可以无上限增长。
+ * TCP 转发读入的数据另受 {@link InFlightBudget} 约束，UDP 与压缩等路径的在用内存只受各自连接的水位与并发数限制。
+ * <p>
+ * 每个分级的空闲列表按线程分成若干条带，各带独立加锁：线程先用自己的条带，为空时再尝试其他未被占用的条带，
+ * 多个事件循环与转发线程同时租还时不会争用同一把锁。
+ */
+public final class BufferPool {
+    // 最大一级可容纳 65535 字节的数据再加上 UDP 序列化头
+    public static final int MAX_BUFFER_SIZE = 65560;
+    // 分级大小：1KB、4KB、16KB、64KB
+    private static final int[] SIZE_CLASSES = {1024, 4096, 16384, MAX_BUFFER_SIZE};
+    public static long MAX_IDLE_BYTES = 64L * 1024 * 1024;
+    // 条带数取不小于 CPU 核数的 2 的幂
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private static final Stripe[][] freeLists = createFreeLists();
+    private static final AtomicLong pooledBytes = new AtomicLong(0);
+    private static final LongAdder inUseBytes = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private BufferPool() {
+    }
+
+    private static Stripe[][] createFreeLists() {
+        Stripe[][] lists = new Stripe[SIZE_CLASSES.length][STRIPES];
+        for (Stripe[] stripes : lists) {
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+        }
+        return lists;
+    }
+
+    private static int homeStripe() {
+        return (int) Thread.currentThread().threadId() & (STRIPES - 1);
+    }
+
+    private static int classIndexFor(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) return i;
+        }
+        return -1;
+    }
+
+    private static int exactClassIndex(int length) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (length == SIZE_CLASSES[i]) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return acquire(minSize) 将返回的数组长度
+     */
+    public static int classSize(int minSize) {
+        int index = classIndexFor(minSize);
+        return index < 0 ? minSize : SIZE_CLASSES[index];
+    }
+
+    /**
+     * 租用一个长度不小于 minSize 的缓冲区，超过最大分级时直接分配且不回收。
+     */
+    public static byte[] acquire(int minSize) {
+        int index = classIndexFor(minSize);
+        if (index < 0) {
+            misses.increment();
+            return new byte[minSize];
+        }
+        Stripe[] stripes = freeLists[index];
+        int home = homeStripe();
+        byte[] buffer = stripes[home].poll();
+        // 自己的条带为空时借用其他条带，正被占用的直接跳过
+        for (int i = 1; buffer == null && i < STRIPES; i++) {
+            buffer = stripes[(home + i) & (STRIPES - 1)].tryPoll();
+        }
+        if (buffer != null) {
+            hits.increment();
+            pooledBytes.addAndGet(-buffer.length);
+        } else {
+            misses.increment();
+            buffer = new byte[SIZE_CLASSES[index]];
+        }
+        inUseBytes.add(buffer.length);
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区。调用方归还后不得再使用该数组。
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null) return;
+        int index = exactClassIndex(buffer.length);
+        if (index < 0) return;
+        inUseBytes.add(-buffer.length);
+        if (pooledBytes.addAndGet(buffer.length) > MAX_IDLE_BYTES) {
+            pooledBytes.addAndGet(-buffer.length);
+            return;
+        }
+        freeLists[index][homeStripe()].push(buffer);
+    }
+
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    public static long getInUseBytes() {
+        return inUseBytes.sum();
+    }
+
+    public static long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public static String describe() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", inUse=" + getInUseBytes() / 1024 + "KB, pooled=" + getPooledBytes() / 1024 + "KB";
+    }
+
+    /**
+     * 一个分级中的一条空闲列表，后进先出，刚用过的数组更可能还在 CPU 缓存中。
+     * 用 ReentrantLock 而不是 synchronized，虚拟线程在这里等待时不会钉住载体线程。
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+
+        byte[] poll() {
+            lock.lock();
+            try {
+                return buffers.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        byte[] tryPoll() {
+            if (!lock.tryLock()) return null;
+            try {
+                return buffers.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void push(byte[] buffer) {
+            lock.lock();
+            try {
+                buffers.offerFirst(buffer);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
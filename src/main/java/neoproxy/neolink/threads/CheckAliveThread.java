@@ -2,7 +2,9 @@ package neoproxy.neolink.threads;
 
 import fun.ceroxe.api.utils.Sleeper;
 import neoproxy.neolink.NeoLink;
+import neoproxy.neolink.jfr.TunnelEvents;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -17,7 +19,7 @@ public final class CheckAliveThread implements Runnable {
     public static int HEARTBEAT_PACKET_DELAY = 1000;
     private static volatile CheckAliveThread instance;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
-    private Thread heartbeatThreadInstance;
+    private Future<?> heartbeatTask;
 
     private CheckAliveThread() {
     }
@@ -39,22 +41,18 @@ public final class CheckAliveThread implements Runnable {
         if (instance != null) instance.stop();
     }
 
-    private Thread start() {
+    private Future<?> start() {
         if (isRunning.compareAndSet(false, true)) {
-            heartbeatThreadInstance = new Thread(this, "Client-CheckAliveThread");
-            heartbeatThreadInstance.setDaemon(true);
-            heartbeatThreadInstance.start();
+            heartbeatTask = TunnelExecutor.submitDedicated("Client-CheckAliveThread", this);
             debugOperation("[DEBUG] CheckAliveThread started.");
-            return heartbeatThreadInstance;
-        } else {
-            return heartbeatThreadInstance;
         }
+        return heartbeatTask;
     }
 
     private void stop() {
         if (isRunning.compareAndSet(true, false)) {
             debugOperation("[DEBUG] Stopping CheckAliveThread...");
-            if (heartbeatThreadInstance != null) heartbeatThreadInstance.interrupt();
+            if (heartbeatTask != null) heartbeatTask.cancel(true);
         }
     }
 
@@ -74,9 +72,11 @@ public final class CheckAliveThread implements Runnable {
                         NeoLink.hookSocket.sendStr(HEARTBEAT_PACKET);
                     }
                     failureCount.set(0);
+                    TunnelEvents.heartbeat(0, null);
 
                 } catch (Exception e) {
                     int currentFailures = failureCount.incrementAndGet();
+                    TunnelEvents.heartbeat(currentFailures, e);
                     if (isDebugMode)
                         System.err.println("[DEBUG] Heartbeat failed (" + currentFailures + "): " + e.getMessage());
 
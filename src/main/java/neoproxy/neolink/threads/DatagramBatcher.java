@@ -0,0 +1,135 @@
+package neoproxy.neolink.threads;
+
+import neoproxy.neolink.channel.TransferChannel;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP 数据报合并：服务端接受 {@code ServerFeatures.BATCHING} 后，Local -> Neo 方向把同一批到达（或 DELAY_MICROS 微秒内到达）
+ * 的多个数据报合并成一帧加密发送，每帧最多 MAX_BYTES 字节（原生 UDP 传输上不超过路径 MTU），减少逐包的加密与帧头开销。
+ * <p>
+ * 合并帧：魔数 {@link UDPTransformer#BATCH_MAGIC}、记录数，随后每条记录为 4 字节长度加一个普通的数据报帧；
+ * 攒到的只有一个数据报时直接发送普通帧。接收方向总是同时接受两种帧，未协商时服务端不会发出合并帧。
+ * <p>
+ * 一个实例只属于一条隧道的发送方，不是线程安全的。
+ */
+public final class DatagramBatcher {
+    public static int MAX_BYTES = 8 * 1024;
+    // 0 表示只合并已在本地缓冲区排队的数据报，不额外等待
+    public static long DELAY_MICROS = 0;
+
+    private static final int BATCH_HEADER_LENGTH = 8;
+    private static final LongAdder[] frames = {new LongAdder(), new LongAdder()};
+    private static final LongAdder[] datagrams = {new LongAdder(), new LongAdder()};
+
+    private final TransferChannel neoChannel;
+    private final int maxBytes; // MAX_BYTES 与通道建议帧长中较小的一个
+    private byte[] buffer; // 攒批期间从 BufferPool 租用，发出后立即归还
+    private int position;
+    private int count;
+    private long firstAddedAt;
+
+    private DatagramBatcher(TransferChannel neoChannel) {
+        this.neoChannel = neoChannel;
+        this.maxBytes = Math.min(MAX_BYTES, neoChannel.preferredMaxFrameLength());
+    }
+
+    /**
+     * @param eventLoop 是否由事件循环发送。阻塞的线程模式无法得知本地缓冲区是否还有排队的数据报，
+     *                  只有 DELAY_MICROS 大于 0 时才合并
+     * @return 不需要合并时返回 null
+     */
+    public static DatagramBatcher open(TransferChannel neoChannel, boolean eventLoop) {
+        if (!eventLoop && DELAY_MICROS <= 0) return null;
+        return new DatagramBatcher(neoChannel);
+    }
+
+    /**
+     * 加入一个已序列化的数据报帧，放不下时先发出已攒的批次；单个帧本身超过上限时直接发送。
+     */
+    void add(byte[] frame, int offset, int length) throws IOException {
+        if (count > 0 && position + 4 + length > maxBytes) flush();
+        if (BATCH_HEADER_LENGTH + 4 + length > maxBytes) {
+            neoChannel.sendByte(frame, offset, length);
+            recordFrame(TrafficShaper.UPLOAD, 1);
+            return;
+        }
+        if (count == 0) {
+            if (buffer == null) buffer = BufferPool.acquire(maxBytes);
+            position = BATCH_HEADER_LENGTH;
+            firstAddedAt = System.nanoTime();
+        }
+        UDPTransformer.writeInt(buffer, position, length);
+        System.arraycopy(frame, offset, buffer, position + 4, length);
+        position += 4 + length;
+        count++;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return 当前批次应当发出的时间 (System.nanoTime())
+     */
+    long getDeadline() {
+        return firstAddedAt + DELAY_MICROS * 1000;
+    }
+
+    void flush() throws IOException {
+        if (count == 0) return;
+        try {
+            if (count == 1) {
+                neoChannel.sendByte(buffer, BATCH_HEADER_LENGTH + 4, position - BATCH_HEADER_LENGTH - 4);
+            } else {
+                UDPTransformer.writeInt(buffer, 0, UDPTransformer.BATCH_MAGIC);
+                UDPTransformer.writeInt(buffer, 4, count);
+                neoChannel.sendByte(buffer, 0, position);
+            }
+            recordFrame(TrafficShaper.UPLOAD, count);
+        } finally {
+            count = 0;
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * 隧道结束时丢弃未发出的批次并归还缓冲区。
+     */
+    void close() {
+        count = 0;
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * @param direction {@link TrafficShaper#UPLOAD} 或 {@link TrafficShaper#DOWNLOAD}
+     */
+    static void recordFrame(int direction, int datagramCount) {
+        frames[direction].increment();
+        datagrams[direction].add(datagramCount);
+    }
+
+    public static long getFrameCount(int direction) {
+        return frames[direction].sum();
+    }
+
+    public static long getDatagramCount(int direction) {
+        return datagrams[direction].sum();
+    }
+
+    /**
+     * @return 本方向平均每帧携带的数据报数，未合并时为 1
+     */
+    public static double getDatagramsPerFrame(int direction) {
+        long frameCount = frames[direction].sum();
+        return frameCount == 0 ? 0 : (double) datagrams[direction].sum() / frameCount;
+    }
+
+    public static String describe() {
+        return String.format("upload %.2f, download %.2f datagrams/frame",
+                getDatagramsPerFrame(TrafficShaper.UPLOAD), getDatagramsPerFrame(TrafficShaper.DOWNLOAD));
+    }
+}
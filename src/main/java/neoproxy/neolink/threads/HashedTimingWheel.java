@@ -0,0 +1,144 @@
+package neoproxy.neolink.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 哈希时间轮：WHEEL_SIZE 个槽位各挂一条双向链表，任务按到期的刻度落入对应槽位，超过一圈的任务记录剩余圈数。
+ * 加入与取消都是 O(1)，每个刻度只扫描一个槽位，适合数万个只需秒级精度的超时任务。
+ * <p>
+ * 任务对象自身就是链表节点，重复调度同一个任务不产生分配。到期的任务在时间轮线程中执行，必须很快返回。
+ */
+public final class HashedTimingWheel {
+    private static final int WHEEL_SIZE = 512;
+
+    private final String name;
+    private final long tickNanos;
+    private final Task[] slots = new Task[WHEEL_SIZE];
+    private volatile long currentTick = 0;
+    private Thread ticker; // 首次调度时启动
+    private int size = 0;
+
+    public HashedTimingWheel(String name, long tickMillis) {
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    }
+
+    /**
+     * @return 时间轮启动以来经过的刻度数，只有一次 volatile 读，可以在逐包路径上调用
+     */
+    public long currentTick() {
+        return currentTick;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * 在 delayTicks 个刻度后执行任务；任务已在轮中时先取消原来的调度。
+     */
+    public synchronized void schedule(Task task, long delayTicks) {
+        if (task.wheel != null) unlink(task);
+        task.deadlineTick = currentTick + Math.max(1, delayTicks);
+        task.wheel = this;
+        int slot = (int) (task.deadlineTick & (WHEEL_SIZE - 1));
+        task.next = slots[slot];
+        if (task.next != null) task.next.previous = task;
+        slots[slot] = task;
+        size++;
+        if (ticker == null) {
+            ticker = new Thread(this::tickLoop, name);
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    /**
+     * @return false 表示任务不在轮中（已到期或从未调度）
+     */
+    public synchronized boolean cancel(Task task) {
+        if (task.wheel != this) return false;
+        unlink(task);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink(Task task) {
+        if (task.previous != null) {
+            task.previous.next = task.next;
+        } else {
+            slots[(int) (task.deadlineTick & (WHEEL_SIZE - 1))] = task.next;
+        }
+        if (task.next != null) task.next.previous = task.previous;
+        task.previous = task.next = null;
+        task.wheel = null;
+        size--;
+    }
+
+    /**
+     * 按启动时间对齐刻度，不随任务执行耗时漂移；落后时连续追赶。
+     */
+    private void tickLoop() {
+        long startedAt = System.nanoTime();
+        while (true) {
+            long tick = currentTick + 1;
+            long wait = startedAt + tick * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            Task expired = collectExpired(tick);
+            while (expired != null) {
+                Task next = expired.next;
+                expired.next = null;
+                try {
+                    expired.expire();
+                } catch (Exception e) {
+                    debugOperation(e);
+                }
+                expired = next;
+            }
+        }
+    }
+
+    /**
+     * 推进到 tick 并摘下本槽位中已到期的任务，以单链表返回，在锁外执行。
+     */
+    private synchronized Task collectExpired(long tick) {
+        currentTick = tick;
+        Task expired = null;
+        Task task = slots[(int) (tick & (WHEEL_SIZE - 1))];
+        while (task != null) {
+            Task next = task.next;
+            if (task.deadlineTick <= tick) {
+                unlink(task);
+                task.next = expired;
+                expired = task;
+            }
+            task = next;
+        }
+        return expired;
+    }
+
+    /**
+     * 时间轮中的任务，同一时刻只能位于一个时间轮的一个槽位。
+     */
+    public abstract static class Task {
+        // 由所属时间轮的锁保护
+        private HashedTimingWheel wheel;
+        private Task previous;
+        private Task next;
+        private long deadlineTick;
+
+        /**
+         * 在时间轮线程中执行，可以重新调度自身。
+         */
+        protected abstract void expire();
+    }
+}
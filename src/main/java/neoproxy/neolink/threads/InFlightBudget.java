@@ -0,0 +1,185 @@
+package neoproxy.neolink.threads;
+
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全进程共享的在途字节预算：已经读入内存、尚未写到对端的数据都要先从这里申请额度，写完后归还。
+ * 额度用完时读取方等待而不是继续分配内存，因此连接再多也不会因为缓冲数据导致 OutOfMemoryError。
+ * <p>
+ * 使用量超过 MAX_BYTES 的四分之三后，只有吞吐不高于平均值的连接还能继续申请，
+ * 最快的连接最先暂停读取，慢连接和交互式连接不会被大流量饿死；达到 MAX_BYTES 时所有连接都要等待。
+ * 已经没有任何在途数据时总会放行，保证单次超过预算的申请也能推进。MAX_BYTES 为 0 时关闭。
+ * <p>
+ * 低于四分之三时申请与归还都只是一次 CAS，不加锁；只有接近用满时才进入锁并等待，
+ * 归还方只在确实有等待者时才加锁唤醒。
+ */
+public final class InFlightBudget {
+    public static long MAX_BYTES = 128L * 1024 * 1024;
+    private static final double SOFT_LIMIT_RATIO = 0.75;
+    // 吞吐 EWMA 的时间常数
+    private static final double RATE_DECAY_NANOS = 1_000_000_000.0;
+    // 慢路径中平均吞吐的重算间隔，避免每次唤醒都遍历所有 Flow
+    private static final long AVERAGE_REFRESH_NANOS = 1_000_000;
+
+    private static final AtomicLong usedBytes = new AtomicLong();
+    private static final Set<Flow> flows = ConcurrentHashMap.newKeySet();
+    private static final LongAdder pauses = new LongAdder();
+
+    private static final Object lock = new Object();
+    private static volatile int waiters = 0; // 只在 lock 内修改
+    private static double averageRate = 0; // 受 lock 保护
+    private static long averageComputedAt = 0; // 受 lock 保护
+
+    private InFlightBudget() {
+    }
+
+    public static boolean isEnabled() {
+        return MAX_BYTES > 0;
+    }
+
+    /**
+     * 为一条连接的一个读取方向登记一个 Flow，连接结束时必须调用 {@link Flow#close()}。
+     */
+    public static Flow register() {
+        Flow flow = new Flow();
+        flows.add(flow);
+        return flow;
+    }
+
+    /**
+     * 为读入的数据申请额度，额度不足时阻塞。同一个 Flow 只能由一个线程申请。
+     */
+    public static void acquire(Flow flow, int bytes) throws InterruptedIOException {
+        if (!isEnabled()) return;
+        flow.recordBytes(bytes);
+        if (tryAcquireBelowSoftLimit(bytes)) return;
+        synchronized (lock) {
+            waiters++;
+            try {
+                boolean paused = false;
+                while (!tryAcquireNearLimit(flow, bytes)) {
+                    if (!paused) {
+                        paused = true;
+                        pauses.increment();
+                    }
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for in-flight budget");
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * 不等待地记入额度，用于不能阻塞的线程（如多路复用会话的读线程，其占用已受流控窗口约束）。
+     */
+    public static void forceAcquire(int bytes) {
+        if (!isEnabled()) return;
+        usedBytes.addAndGet(bytes);
+    }
+
+    public static void release(int bytes) {
+        if (!isEnabled() || bytes <= 0) return;
+        usedBytes.updateAndGet(used -> Math.max(0, used - bytes));
+        // 等待者先登记再检查额度，这里先归还再读登记数，两边至少有一方能看到对方的修改
+        if (waiters > 0) wakeWaiters();
+    }
+
+    private static void wakeWaiters() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private static boolean tryAcquireBelowSoftLimit(int bytes) {
+        long softLimit = (long) (MAX_BYTES * SOFT_LIMIT_RATIO);
+        while (true) {
+            long used = usedBytes.get();
+            if (used != 0 && used + bytes > softLimit) return false;
+            if (usedBytes.compareAndSet(used, used + bytes)) return true;
+        }
+    }
+
+    // 调用方持有 lock
+    private static boolean tryAcquireNearLimit(Flow flow, int bytes) {
+        while (true) {
+            if (tryAcquireBelowSoftLimit(bytes)) return true;
+            long used = usedBytes.get();
+            if (used + bytes > MAX_BYTES) return false;
+            if (flow.rateAt(System.nanoTime()) > averageRate()) return false;
+            if (usedBytes.compareAndSet(used, used + bytes)) return true;
+        }
+    }
+
+    // 调用方持有 lock
+    private static double averageRate() {
+        long now = System.nanoTime();
+        if (now - averageComputedAt >= AVERAGE_REFRESH_NANOS) {
+            double sum = 0;
+            int count = 0;
+            for (Flow flow : flows) {
+                sum += flow.rateAt(now);
+                count++;
+            }
+            averageRate = count == 0 ? Double.MAX_VALUE : sum / count;
+            averageComputedAt = now;
+        }
+        return averageRate;
+    }
+
+    public static long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public static double getUtilisation() {
+        return isEnabled() ? (double) getUsedBytes() / MAX_BYTES : 0;
+    }
+
+    public static long getPauseCount() {
+        return pauses.sum();
+    }
+
+    public static String describe() {
+        if (!isEnabled()) return "disabled";
+        return "used=" + getUsedBytes() / 1024 + "KB (" + String.format("%.1f%%", getUtilisation() * 100) + "), pauses=" + getPauseCount();
+    }
+
+    /**
+     * 一条连接在一个方向上的吞吐统计，用于判断谁是最快的连接。
+     * 只由申请额度的线程更新，慢路径中其他线程读取时允许看到稍旧的值。
+     */
+    public static final class Flow implements AutoCloseable {
+        private volatile double rate = 0; // 字节/秒
+        private volatile long lastUpdate = System.nanoTime();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Flow() {
+        }
+
+        private void recordBytes(int bytes) {
+            long now = System.nanoTime();
+            rate = rateAt(now) + bytes * (1_000_000_000.0 / RATE_DECAY_NANOS);
+            lastUpdate = now;
+        }
+
+        private double rateAt(long now) {
+            return rate * Math.exp(-(now - lastUpdate) / RATE_DECAY_NANOS);
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            flows.remove(this);
+            // 平均吞吐变化可能让等待者获得放行
+            if (waiters > 0) wakeWaiters();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package neoproxy.neolink.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的对数-线性直方图，单位为微秒。每个 2 的幂区间再均分为 16 个子桶，
+ * 相对误差不超过 1/16，记录一次只是一次数组下标计算加一次原子自增，可以放在建连路径上常开。
+ * 可记录的最大值约 2^41 微秒（约 25 天），更大的值计入最后一个桶。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(MAX_VALUE, micros));
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) current = max.get();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return 记录值不超过 micros 的样本数，按桶上界判断，与 {@link #getPercentile(double)} 的精度相同
+     */
+    public long getCountAtOrBelow(long micros) {
+        long total = 0;
+        for (int i = 0; i < buckets.length() && upperBoundOf(i) <= micros; i++) total += buckets.get(i);
+        return total;
+    }
+
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * @param quantile 0 到 1 之间，如 0.99
+     * @return 该分位数所在桶的上界（不超过已记录的最大值），没有样本时为 0
+     */
+    public long getPercentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) total += buckets.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * @return 如 "n=120, p50=1.2ms, p99=8.4ms, p999=15.0ms, max=15.3ms"
+     */
+    public String describe() {
+        return "n=" + getCount()
+                + ", p50=" + formatMillis(getPercentile(0.50))
+                + ", p99=" + formatMillis(getPercentile(0.99))
+                + ", p999=" + formatMillis(getPercentile(0.999))
+                + ", max=" + formatMillis(getMax());
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,159 @@
+package neoproxy.neolink.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 以 long 为键的开放寻址哈希表：键不装箱，get 不产生任何分配，用于逐帧、逐包的会话查找。
+ * 线性探测，删除时把后续元素回移填补空洞，不留墓碑，长期增删后查找长度不会退化。
+ * <p>
+ * 非线程安全，并发访问由调用方加锁。值不能为 null（null 槽位表示空）。
+ */
+public final class LongObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expectedSize 预计的元素数量，装载因子保持在 0.5 以下
+     */
+    public LongObjectMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) return null;
+            if (keys[i] == key) return (V) value;
+        }
+    }
+
+    /**
+     * @return 被替换的旧值，不存在时为 null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Objects.requireNonNull(value, "value");
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) rehash(keys.length << 1);
+        return null;
+    }
+
+    /**
+     * @return 被删除的值，不存在时为 null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                deleteAt(i);
+                return old;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 仅当键当前映射到同一个对象时删除，避免误删已被新会话替换的条目。
+     */
+    public boolean remove(long key, V value) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (values[i] != value) return false;
+                deleteAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteAt(int hole) {
+        size--;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            Object value = values[i];
+            if (value == null) break;
+            int home = slot(keys[i]);
+            // 空洞位于该元素从理想位置到当前位置的探测路径上时，才能回移
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = value;
+                hole = i;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            while (values[j] != null) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 当前所有值的快照，遍历期间可以安全地修改本表
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> snapshot = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) snapshot.add((V) value);
+        }
+        return snapshot;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+}
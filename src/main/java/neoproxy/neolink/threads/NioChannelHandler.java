@@ -0,0 +1,18 @@
+package neoproxy.neolink.threads;
+
+import java.io.IOException;
+
+/**
+ * 注册在 {@link NioEventLoop} 上的通道处理器（SelectionKey 的附件），回调均在循环线程中执行。
+ */
+abstract class NioChannelHandler {
+
+    abstract void onReadable() throws IOException;
+
+    abstract void onWritable() throws IOException;
+
+    /**
+     * 释放通道与关联的传输通道，可以在任意线程中重复调用。
+     */
+    abstract void close();
+}
@@ -0,0 +1,171 @@
+package neoproxy.neolink.threads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 单线程事件循环：一个 Selector 负责多条隧道（TCP 连接与 UDP 会话）的本地侧非阻塞读写。
+ * 所有对 SelectionKey 的修改都必须在本循环线程中执行，其他线程通过 {@link #execute(Runnable)} 投递任务。
+ */
+public final class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    // 定时任务，仅由循环线程访问
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // UDP 会话共享的接收缓冲区，数组从 BufferPool 租用，负载前预留帧头空间以便就地封帧；首次有 UDP 会话时才租用，
+    // 大数据报连同数组一起被会话取走后下次再租
+    private ByteBuffer datagramBuffer;
+
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * 只能在循环线程中调用。
+     */
+    ByteBuffer datagramBuffer() {
+        if (datagramBuffer == null) {
+            // 取最大分级以便回收；扣除帧头后仍能容纳 IPv6 下最大的 65527 字节 UDP 负载
+            datagramBuffer = ByteBuffer.wrap(BufferPool.acquire(BufferPool.MAX_BUFFER_SIZE));
+        }
+        return datagramBuffer;
+    }
+
+    /**
+     * 取走当前接收缓冲区的数组，其所有权连同归还责任一起交给调用方。只能在循环线程中调用。
+     */
+    byte[] takeDatagramArray() {
+        byte[] array = datagramBuffer().array();
+        datagramBuffer = null;
+        return array;
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在事件循环线程中执行任务；如果当前已在循环线程中则直接执行。
+     */
+    void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        taskQueue.offer(task);
+        if (wakenUp.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /**
+     * 在 delayNanos 之后于循环线程中执行任务，只能在循环线程中调用（如限速后恢复读取）。
+     */
+    void schedule(Runnable task, long delayNanos) {
+        scheduledTasks.offer(new ScheduledTask(System.nanoTime() + delayNanos, task));
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                ScheduledTask next = scheduledTasks.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long delayNanos = next.deadline - System.nanoTime();
+                    if (delayNanos > 0) selector.select(Math.max(1, (delayNanos + 999_999) / 1_000_000));
+                    else selector.selectNow();
+                }
+                wakenUp.set(false);
+                processSelectedKeys();
+                runAllTasks();
+                runScheduledTasks();
+            } catch (Exception e) {
+                debugOperation(e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioChannelHandler handler) handler.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            debugOperation(e);
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioChannelHandler handler = (NioChannelHandler) key.attachment();
+            if (!key.isValid()) {
+                handler.close();
+                continue;
+            }
+            try {
+                if (key.isWritable()) handler.onWritable();
+                if (key.isValid() && key.isReadable()) handler.onReadable();
+            } catch (Exception e) {
+                debugOperation(e);
+                handler.close();
+            }
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline - now <= 0) {
+            scheduledTasks.poll();
+            try {
+                next.task.run();
+            } catch (Exception e) {
+                debugOperation(e);
+            }
+        }
+    }
+
+    private void runAllTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                debugOperation(e);
+            }
+        }
+    }
+
+    private record ScheduledTask(long deadline, Runnable task) implements Comparable<ScheduledTask> {
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package neoproxy.neolink.threads;
+
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.TransferChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+import static neoproxy.neolink.InternetOperator.shutdownInput;
+import static neoproxy.neolink.InternetOperator.shutdownOutput;
+
+/**
+ * 事件循环模式下的一条 TCP 隧道。
+ * 本地侧 (SocketChannel) 完全由 {@link NioEventLoop} 非阻塞驱动；
+ * Neo 侧的传输通道只提供阻塞式的帧接口，因此 Neo -> Local 方向仍由一个读取任务负责解密，
+ * 解密后的数据交给事件循环异步写入本地，读取任务在待写数据超过高水位时暂停；
+ * Local -> Neo 方向读到的数据交给 {@link UploadWriter} 发送，发送完成前暂停本地读取。
+ */
+public final class NioTCPConnection extends NioChannelHandler implements Runnable {
+    // 待写入本地的数据超过高水位时，Neo 读取任务暂停，直到降到低水位以下
+    private static final int HIGH_WATER_MARK = 256 * 1024;
+    private static final int LOW_WATER_MARK = 64 * 1024;
+
+    private final NioEventLoop eventLoop;
+    private final SocketChannel localChannel;
+    private final TransferChannel neoChannel;
+    private final boolean enableProxyProtocol;
+    private final TrafficShaper shaper; // 未启用限速时为 null
+    private final SetupTrace trace;
+    private final NioTransferEngine.CloseListener onClose;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final UploadWriter uploader = new UploadWriter(this::close);
+    // 只由事件循环线程累加，close 可能在 Neo 读取任务中执行，因此用 volatile 保证可见
+    private volatile long uploadedBytes = 0;
+    private volatile long downloadedBytes = 0;
+
+    // 仅由事件循环线程访问
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private final AdaptiveReadSizer readSizer = new AdaptiveReadSizer();
+    private SelectionKey selectionKey;
+    private boolean localInputDone = false;
+    private boolean neoInputDone = false;
+
+    // 由 Neo 读取任务与事件循环共同访问
+    private final Object writeLock = new Object();
+    private long pendingBytes = 0;
+    private final InFlightBudget.Flow neoFlow = InFlightBudget.register();
+
+    NioTCPConnection(NioEventLoop eventLoop, SocketChannel localChannel, TransferChannel neoChannel,
+                     boolean enableProxyProtocol, TrafficShaper shaper, SetupTrace trace, NioTransferEngine.CloseListener onClose) {
+        this.eventLoop = eventLoop;
+        this.localChannel = localChannel;
+        this.neoChannel = neoChannel;
+        this.enableProxyProtocol = enableProxyProtocol;
+        this.shaper = shaper;
+        this.trace = trace;
+        this.onClose = onClose;
+    }
+
+    /**
+     * 在事件循环线程中注册本地通道。
+     */
+    void register() {
+        eventLoop.execute(() -> {
+            try {
+                localChannel.configureBlocking(false);
+                selectionKey = localChannel.register(eventLoop.selector(), SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                debugOperation(e);
+                close();
+            }
+        });
+    }
+
+    /**
+     * 本地可读 (Local -> Neo)：读入从 {@link BufferPool} 租用的数组后交给写出器加密发送，
+     * 发送完成前不再关注 OP_READ，循环线程从不阻塞在 Neo 侧。
+     */
+    @Override
+    void onReadable() throws IOException {
+        int size = Math.min(readSizer.nextSize(), TCPTransformer.BUFFER_LENGTH);
+        // 数据前留出通道帧头的空间，压缩层等可以就地写帧头；租用大小仍按分级对齐
+        int headroom = neoChannel.headroom();
+        byte[] chunk = BufferPool.acquire(size);
+        int bytesRead;
+        try {
+            bytesRead = localChannel.read(ByteBuffer.wrap(chunk, headroom, size - headroom));
+        } catch (IOException e) {
+            BufferPool.release(chunk);
+            throw e;
+        }
+        if (bytesRead > 0) {
+            readSizer.record(headroom + bytesRead);
+            TunnelMetrics.addUploadBytes(bytesRead);
+            uploadedBytes += bytesRead;
+            long wait = shaper != null ? shaper.take(TrafficShaper.UPLOAD, bytesRead) : 0;
+            suspendReading();
+            uploader.submit(() -> {
+                try {
+                    neoChannel.sendByte(chunk, headroom, bytesRead);
+                } finally {
+                    BufferPool.release(chunk);
+                }
+                trace.firstByte(SetupTrace.Stage.FIRST_BYTE_UPLOAD);
+                eventLoop.execute(() -> resumeReading(wait));
+            });
+        } else {
+            BufferPool.release(chunk);
+            if (bytesRead == -1) {
+                localInputDone = true;
+                suspendReading();
+                uploader.submit(() -> {
+                    neoChannel.sendByte(null); // 发送结束信号
+                    eventLoop.execute(this::closeIfFinished);
+                });
+            }
+        }
+    }
+
+    /**
+     * 本地可写：继续写出 Neo 侧积压的数据。
+     */
+    @Override
+    void onWritable() throws IOException {
+        flushPendingWrites();
+    }
+
+    private void suspendReading() {
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * 上一块数据发出后恢复读取；限速欠账期间改由事件循环定时任务到期后恢复，循环线程本身从不睡眠。
+     * 只能在循环线程中调用。
+     */
+    private void resumeReading(long waitNanos) {
+        if (waitNanos > 0) {
+            eventLoop.schedule(() -> resumeReading(0), waitNanos);
+        } else if (!closed.get() && selectionKey.isValid()) {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Neo -> Local：阻塞读取解密后的帧，交给事件循环写入本地。
+     */
+    @Override
+    public void run() {
+        try {
+            ReceivedFrame frame = new ReceivedFrame();
+            boolean isFirstPacket = true;
+            while (neoChannel.receive(frame)) {
+                if (frame.length() == 0) continue;
+                if (isFirstPacket) {
+                    isFirstPacket = false;
+                    if (!enableProxyProtocol && TCPTransformer.isProxyProtocolV2Signature(frame.array(), frame.offset(), frame.length())) {
+                        continue;
+                    }
+                }
+                // 写入在事件循环上异步完成，只有通道不会复用的数组才能直接引用
+                enqueueWrite(frame.isOwned()
+                        ? ByteBuffer.wrap(frame.array(), frame.offset(), frame.length())
+                        : ByteBuffer.wrap(Arrays.copyOfRange(frame.array(), frame.offset(), frame.offset() + frame.length())));
+                if (shaper != null) shaper.pace(TrafficShaper.DOWNLOAD, frame.length());
+            }
+            eventLoop.execute(() -> {
+                neoInputDone = true;
+                shutdownInput(neoChannel);
+                if (pendingWrites.isEmpty()) shutdownOutput(localChannel.socket());
+                closeIfFinished();
+            });
+        } catch (Exception e) {
+            debugOperation(e);
+            close();
+        }
+    }
+
+    private void enqueueWrite(ByteBuffer data) throws InterruptedException, IOException {
+        // 单条连接由高低水位约束，全进程由在途预算约束，两者都会让读取任务暂停
+        InFlightBudget.acquire(neoFlow, data.remaining());
+        synchronized (writeLock) {
+            while (pendingBytes >= HIGH_WATER_MARK && !closed.get()) writeLock.wait();
+            if (closed.get()) {
+                InFlightBudget.release(data.remaining());
+                throw new ClosedChannelException();
+            }
+            pendingBytes += data.remaining();
+        }
+        eventLoop.execute(() -> {
+            if (closed.get()) return;
+            pendingWrites.offer(data);
+            try {
+                flushPendingWrites();
+            } catch (IOException e) {
+                debugOperation(e);
+                close();
+            }
+        });
+    }
+
+    private void flushPendingWrites() throws IOException {
+        long written = 0;
+        ByteBuffer head;
+        while ((head = pendingWrites.peek()) != null) {
+            written += localChannel.write(head);
+            if (head.hasRemaining()) break;
+            pendingWrites.poll();
+        }
+        if (selectionKey != null && selectionKey.isValid()) {
+            int ops = selectionKey.interestOps();
+            selectionKey.interestOps(pendingWrites.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+        }
+        if (written > 0) {
+            trace.firstByte(SetupTrace.Stage.FIRST_BYTE_DOWNLOAD);
+            TunnelMetrics.addDownloadBytes(written);
+            downloadedBytes += written;
+            long released;
+            synchronized (writeLock) {
+                released = Math.min(written, pendingBytes);
+                pendingBytes -= released;
+                if (pendingBytes < LOW_WATER_MARK) writeLock.notifyAll();
+            }
+            InFlightBudget.release((int) released);
+        }
+        if (pendingWrites.isEmpty() && neoInputDone) {
+            shutdownOutput(localChannel.socket());
+            closeIfFinished();
+        }
+    }
+
+    /**
+     * 与线程模式保持一致：任意一个方向结束即关闭整条隧道，Neo 方向需先写完积压数据。
+     */
+    private void closeIfFinished() {
+        if (localInputDone || (neoInputDone && pendingWrites.isEmpty())) close();
+    }
+
+    @Override
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        long unwritten;
+        synchronized (writeLock) {
+            unwritten = pendingBytes;
+            pendingBytes = 0;
+            writeLock.notifyAll();
+        }
+        InFlightBudget.release((int) unwritten);
+        neoFlow.close();
+        if (shaper != null) shaper.close();
+        eventLoop.execute(() -> {
+            if (selectionKey != null) selectionKey.cancel();
+            pendingWrites.clear();
+        });
+        InternetOperator.close(localChannel, neoChannel);
+        if (onClose != null) onClose.onClose(uploadedBytes, downloadedBytes);
+    }
+}
@@ -0,0 +1,194 @@
+package neoproxy.neolink.threads;
+
+import neoproxy.neolink.channel.TransferChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 基于非阻塞 Socket 的转发引擎，与 {@link TCPTransformer} 的“每方向一线程”模式二选一。
+ * 少量固定的 {@link NioEventLoop} 共同承载所有隧道的本地侧读写，TCP 连接与 UDP 会话共用同一组循环。
+ * <p>
+ * UDP 会话登记在以会话 ID 为键的 {@link LongObjectMap} 中：服务端为同一会话 ID 重发 sendSocketUDP 时替换旧会话，
+ * Hook 断开时统一关闭，不必等各自的传输通道超时。
+ */
+public final class NioTransferEngine {
+    public static final String ENGINE_THREAD = "thread";
+    public static final String ENGINE_NIO = "nio";
+    public static int EVENT_LOOP_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger nextLoopIndex = new AtomicInteger(0);
+    private static volatile NioEventLoop[] eventLoops;
+    // 会话 ID 不是数字时分配的内部键，从最小值开始递增，不会与服务端下发的 ID 冲突
+    private static final AtomicLong nextSyntheticKey = new AtomicLong(Long.MIN_VALUE);
+    private static final LongObjectMap<NioUDPSession> udpSessions = new LongObjectMap<>(); // 受自身锁保护
+
+    private NioTransferEngine() {
+    }
+
+    private static NioEventLoop[] getEventLoops() throws IOException {
+        if (eventLoops == null) {
+            synchronized (NioTransferEngine.class) {
+                if (eventLoops == null) {
+                    NioEventLoop[] loops = new NioEventLoop[EVENT_LOOP_COUNT];
+                    for (int i = 0; i < loops.length; i++) {
+                        loops[i] = new NioEventLoop("NeoLink-NioEventLoop-" + i);
+                    }
+                    eventLoops = loops;
+                    debugOperation("NIO transfer engine started with " + loops.length + " event loops.");
+                }
+            }
+        }
+        return eventLoops;
+    }
+
+    /**
+     * 将一条已建立的隧道交给事件循环接管。
+     *
+     * @param localChannel        已连接的本地通道（阻塞模式，内部会切换为非阻塞）
+     * @param neoChannel          已发送过 "TCP;id" 的传输通道
+     * @param enableProxyProtocol 是否允许透传 Proxy Protocol 头
+     * @param shaper              限速器，抛出异常时已关闭，调用方只需关闭两端
+     * @param trace               建连计时，两个方向转发出第一个字节时各记录一次
+     * @param onClose             隧道关闭时回调，带两个方向的字节数，只会执行一次；可能在本方法返回前执行
+     */
+    public static void register(SocketChannel localChannel, TransferChannel neoChannel,
+                                boolean enableProxyProtocol, TrafficShaper shaper, SetupTrace trace, CloseListener onClose) throws IOException {
+        // Neo -> Local 的读取任务常驻一个转发线程，先准入再接管，被拒绝时由调用方关闭两端
+        if (!TunnelExecutor.reserveTransfer(1)) {
+            if (shaper != null) shaper.close();
+            throw new IOException("No transfer thread available for the Neo reader");
+        }
+        NioTCPConnection connection;
+        try {
+            connection = new NioTCPConnection(nextEventLoop(), localChannel, neoChannel, enableProxyProtocol, shaper, trace, onClose);
+        } catch (IOException | RuntimeException e) {
+            TunnelExecutor.cancelReservation(1);
+            if (shaper != null) shaper.close();
+            throw e;
+        }
+        connection.register();
+        TunnelExecutor.executeReserved(connection);
+    }
+
+    private static NioEventLoop nextEventLoop() throws IOException {
+        NioEventLoop[] loops = getEventLoops();
+        return loops[Math.floorMod(nextLoopIndex.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * 打开一个连接到本地服务的非阻塞 DatagramChannel，与阻塞模式一样只绑定 IPv4 的 0.0.0.0。
+     */
+    public static DatagramChannel openUdpChannel(InetSocketAddress localTarget) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.bind(new InetSocketAddress("0.0.0.0", 0));
+            channel.connect(localTarget);
+            channel.configureBlocking(false);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 将一个 UDP 会话交给事件循环接管。
+     *
+     * @param socketID     服务端在 sendSocketUDP 中下发的会话 ID
+     * @param localChannel {@link #openUdpChannel} 打开的本地通道
+     * @param neoChannel   已发送过 "UDP;id" 的传输通道，支持推送时不再占用读取线程
+     * @param batcher      Local -> Neo 方向的数据报合并，未协商时为 null
+     * @param onClose      会话关闭时回调，带两个方向的负载字节数，只会执行一次
+     */
+    public static void registerUdp(String socketID, DatagramChannel localChannel, TransferChannel neoChannel,
+                                   TrafficShaper shaper, DatagramBatcher batcher, CloseListener onClose) throws IOException {
+        // 通道不支持推送时需要一个常驻的读取任务；是否支持要到 pushFramesTo 时才知道，因此先预留，推送成功后归还
+        if (!TunnelExecutor.reserveTransfer(1)) {
+            if (shaper != null) shaper.close();
+            throw new IOException("No transfer thread available for the Neo reader");
+        }
+        NioUDPSession session;
+        try {
+            session = new NioUDPSession(sessionKey(socketID), nextEventLoop(), localChannel, neoChannel, shaper, batcher, onClose);
+        } catch (IOException | RuntimeException e) {
+            TunnelExecutor.cancelReservation(1);
+            if (shaper != null) shaper.close();
+            throw e;
+        }
+        NioUDPSession replaced;
+        synchronized (udpSessions) {
+            replaced = udpSessions.put(session.sessionKey, session);
+        }
+        if (replaced != null) {
+            debugOperation("UDP session " + socketID + " re-requested by server, closing the previous one.");
+            replaced.close();
+        }
+        session.register();
+        if (neoChannel.pushFramesTo(session)) {
+            TunnelExecutor.cancelReservation(1);
+        } else {
+            TunnelExecutor.executeReserved(session);
+        }
+    }
+
+    private static long sessionKey(String socketID) {
+        try {
+            return Long.parseLong(socketID);
+        } catch (NumberFormatException e) {
+            return nextSyntheticKey.getAndIncrement();
+        }
+    }
+
+    static void udpSessionClosed(NioUDPSession session) {
+        synchronized (udpSessions) {
+            udpSessions.remove(session.sessionKey, session);
+        }
+    }
+
+    public static int getUdpSessionCount() {
+        synchronized (udpSessions) {
+            return udpSessions.size();
+        }
+    }
+
+    /**
+     * 关闭所有 UDP 会话，在 Hook 连接断开时调用。
+     */
+    public static void closeUdpSessions() {
+        List<NioUDPSession> sessions;
+        synchronized (udpSessions) {
+            sessions = udpSessions.values();
+        }
+        for (NioUDPSession session : sessions) session.close();
+    }
+
+    public static void shutdown() {
+        synchronized (NioTransferEngine.class) {
+            if (eventLoops != null) {
+                for (NioEventLoop loop : eventLoops) loop.shutdown();
+                eventLoops = null;
+            }
+        }
+    }
+
+    /**
+     * 隧道关闭时的回调，只会执行一次。
+     */
+    @FunctionalInterface
+    public interface CloseListener {
+        /**
+         * @param uploadedBytes   本地 -> Neo 方向转发的字节数
+         * @param downloadedBytes Neo -> 本地 方向写入本地的字节数
+         */
+        void onClose(long uploadedBytes, long downloadedBytes);
+    }
+}
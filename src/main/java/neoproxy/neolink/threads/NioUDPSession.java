@@ -0,0 +1,306 @@
+package neoproxy.neolink.threads;
+
+import neoproxy.neolink.InternetOperator;
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.TransferChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 事件循环模式下的一个 UDP 会话，对应服务端的一次 sendSocketUDP。
+ * <ul>
+ *     <li>Local -> Neo：本地 DatagramChannel 由 {@link NioEventLoop} 非阻塞读取，在循环共享的缓冲区中就地封帧，
+ *     再交给 {@link UploadWriter} 发送，发送完成前暂停本地读取；大数据报连同接收数组一起交出，不拷贝</li>
+ *     <li>Neo -> Local：传输通道支持推送（多路复用流）时由其读线程直接回调，否则由一个读取任务阻塞接收；
+ *     两种方式都以非阻塞方式写出数据报，本地发送缓冲区已满时直接丢弃</li>
+ * </ul>
+ * 多路复用下一个会话不再占用任何专属线程。协商了数据报合并时，一次可读事件中收到的数据报合并成一帧发送。
+ * 两个方向都没有数据报超过空闲超时时，由 {@link UdpIdleTimeout} 关闭会话。
+ */
+final class NioUDPSession extends NioChannelHandler implements Runnable, TransferChannel.FrameListener {
+    // 每次可读事件最多处理的数据报数，避免单个会话长期占用循环线程
+    private static final int MAX_DATAGRAMS_PER_READ = 64;
+    // 不超过该长度的帧复制到按大小租用的数组，更大的帧直接取走 64KB 的接收数组
+    static int COPY_BREAK = 16 * 1024;
+
+    final long sessionKey;
+    private final NioEventLoop eventLoop;
+    private final DatagramChannel localChannel;
+    private final TransferChannel neoChannel;
+    private final TrafficShaper shaper; // 未启用限速时为 null
+    private final NioTransferEngine.CloseListener onClose;
+    private final DatagramBatcher batcher; // 未协商数据报合并时为 null，仅由写出器访问
+    private final UdpIdleTimeout idleTimeout; // 未启用空闲回收时为 null
+    private final UDPTransformer.DatagramHandler pushedToLocal = (frame, offset, length) -> sendToLocal(frame, offset, length, false);
+    private final UDPTransformer.DatagramHandler pulledToLocal = (frame, offset, length) -> sendToLocal(frame, offset, length, true);
+    private final byte[] localIpBytes;
+    private final int localPort;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final UploadWriter uploader = new UploadWriter(this::close);
+    // 两个方向分别由循环线程与 Neo 读取方累加，close 可能在任一线程执行，因此用 volatile 保证可见
+    private volatile long uploadedBytes = 0;
+    private volatile long downloadedBytes = 0;
+    // 仅由事件循环线程访问
+    private SelectionKey selectionKey;
+    private boolean flushScheduled = false;
+
+    NioUDPSession(long sessionKey, NioEventLoop eventLoop, DatagramChannel localChannel, TransferChannel neoChannel,
+                  TrafficShaper shaper, DatagramBatcher batcher, NioTransferEngine.CloseListener onClose) throws IOException {
+        this.sessionKey = sessionKey;
+        this.eventLoop = eventLoop;
+        this.localChannel = localChannel;
+        this.neoChannel = neoChannel;
+        this.shaper = shaper;
+        this.batcher = batcher;
+        this.onClose = onClose;
+        // 通道已连接到本地服务，来源地址固定，帧头中的地址只需计算一次
+        InetSocketAddress target = (InetSocketAddress) localChannel.getRemoteAddress();
+        this.localIpBytes = target.getAddress().getAddress();
+        this.localPort = target.getPort();
+        this.idleTimeout = UdpIdleTimeout.track(localPort, "#" + sessionKey, this::close);
+    }
+
+    /**
+     * 在事件循环线程中注册本地通道。
+     */
+    void register() {
+        eventLoop.execute(() -> {
+            if (closed.get()) return;
+            try {
+                selectionKey = localChannel.register(eventLoop.selector(), SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                debugOperation(e);
+                close();
+            }
+        });
+    }
+
+    /**
+     * 本地可读 (Local -> Neo)：接收到负载之前预留的帧头空间中就地写入帧头，本轮收到的帧交给写出器发送（或加入合并批次），
+     * 发送完成前不再关注 OP_READ，循环线程从不阻塞在 Neo 侧。
+     * <p>
+     * 接收缓冲区会被下一次读取覆盖：超过 COPY_BREAK 的帧连同整个数组交给写出器，循环再租一个新数组，负载不拷贝；
+     * 较小的帧复制到按大小租用的数组，在途内存与数据量成正比，而不是每个数据报占用 64KB。
+     */
+    @Override
+    void onReadable() throws IOException {
+        int headroom = neoChannel.headroom();
+        Outbox outbox = null;
+        long wait = 0;
+        for (int i = 0; i < MAX_DATAGRAMS_PER_READ && !closed.get(); i++) {
+            ByteBuffer buffer = eventLoop.datagramBuffer();
+            byte[] array = buffer.array();
+            buffer.clear().position(UDPTransformer.MAX_HEADER_LENGTH);
+            try {
+                if (localChannel.receive(buffer) == null) break;
+            } catch (PortUnreachableException e) {
+                // 本地服务尚未监听时对端回复的 ICMP，与阻塞模式下未连接的 DatagramSocket 一样忽略
+                continue;
+            }
+            int length = buffer.position() - UDPTransformer.MAX_HEADER_LENGTH;
+            int start = UDPTransformer.writeHeaderBefore(array, UDPTransformer.MAX_HEADER_LENGTH, length, localIpBytes, localPort);
+            int frameLength = buffer.position() - start;
+            if (outbox == null) outbox = new Outbox();
+            if (headroom + frameLength <= COPY_BREAK) {
+                outbox.copy(array, start, frameLength, headroom);
+            } else {
+                outbox.add(eventLoop.takeDatagramArray(), start, frameLength);
+            }
+            if (idleTimeout != null) idleTimeout.touch();
+            TunnelMetrics.addUploadBytes(length);
+            uploadedBytes += length;
+            if (shaper != null) {
+                wait = shaper.take(TrafficShaper.UPLOAD, length);
+                if (wait > 0) break;
+            }
+        }
+        if (outbox == null) return;
+        Outbox frames = outbox;
+        long resumeAfter = wait;
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        uploader.submit(() -> {
+            upload(frames);
+            eventLoop.execute(() -> resumeReading(resumeAfter));
+        });
+    }
+
+    /**
+     * 在写出器中执行。合并时本轮的数据报读完后发出批次；配置了合并等待时间时改为到期后再发出，期间到达的数据报继续加入。
+     */
+    private void upload(Outbox outbox) throws IOException {
+        try {
+            if (closed.get()) return; // 批次可能已归还
+            for (int i = 0; i < outbox.count; i++) {
+                if (batcher != null) {
+                    batcher.add(outbox.frames[i], outbox.offsets[i], outbox.lengths[i]);
+                } else {
+                    neoChannel.sendByte(outbox.frames[i], outbox.offsets[i], outbox.lengths[i]);
+                    DatagramBatcher.recordFrame(TrafficShaper.UPLOAD, 1);
+                }
+            }
+        } finally {
+            outbox.release();
+        }
+        if (batcher == null || batcher.isEmpty()) return;
+        long delayNanos = batcher.getDeadline() - System.nanoTime();
+        if (delayNanos <= 0) {
+            batcher.flush();
+        } else {
+            eventLoop.execute(() -> scheduleFlush(delayNanos));
+        }
+    }
+
+    /**
+     * 只能在循环线程中调用，到期后批次仍由写出器发出。
+     */
+    private void scheduleFlush(long delayNanos) {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        eventLoop.schedule(() -> {
+            flushScheduled = false;
+            if (!closed.get()) uploader.submit(batcher::flush);
+        }, delayNanos);
+    }
+
+    @Override
+    void onWritable() {
+        // 只关注 OP_READ，写不出的数据报直接丢弃
+    }
+
+    /**
+     * 本轮数据报发出后恢复读取；限速欠账期间改由事件循环定时任务到期后恢复，期间到达的数据报由内核缓冲或丢弃。
+     * 只能在循环线程中调用。
+     */
+    private void resumeReading(long waitNanos) {
+        if (waitNanos > 0) {
+            eventLoop.schedule(() -> resumeReading(0), waitNanos);
+        } else if (!closed.get() && selectionKey.isValid()) {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 推送模式：在多路复用读线程中执行，不能等待，超出限速的数据报直接丢弃，只有实际写出的数据报才扣除令牌。
+     */
+    @Override
+    public void onFrame(byte[] array, int offset, int length) {
+        deliver(array, offset, length, pushedToLocal);
+    }
+
+    @Override
+    public void onEnd() {
+        close();
+    }
+
+    /**
+     * 不支持推送的传输通道：阻塞接收帧后写出，限速时本任务等待。
+     */
+    @Override
+    public void run() {
+        try {
+            ReceivedFrame frame = new ReceivedFrame();
+            while (!closed.get() && neoChannel.receive(frame)) {
+                deliver(frame.array(), frame.offset(), frame.length(), pulledToLocal);
+            }
+        } catch (Exception e) {
+            debugOperation(e);
+        } finally {
+            close();
+        }
+    }
+
+    private void deliver(byte[] frame, int offset, int length, UDPTransformer.DatagramHandler handler) {
+        try {
+            DatagramBatcher.recordFrame(TrafficShaper.DOWNLOAD, UDPTransformer.unpack(frame, offset, length, handler));
+        } catch (IOException e) {
+            debugOperation(e);
+            close();
+        }
+    }
+
+    private void sendToLocal(byte[] frame, int offset, int length, boolean mayWait) {
+        int payload = UDPTransformer.payloadOffset(frame, offset, length);
+        if (payload < 0) {
+            debugOperation("Dropping malformed UDP frame of " + length + " bytes.");
+            return;
+        }
+        int dataLength = UDPTransformer.readInt(frame, offset + 4);
+        if (shaper != null) {
+            if (mayWait) {
+                shaper.pace(TrafficShaper.DOWNLOAD, dataLength);
+            } else if (!shaper.canTake(TrafficShaper.DOWNLOAD)) {
+                return;
+            }
+        }
+        try {
+            // 非阻塞写出，发送缓冲区已满时返回 0，与内核丢包等价
+            if (localChannel.write(ByteBuffer.wrap(frame, payload, dataLength)) == 0 && dataLength > 0) return;
+        } catch (PortUnreachableException e) {
+            return;
+        } catch (IOException e) {
+            debugOperation(e);
+            close();
+            return;
+        }
+        if (!mayWait && shaper != null) shaper.charge(TrafficShaper.DOWNLOAD, dataLength);
+        if (idleTimeout != null) idleTimeout.touch();
+        TunnelMetrics.addDownloadBytes(dataLength);
+        downloadedBytes += dataLength;
+    }
+
+    @Override
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (idleTimeout != null) idleTimeout.cancel();
+        if (shaper != null) shaper.close();
+        eventLoop.execute(() -> {
+            if (selectionKey != null) selectionKey.cancel();
+        });
+        // 批次只由写出器访问，排在在途的发送之后归还缓冲区
+        if (batcher != null) uploader.submit(batcher::close);
+        InternetOperator.close(localChannel, neoChannel);
+        NioTransferEngine.udpSessionClosed(this);
+        if (onClose != null) onClose.onClose(uploadedBytes, downloadedBytes);
+    }
+
+    /**
+     * 一次可读事件中收到的数据报帧，每个帧独占一个租用的数组，由写出器发送后归还。
+     */
+    private static final class Outbox {
+        private final byte[][] frames = new byte[MAX_DATAGRAMS_PER_READ][];
+        private final int[] offsets = new int[MAX_DATAGRAMS_PER_READ];
+        private final int[] lengths = new int[MAX_DATAGRAMS_PER_READ];
+        private int count;
+
+        /**
+         * 接管从事件循环取走的接收数组。
+         */
+        void add(byte[] array, int offset, int length) {
+            frames[count] = array;
+            offsets[count] = offset;
+            lengths[count++] = length;
+        }
+
+        /**
+         * 复制到新租用的数组，帧前留出 headroom 字节供传输通道就地写帧头。
+         */
+        void copy(byte[] frame, int offset, int length, int headroom) {
+            byte[] copy = BufferPool.acquire(headroom + length);
+            System.arraycopy(frame, offset, copy, headroom, length);
+            add(copy, headroom, length);
+        }
+
+        void release() {
+            for (int i = 0; i < count; i++) BufferPool.release(frames[i]);
+            count = 0;
+        }
+    }
+}
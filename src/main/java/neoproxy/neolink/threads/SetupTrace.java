@@ -0,0 +1,156 @@
+package neoproxy.neolink.threads;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 一条 TCP 隧道从收到 sendSocketTCP 指令到两个方向各自转发出第一个字节的分阶段计时。
+ * 每个阶段的耗时计入全进程共享的 {@link LatencyHistogram}，可随时通过 {@link #describe()} 查询，进程退出时输出一次。
+ * <ul>
+ *     <li>QUEUE：指令到达至建连任务开始执行（执行器排队）</li>
+ *     <li>LOCAL_CONNECT：本地后端的域名解析与连接（命中本地预热池时接近 0）</li>
+ *     <li>NEO_DIAL：到 Neo 服务器的传输连接拨号与握手（命中传输连接池时接近 0；多路复用时不单独记录）</li>
+ *     <li>NEO_HEADER：发送 "TCP;id" 会话头（多路复用时为打开流，包含共享会话的建立）</li>
+ *     <li>READY：指令到达至隧道开始转发</li>
+ *     <li>FIRST_BYTE_UPLOAD / FIRST_BYTE_DOWNLOAD：指令到达至本地 -> Neo / Neo -> 本地 方向转发出第一个字节</li>
+ * </ul>
+ * 前四个阶段记录的是与上一个阶段之间的间隔，后三个记录的是从指令到达开始的总耗时。
+ */
+public final class SetupTrace {
+    public enum Stage {
+        QUEUE, LOCAL_CONNECT, NEO_DIAL, NEO_HEADER, READY, FIRST_BYTE_UPLOAD, FIRST_BYTE_DOWNLOAD
+    }
+
+    // 不计时的空实现，供 UDP 等不需要统计的调用方使用
+    public static final SetupTrace NONE = new SetupTrace(0);
+
+    private static final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private static final LongAdder failures = new LongAdder();
+    private static final AtomicBoolean shutdownHookInstalled = new AtomicBoolean(false);
+
+    static {
+        for (Stage stage : Stage.values()) histograms.put(stage, new LatencyHistogram());
+    }
+
+    private final long arrivedAt;
+    private long lastMarkAt; // 仅由建连线程访问
+    private final long[] stageMicros = new long[Stage.values().length]; // 经 mark 记录的本次耗时，仅由建连线程访问
+    // 每个方向只由该方向的转发线程访问
+    private boolean uploadSeen = false;
+    private boolean downloadSeen = false;
+
+    private SetupTrace(long arrivedAt) {
+        this.arrivedAt = arrivedAt;
+        this.lastMarkAt = arrivedAt;
+    }
+
+    /**
+     * 在指令到达时调用，开始计时。
+     */
+    public static SetupTrace begin() {
+        return new SetupTrace(System.nanoTime());
+    }
+
+    /**
+     * 记录上一个阶段结束至今的耗时，计入 stage。
+     */
+    public void mark(Stage stage) {
+        if (this == NONE) return;
+        long now = System.nanoTime();
+        long micros = (now - lastMarkAt) / 1000;
+        histograms.get(stage).record(micros);
+        stageMicros[stage.ordinal()] += micros;
+        lastMarkAt = now;
+    }
+
+    /**
+     * 隧道开始转发，记录 READY。
+     */
+    public void ready() {
+        if (this == NONE) return;
+        histograms.get(Stage.READY).record((System.nanoTime() - arrivedAt) / 1000);
+    }
+
+    /**
+     * 某个方向转发出第一个字节，每个方向只记录一次。
+     *
+     * @param direction {@link Stage#FIRST_BYTE_UPLOAD} 或 {@link Stage#FIRST_BYTE_DOWNLOAD}
+     */
+    public void firstByte(Stage direction) {
+        if (this == NONE) return;
+        if (direction == Stage.FIRST_BYTE_UPLOAD) {
+            if (uploadSeen) return;
+            uploadSeen = true;
+        } else {
+            if (downloadSeen) return;
+            downloadSeen = true;
+        }
+        histograms.get(direction).record((System.nanoTime() - arrivedAt) / 1000);
+    }
+
+    /**
+     * 建连失败，隧道未能开始转发。
+     */
+    public void failed() {
+        if (this == NONE) return;
+        failures.increment();
+    }
+
+    /**
+     * @return 指令到达时的 System.nanoTime()
+     */
+    public long getArrivedAt() {
+        return arrivedAt;
+    }
+
+    /**
+     * @param stage QUEUE、LOCAL_CONNECT、NEO_DIAL 或 NEO_HEADER
+     * @return 本条隧道在该阶段的耗时（微秒），未经过该阶段时为 0
+     */
+    public long getStageMicros(Stage stage) {
+        return stageMicros[stage.ordinal()];
+    }
+
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public static long getFailureCount() {
+        return failures.sum();
+    }
+
+    public static boolean hasSamples() {
+        return histograms.get(Stage.QUEUE).getCount() > 0;
+    }
+
+    /**
+     * @return 每个阶段一行的统计报告
+     */
+    public static String describe() {
+        StringBuilder report = new StringBuilder("TCP setup latency (failures=" + getFailureCount() + ")");
+        for (Stage stage : Stage.values()) {
+            report.append(System.lineSeparator()).append("  ").append(stage).append(": ").append(histograms.get(stage).describe());
+        }
+        return report.toString();
+    }
+
+    /**
+     * 安装进程退出时输出统计报告的钩子，重复调用只安装一次。
+     *
+     * @param printer 报告的输出方式
+     */
+    public static void installShutdownHook(Consumer<String> printer) {
+        if (!shutdownHookInstalled.compareAndSet(false, true)) return;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (!hasSamples()) return;
+            try {
+                printer.accept(describe());
+            } catch (Throwable ignore) {
+                // 日志系统可能已先行关闭
+            }
+        }, "NeoLink-SetupTrace-Dump"));
+    }
+}
@@ -1,7 +1,14 @@
 package neoproxy.neolink.threads;
 
 import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.NeoLink;
+import neoproxy.neolink.SocketTuning;
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.channel.TransferChannel;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 
 import static neoproxy.neolink.Debugger.debugOperation;
@@ -9,7 +16,7 @@ import static neoproxy.neolink.InternetOperator.*;
 
 /**
  * 数据传输器，负责在本地服务和 Neo 服务器之间双向转发数据。
- * 【优化版】通过复用实例缓冲区来减少GC压力。
+ * 【优化版】缓冲区从全局 BufferPool 按需租用，空闲连接不占用缓冲区。
  * 【新功能】支持 Proxy Protocol v2 的剥离或透传。
  */
 public class TCPTransformer implements Runnable {
@@ -23,12 +30,12 @@ public class TCPTransformer implements Runnable {
     };
     public static int BUFFER_LENGTH = 65535; // 可以保持为静态常量
     private final Socket plainSocket;
-    private final SecureSocket secureSocket;
+    private final TransferChannel neoChannel;
+    private TrafficShaper shaper; // 未启用限速时为 null
+    private SetupTrace trace = SetupTrace.NONE;
     private final int mode;
     private final boolean enableProxyProtocol;
-
-    // 🔥【性能优化】为每个实例创建一个独立的、可复用的缓冲区
-    private final byte[] buffer = new byte[BUFFER_LENGTH];
+    private long transferredBytes = 0; // 本方向结束时写入，由结束回调读取
 
     /**
      * 构造函数：用于从 Neo 服务器接收数据并转发到本地服务。
@@ -36,7 +43,14 @@ public class TCPTransformer implements Runnable {
      * @param enableProxyProtocol 是否允许透传 Proxy Protocol 头
      */
     public TCPTransformer(SecureSocket secureSender, Socket localReceiver, boolean enableProxyProtocol) {
-        this.secureSocket = secureSender;
+        this(new SecureTransferChannel(secureSender), localReceiver, enableProxyProtocol);
+    }
+
+    /**
+     * 构造函数：用于从任意传输通道（独占连接或多路复用流）接收数据并转发到本地服务。
+     */
+    public TCPTransformer(TransferChannel neoSender, Socket localReceiver, boolean enableProxyProtocol) {
+        this.neoChannel = neoSender;
         this.plainSocket = localReceiver;
         this.mode = MODE_NEO_TO_LOCAL;
         this.enableProxyProtocol = enableProxyProtocol;
@@ -48,31 +62,97 @@ public class TCPTransformer implements Runnable {
      * @param enableProxyProtocol 此方向通常不使用，可传 false
      */
     public TCPTransformer(Socket localSender, SecureSocket secureReceiver, boolean enableProxyProtocol) {
+        this(localSender, new SecureTransferChannel(secureReceiver), enableProxyProtocol);
+    }
+
+    /**
+     * 构造函数：用于从本地服务接收数据并转发到任意传输通道。
+     */
+    public TCPTransformer(Socket localSender, TransferChannel neoReceiver, boolean enableProxyProtocol) {
         this.plainSocket = localSender;
-        this.secureSocket = secureReceiver;
+        this.neoChannel = neoReceiver;
         this.mode = MODE_LOCAL_TO_NEO;
         this.enableProxyProtocol = enableProxyProtocol;
     }
 
+    /**
+     * 为本方向设置限速器，同一条隧道的两个方向共用一个实例。
+     */
+    public void setShaper(TrafficShaper shaper) {
+        this.shaper = shaper;
+    }
+
+    /**
+     * 设置建连计时，本方向转发出第一个字节时记录一次。
+     */
+    public void setTrace(SetupTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return 本方向已转发的字节数，在本方向结束后读取
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
     /**
      * 将本地数据转发到 Neo 服务器 (Local -> Neo)
      */
     private void transferDataToNeoServer() {
         // 修改：直接获取 InputStream，不要包裹 BufferedInputStream
-        try (var inputFromLocal = plainSocket.getInputStream()) {
-            int bytesRead;
-            // 🔥 使用实例的 buffer，实现对象复用
-            // 直接从 Socket 读入 64KB buffer，减少内存拷贝和系统调用
-            while ((bytesRead = inputFromLocal.read(buffer)) != -1) {
-                secureSocket.sendByte(buffer, 0, bytesRead);
+        long sentBytes = 0, firstSendAt = 0, lastSendAt = 0;
+        try (var inputFromLocal = plainSocket.getInputStream(); var flow = InFlightBudget.register()) {
+            int firstByte;
+            AdaptiveReadSizer readSizer = new AdaptiveReadSizer();
+            // 🔥 空闲时只阻塞在单字节读取上，不占用任何缓冲区；有数据到达后才从 BufferPool 租用，
+            // 并在数据持续到达期间一直复用，直到内核缓冲区读空再归还
+            boolean coalesce = WriteCoalescer.isEnabled();
+            // 🔥 数据从 headroom 处开始存放，前面留给通道就地写帧头；缓冲区大小仍按分级对齐，读取上限相应减少
+            int headroom = neoChannel.headroom();
+            while ((firstByte = inputFromLocal.read()) != -1) {
+                // 🔥 租用缓冲区前先申请全局在途额度，额度不足时在这里暂停读取本地数据
+                byte[] buffer = leaseBuffer(flow, readLimit(readSizer, coalesce));
+                try {
+                    buffer[headroom] = (byte) firstByte;
+                    int bytesRead = 1 + readAvailable(inputFromLocal, buffer, headroom + 1, readLimit(readSizer, coalesce));
+                    while (bytesRead > 0) {
+                        readSizer.record(headroom + bytesRead);
+                        // 🔥 可选的写合并：小段数据在很短的时间窗口内攒成一帧再加密发送
+                        if (coalesce) {
+                            bytesRead = WriteCoalescer.fill(inputFromLocal, buffer, headroom + bytesRead, readLimit(readSizer, true)) - headroom;
+                        }
+                        neoChannel.sendByte(buffer, headroom, bytesRead);
+                        WriteCoalescer.recordFrame(bytesRead);
+                        TunnelMetrics.addUploadBytes(bytesRead);
+                        lastSendAt = System.nanoTime();
+                        if (sentBytes == 0) {
+                            firstSendAt = lastSendAt;
+                            trace.firstByte(SetupTrace.Stage.FIRST_BYTE_UPLOAD);
+                        }
+                        sentBytes += bytesRead;
+                        if (shaper != null) shaper.pace(TrafficShaper.UPLOAD, bytesRead);
+                        if (readLimit(readSizer, coalesce) > buffer.length) {
+                            returnBuffer(buffer);
+                            buffer = null; // 等待额度期间不再持有旧缓冲区
+                            buffer = leaseBuffer(flow, readLimit(readSizer, coalesce));
+                        }
+                        bytesRead = readAvailable(inputFromLocal, buffer, headroom, readLimit(readSizer, coalesce));
+                    }
+                } finally {
+                    returnBuffer(buffer);
+                }
             }
-            secureSocket.sendByte(null); // 发送结束信号
+            neoChannel.sendByte(null); // 发送结束信号
             shutdownInput(plainSocket);
         } catch (Exception e) {
             debugOperation(e);
-            shutdownOutput(secureSocket);
+            shutdownOutput(neoChannel);
             shutdownInput(plainSocket);
         }
+        transferredBytes = sentBytes;
+        // 🔥 吞吐样本供 auto 调优方案估算带宽时延积
+        SocketTuning.NEO.recordTransfer(sentBytes, lastSendAt - firstSendAt);
     }
 
     /**
@@ -81,54 +161,98 @@ public class TCPTransformer implements Runnable {
      */
     private void transferDataToLocalServer() {
         // 修改：直接获取 OutputStream，不要包裹 BufferedOutputStream
-        try (var outputToLocal = plainSocket.getOutputStream()) {
-            byte[] data;
+        AllocationMeter meter = NeoLink.isDebugMode ? AllocationMeter.start() : null;
+        long forwardedBytes = 0, firstReceiveAt = 0, lastReceiveAt = 0;
+        try (var outputToLocal = plainSocket.getOutputStream(); var flow = InFlightBudget.register()) {
+            // 🔥 同一个视图对象复用到底，帧数据按偏移量直接写出，不再逐帧拷贝
+            ReceivedFrame frame = new ReceivedFrame();
             boolean isFirstPacket = true;
 
-            while ((data = secureSocket.receiveByte()) != null) {
-                if (data.length == 0) continue;
+            while (neoChannel.receive(frame)) {
+                if (frame.length() == 0) continue;
 
                 if (isFirstPacket) {
                     isFirstPacket = false;
-                    // 检测是否是 Proxy Protocol v2 头
-                    if (isProxyProtocolV2Signature(data)) {
-                        if (this.enableProxyProtocol) {
-                            // 配置为开启：透传给本地后端
-                            outputToLocal.write(data);
-                        } else {
-                            // 配置为关闭：丢弃该数据包
-                            continue;
-                        }
-                    } else {
-                        // 不是 PP 头，正常写入
-                        outputToLocal.write(data);
+                    // 检测是否是 Proxy Protocol v2 头；配置为关闭时丢弃该数据包，否则透传给本地后端
+                    if (!this.enableProxyProtocol && isProxyProtocolV2Signature(frame.array(), frame.offset(), frame.length())) {
+                        continue;
                     }
-                } else {
-                    // 后续数据正常写入
-                    outputToLocal.write(data);
                 }
+                // 🔥 额度不足时暂停，不再从 Neo 侧接收新的帧，压力经 TCP 窗口传回服务端
+                InFlightBudget.acquire(flow, frame.length());
+                try {
+                    outputToLocal.write(frame.array(), frame.offset(), frame.length());
+                } finally {
+                    InFlightBudget.release(frame.length());
+                }
+                TunnelMetrics.addDownloadBytes(frame.length());
+                if (shaper != null) shaper.pace(TrafficShaper.DOWNLOAD, frame.length());
+                lastReceiveAt = System.nanoTime();
+                if (forwardedBytes == 0) {
+                    firstReceiveAt = lastReceiveAt;
+                    trace.firstByte(SetupTrace.Stage.FIRST_BYTE_DOWNLOAD);
+                }
+                forwardedBytes += frame.length();
 
                 // 移除 flush()，因为 SocketOutputStream 默认是直接发送的，且没有 Buffer 就不需要 flush
                 // outputToLocal.flush();
             }
-            shutdownInput(secureSocket);
+            shutdownInput(neoChannel);
             shutdownOutput(plainSocket);
         } catch (Exception e) {
             debugOperation(e);
-            shutdownInput(secureSocket);
+            shutdownInput(neoChannel);
             shutdownOutput(plainSocket);
         }
+        transferredBytes = forwardedBytes;
+        SocketTuning.NEO.recordTransfer(forwardedBytes, lastReceiveAt - firstReceiveAt);
+        if (meter != null) debugOperation("Neo -> Local forwarded " + forwardedBytes + "B, " + meter.describe(forwardedBytes));
+    }
+
+    private static byte[] leaseBuffer(InFlightBudget.Flow flow, int size) throws IOException {
+        InFlightBudget.acquire(flow, BufferPool.classSize(size));
+        return BufferPool.acquire(size);
+    }
+
+    private static void returnBuffer(byte[] buffer) {
+        if (buffer == null) return;
+        BufferPool.release(buffer);
+        InFlightBudget.release(buffer.length);
+    }
+
+    /**
+     * 开启写合并时缓冲区至少要能容纳一个合并阈值。
+     */
+    private static int readLimit(AdaptiveReadSizer readSizer, boolean coalesce) {
+        return coalesce ? Math.max(readSizer.nextSize(), WriteCoalescer.THRESHOLD) : readSizer.nextSize();
+    }
+
+    /**
+     * 只读取内核中已到达的数据，不会阻塞；没有可读数据时返回 0。
+     *
+     * @param limit 本次读取后缓冲区中最多的数据量，由 {@link AdaptiveReadSizer} 给出
+     */
+    static int readAvailable(InputStream input, byte[] buffer, int offset, int limit) throws IOException {
+        int available = input.available();
+        int room = Math.min(limit, buffer.length) - offset;
+        if (available <= 0 || room <= 0) return 0;
+        int bytesRead = input.read(buffer, offset, Math.min(available, room));
+        return Math.max(bytesRead, 0);
     }
 
     /**
      * 检查数据包是否以 Proxy Protocol v2 签名开头
      */
-    private boolean isProxyProtocolV2Signature(byte[] data) {
-        if (data == null || data.length < 12) {
+    static boolean isProxyProtocolV2Signature(byte[] data) {
+        return data != null && isProxyProtocolV2Signature(data, 0, data.length);
+    }
+
+    static boolean isProxyProtocolV2Signature(byte[] data, int offset, int length) {
+        if (length < 12) {
             return false;
         }
         for (int i = 0; i < 12; i++) {
-            if (data[i] != PPV2_SIG[i]) {
+            if (data[offset + i] != PPV2_SIG[i]) {
                 return false;
             }
         }
@@ -147,7 +271,7 @@ public class TCPTransformer implements Runnable {
             debugOperation(e);
         } finally {
             // 无论正常结束还是异常结束，都确保关闭资源
-            close(plainSocket, secureSocket);
+            close(plainSocket, neoChannel);
         }
     }
 }
\ No newline at end of file
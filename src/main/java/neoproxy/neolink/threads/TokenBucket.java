@@ -0,0 +1,47 @@
+package neoproxy.neolink.threads;
+
+/**
+ * 允许欠账的令牌桶：take 总是立即扣除令牌，令牌为负时返回还清欠账所需的等待时间。
+ * 调用方据此一次性等待，而不是每个包都睡眠一个固定时长；多个调用方共享同一个桶时按扣除顺序依次还账。
+ */
+final class TokenBucket {
+    private final double bytesPerNano;
+    private final double burstBytes;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond 平均速率
+     */
+    TokenBucket(long bytesPerSecond) {
+        this.bytesPerNano = bytesPerSecond / 1_000_000_000.0;
+        // 允许 100ms 的突发，但至少一个最大帧
+        this.burstBytes = Math.max(BufferPool.MAX_BUFFER_SIZE, bytesPerSecond / 10.0);
+        this.tokens = burstBytes;
+    }
+
+    /**
+     * 扣除 bytes 个令牌。
+     *
+     * @return 需要等待的纳秒数，令牌充足时为 0
+     */
+    synchronized long take(long bytes) {
+        long now = System.nanoTime();
+        tokens = Math.min(burstBytes, tokens + (now - lastRefill) * bytesPerNano);
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens / bytesPerNano);
+    }
+
+    /**
+     * 只补充不扣除：用于不能等待的调用方先判断能否发送，确实发出后再 {@link #take}，被丢弃的包不计入欠账。
+     *
+     * @return 当前没有欠账
+     */
+    synchronized boolean hasTokens() {
+        long now = System.nanoTime();
+        tokens = Math.min(burstBytes, tokens + (now - lastRefill) * bytesPerNano);
+        lastRefill = now;
+        return tokens > 0;
+    }
+}
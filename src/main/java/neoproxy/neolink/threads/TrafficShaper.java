@@ -0,0 +1,186 @@
+package neoproxy.neolink.threads;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分层令牌桶限速：全局 → 每个访客（按来源 IP 汇总其所有连接）→ 每条隧道（单个访客连接），
+ * 上行 (Local -> Neo) 与下行 (Neo -> Local) 各自独立计数，任意一层速率为 0 表示该层不限速。
+ * <p>
+ * 一条隧道累计传输未超过 BULK_THRESHOLD 字节前视为交互式连接：它照常在全局与访客层扣除令牌，
+ * 但不排在这两层的欠账后面，欠下的账由大流量连接偿还，因此 SSH、游戏等流量不会排在大文件下载后面。
+ * 豁免本身也有上限：同一访客的所有交互式连接共用一个速率为访客限速 INTERACTIVE_PERCENT% 的桶，
+ * 全进程的交互式连接共用一个速率为全局限速 INTERACTIVE_PERCENT% 的桶，超出预留份额时照常等待，
+ * 因此大量并发的小连接无法绕过访客与全局限速。
+ * <p>
+ * 所有速率都为 0 时 {@link #open(String)} 返回 null，转发路径上只多一次判空。
+ */
+public final class TrafficShaper {
+    public static final int UPLOAD = 0;
+    public static final int DOWNLOAD = 1;
+
+    // 单位均为 字节/秒
+    public static long GLOBAL_RATE = 0;
+    public static long VISITOR_RATE = 0;
+    public static long TUNNEL_RATE = 0;
+    public static long BULK_THRESHOLD = 1024 * 1024;
+    // 交互式连接在访客与全局层可以不排队使用的预留份额 (%)，0 表示不豁免
+    public static int INTERACTIVE_PERCENT = 25;
+
+    private static final Map<String, VisitorBuckets> visitors = new ConcurrentHashMap<>();
+    private static final LongAdder throttledNanos = new LongAdder();
+    private static volatile TokenBucket[] globalBuckets;
+    private static volatile TokenBucket[] globalInteractiveBuckets;
+    private static volatile boolean configured = false;
+
+    private final VisitorBuckets visitor;
+    private final TokenBucket[] tunnelBuckets;
+    private final long[] transferred = new long[2];
+
+    private TrafficShaper(VisitorBuckets visitor) {
+        this.visitor = visitor;
+        this.tunnelBuckets = createBuckets(TUNNEL_RATE);
+    }
+
+    public static boolean isEnabled() {
+        return GLOBAL_RATE > 0 || VISITOR_RATE > 0 || TUNNEL_RATE > 0;
+    }
+
+    /**
+     * 在配置读取后调用，按当前速率重建全局桶。
+     */
+    public static void reconfigure() {
+        globalBuckets = createBuckets(GLOBAL_RATE);
+        globalInteractiveBuckets = createBuckets(interactiveRate(GLOBAL_RATE));
+        visitors.clear();
+        configured = true;
+    }
+
+    /**
+     * 为一条新隧道创建限速器，连接结束时必须调用 {@link #close()}。
+     *
+     * @param remoteAddress 服务端下发的访客地址，如 "1.2.3.4:5678"
+     * @return 未启用限速时为 null
+     */
+    public static TrafficShaper open(String remoteAddress) {
+        if (!isEnabled()) return null;
+        // 不能以 globalBuckets 判断：全局不限速时它始终为 null，每次重建都会清空访客表
+        if (!configured) reconfigure();
+        String visitorKey = visitorKey(remoteAddress);
+        VisitorBuckets visitor = visitors.compute(visitorKey, (key, existing) -> {
+            VisitorBuckets buckets = existing != null ? existing : new VisitorBuckets(key);
+            buckets.references++;
+            return buckets;
+        });
+        return new TrafficShaper(visitor);
+    }
+
+    private static String visitorKey(String remoteAddress) {
+        if (remoteAddress == null) return "";
+        int colon = remoteAddress.lastIndexOf(':');
+        // 只有一个冒号时是 IPv4:端口，多个冒号且带方括号时是 [IPv6]:端口
+        if (colon > 0 && (remoteAddress.indexOf(':') == colon || remoteAddress.charAt(colon - 1) == ']')) {
+            return remoteAddress.substring(0, colon);
+        }
+        return remoteAddress;
+    }
+
+    private boolean isInteractive(int direction) {
+        return INTERACTIVE_PERCENT > 0 && transferred[direction] <= BULK_THRESHOLD;
+    }
+
+    private static long interactiveRate(long rate) {
+        return rate > 0 ? Math.max(1, rate * Math.min(INTERACTIVE_PERCENT, 100) / 100) : 0;
+    }
+
+    private static TokenBucket[] createBuckets(long rate) {
+        return rate > 0 ? new TokenBucket[]{new TokenBucket(rate), new TokenBucket(rate)} : null;
+    }
+
+    /**
+     * 记录本方向刚转发的 bytes 字节，并返回按各层速率需要等待的纳秒数。不阻塞，适用于事件循环线程。
+     */
+    public long take(int direction, int bytes) {
+        long wait = chargeAndGetWait(direction, bytes);
+        if (wait > 0) throttledNanos.add(wait);
+        return wait;
+    }
+
+    /**
+     * 只记账不计入限速等待统计，用于 {@link #canTake} 之后已经发出、不会再等待的数据。
+     */
+    public void charge(int direction, int bytes) {
+        chargeAndGetWait(direction, bytes);
+    }
+
+    private long chargeAndGetWait(int direction, int bytes) {
+        transferred[direction] += bytes;
+        boolean interactive = isInteractive(direction);
+        long wait = 0;
+        if (tunnelBuckets != null) wait = tunnelBuckets[direction].take(bytes);
+        TokenBucket[] global = globalBuckets;
+        if (interactive) {
+            // 在预留份额内不等待访客与全局层，但仍在两层记账，由大流量连接偿还
+            if (visitor.interactiveBuckets != null) wait = Math.max(wait, visitor.interactiveBuckets[direction].take(bytes));
+            TokenBucket[] globalInteractive = globalInteractiveBuckets;
+            if (globalInteractive != null) wait = Math.max(wait, globalInteractive[direction].take(bytes));
+            if (visitor.buckets != null) visitor.buckets[direction].take(bytes);
+            if (global != null) global[direction].take(bytes);
+        } else {
+            if (visitor.buckets != null) wait = Math.max(wait, visitor.buckets[direction].take(bytes));
+            if (global != null) wait = Math.max(wait, global[direction].take(bytes));
+        }
+        return wait;
+    }
+
+    /**
+     * 判断本方向现在能否发送而不扣除令牌，供既不能等待、又可以丢弃数据的调用方（推送模式下的 UDP）使用：
+     * 返回 true 且确实发出后再调用 {@link #charge} 记账，返回 false 时直接丢弃，丢弃的数据不会加深任何一层的欠账。
+     */
+    public boolean canTake(int direction) {
+        if (tunnelBuckets != null && !tunnelBuckets[direction].hasTokens()) return false;
+        // 与 take 一致：交互式连接只受预留份额约束，不因访客与全局层的欠账被丢弃
+        boolean interactive = isInteractive(direction);
+        TokenBucket[] visitorBuckets = interactive ? visitor.interactiveBuckets : visitor.buckets;
+        if (visitorBuckets != null && !visitorBuckets[direction].hasTokens()) return false;
+        TokenBucket[] global = interactive ? globalInteractiveBuckets : globalBuckets;
+        return global == null || global[direction].hasTokens();
+    }
+
+    /**
+     * 记录转发量并在需要时一次性等待到欠账还清，供阻塞式的转发线程使用。
+     */
+    public void pace(int direction, int bytes) {
+        long wait = take(direction, bytes);
+        long deadline = System.nanoTime() + wait;
+        while (wait > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.currentThread().isInterrupted()) return;
+            wait = deadline - System.nanoTime();
+        }
+    }
+
+    public void close() {
+        visitors.computeIfPresent(visitor.key, (key, buckets) -> --buckets.references == 0 ? null : buckets);
+    }
+
+    /**
+     * @return 所有隧道累计被限速等待的毫秒数
+     */
+    public static long getThrottledMillis() {
+        return throttledNanos.sum() / 1_000_000;
+    }
+
+    private static final class VisitorBuckets {
+        final String key;
+        final TokenBucket[] buckets = createBuckets(VISITOR_RATE);
+        final TokenBucket[] interactiveBuckets = createBuckets(interactiveRate(VISITOR_RATE));
+        int references = 0; // 只在 visitors.compute 中修改
+
+        VisitorBuckets(String key) {
+            this.key = key;
+        }
+    }
+}
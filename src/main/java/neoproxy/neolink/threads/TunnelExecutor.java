@@ -0,0 +1,200 @@
+package neoproxy.neolink.threads;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 隧道任务的统一执行器：连接建立、TCP/UDP 转发任务以及心跳线程都通过这里调度。
+ * <ul>
+ *     <li>platform：平台线程池，EXECUTOR_MAX_THREADS 为 0 时不设上限（与旧版每任务一线程等价）</li>
+ *     <li>virtual：JDK 21 虚拟线程，每个任务一个虚拟线程，阻塞时不占用平台线程栈</li>
+ * </ul>
+ * 短任务（连接建立、连接池补充、DNS 刷新）与常驻的转发任务分开调度：EXECUTOR_MAX_THREADS 只限制转发线程，
+ * 建立连接的任务不会排在占满线程池的转发任务后面。
+ * <p>
+ * 有上限时转发任务先按线程名额准入：一对转发任务一次性预留两个名额，名额不足时整条隧道被拒绝，由调用方关闭，
+ * 不会出现一半在运行、另一半在队列里等待的隧道（运行的一半等不到对端读取，隧道卡住并永久占用线程）。
+ * 准入的任务数不超过线程数，因此转发任务总能立即得到线程。
+ */
+public final class TunnelExecutor {
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+    public static String MODE = MODE_PLATFORM;
+    public static int MAX_THREADS = 0;
+
+    private static final AtomicInteger activeCount = new AtomicInteger(0);
+    private static final AtomicInteger queuedCount = new AtomicInteger(0);
+    private static final LongAdder completedCount = new LongAdder();
+    private static final LongAdder rejectedCount = new LongAdder();
+    private static volatile ExecutorService executor;
+    private static volatile ExecutorService transferExecutor;
+    // 转发线程名额，不限制线程数时为 null
+    private static volatile Semaphore transferPermits;
+
+    private TunnelExecutor() {
+    }
+
+    private static ExecutorService getExecutor() {
+        if (executor == null) start();
+        return executor;
+    }
+
+    private static ExecutorService getTransferExecutor() {
+        if (transferExecutor == null) start();
+        return transferExecutor;
+    }
+
+    private static synchronized void start() {
+        if (executor != null) return;
+        if (MODE_VIRTUAL.equalsIgnoreCase(MODE)) {
+            transferExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("NeoLink-Tunnel-", 0).factory());
+            executor = transferExecutor;
+        } else if (MAX_THREADS <= 0) {
+            transferExecutor = Executors.newCachedThreadPool(Thread.ofPlatform().name("NeoLink-Tunnel-", 0).daemon(true).factory());
+            executor = transferExecutor;
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), Thread.ofPlatform().name("NeoLink-Tunnel-", 0).daemon(true).factory());
+            pool.allowCoreThreadTimeOut(true);
+            transferPermits = new Semaphore(MAX_THREADS);
+            transferExecutor = pool;
+            executor = Executors.newCachedThreadPool(Thread.ofPlatform().name("NeoLink-Setup-", 0).daemon(true).factory());
+        }
+        debugOperation("TunnelExecutor started. Mode: " + MODE + ", Max transfer threads: " + MAX_THREADS);
+    }
+
+    /**
+     * 异步执行一个短任务，不受转发线程上限约束。常驻的转发任务使用 {@link #executePair} 或 {@link #reserveTransfer}。
+     */
+    public static void execute(Runnable task) {
+        submit(task);
+    }
+
+    /**
+     * 异步执行一个任务，返回的 Future 可用于中断长期运行的任务。
+     */
+    public static Future<?> submit(Runnable task) {
+        return submit(getExecutor(), task);
+    }
+
+    private static Future<?> submit(ExecutorService target, Runnable task) {
+        queuedCount.incrementAndGet();
+        return target.submit(() -> {
+            queuedCount.decrementAndGet();
+            activeCount.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedCount.increment();
+            }
+        });
+    }
+
+    /**
+     * 为常驻任务（如心跳）启动独立线程，不占用线程池名额，避免在有界线程池被隧道占满时饿死。
+     * 返回的 Future 可用于中断该任务。
+     */
+    public static Future<?> submitDedicated(String name, Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            activeCount.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedCount.increment();
+            }
+        }, null);
+        Thread.Builder builder = MODE_VIRTUAL.equalsIgnoreCase(MODE) ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+        builder.name(name).start(future);
+        return future;
+    }
+
+    /**
+     * 并发执行一对转发任务，两者都结束后执行回调（替代 ThreadManager.startAsyncWithCallback）。
+     * 两个任务一起准入：转发线程名额不足时两者都不执行，回调也不执行。
+     *
+     * @return false 表示名额不足，调用方应关闭这条隧道
+     */
+    public static boolean executePair(Runnable first, Runnable second, Runnable onBothFinished) {
+        if (!reserveTransfer(2)) return false;
+        AtomicInteger remaining = new AtomicInteger(2);
+        Runnable countDown = () -> {
+            if (remaining.decrementAndGet() == 0 && onBothFinished != null) onBothFinished.run();
+        };
+        executeReserved(() -> {
+            try {
+                first.run();
+            } finally {
+                countDown.run();
+            }
+        });
+        executeReserved(() -> {
+            try {
+                second.run();
+            } finally {
+                countDown.run();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 预留 tasks 个转发线程名额，成功后必须为每个名额调用一次 {@link #executeReserved} 或 {@link #cancelReservation}。
+     *
+     * @return false 表示名额不足，此时没有预留任何名额
+     */
+    public static boolean reserveTransfer(int tasks) {
+        getTransferExecutor();
+        Semaphore permits = transferPermits;
+        if (permits == null || permits.tryAcquire(tasks)) return true;
+        rejectedCount.increment();
+        debugOperation("Transfer threads exhausted (EXECUTOR_MAX_THREADS=" + MAX_THREADS + "), refusing a tunnel. " + describe());
+        return false;
+    }
+
+    /**
+     * 在转发线程上执行一个已预留名额的常驻任务，任务结束时归还名额。
+     */
+    public static void executeReserved(Runnable task) {
+        submit(getTransferExecutor(), () -> {
+            try {
+                task.run();
+            } finally {
+                cancelReservation(1);
+            }
+        });
+    }
+
+    public static void cancelReservation(int tasks) {
+        Semaphore permits = transferPermits;
+        if (permits != null) permits.release(tasks);
+    }
+
+    public static int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public static int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public static long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    /**
+     * @return 因转发线程名额不足被拒绝的隧道数
+     */
+    public static long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public static String describe() {
+        return "mode=" + MODE + ", active=" + getActiveCount() + ", queued=" + getQueuedCount() + ", completed=" + getCompletedCount()
+                + ", rejected=" + getRejectedCount();
+    }
+}
@@ -0,0 +1,78 @@
+package neoproxy.neolink.threads;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 隧道级别的全局计数器，供本地指标端点导出。
+ * 转发热路径上只做 LongAdder 累加，各线程写入不同的分段，互不争用；读取时才求和。
+ */
+public final class TunnelMetrics {
+    public static final int TCP = 0;
+    public static final int UDP = 1;
+
+    private static final LongAdder[] opened = {new LongAdder(), new LongAdder()};
+    private static final LongAdder[] active = {new LongAdder(), new LongAdder()};
+    private static final LongAdder uploadBytes = new LongAdder();
+    private static final LongAdder downloadBytes = new LongAdder();
+    private static final LongAdder reconnects = new LongAdder();
+
+    private TunnelMetrics() {
+    }
+
+    /**
+     * @param protocol {@link #TCP} 或 {@link #UDP}
+     */
+    public static void tunnelOpened(int protocol) {
+        opened[protocol].increment();
+    }
+
+    /**
+     * 在隧道交给转发方之前计入活跃数：关闭回调可能在交出的调用返回前就执行，先计数才不会让活跃数短暂为负。
+     * 交出失败时调用 {@link #tunnelClosed} 撤销，成功后再调用 {@link #tunnelOpened}，累计数因此只增不减。
+     */
+    public static void tunnelStarting(int protocol) {
+        active[protocol].increment();
+    }
+
+    public static void tunnelClosed(int protocol) {
+        active[protocol].decrement();
+    }
+
+    /**
+     * 本地 -> Neo 方向转发的字节数。
+     */
+    public static void addUploadBytes(long bytes) {
+        uploadBytes.add(bytes);
+    }
+
+    /**
+     * Neo -> 本地 方向转发的字节数。
+     */
+    public static void addDownloadBytes(long bytes) {
+        downloadBytes.add(bytes);
+    }
+
+    public static void reconnected() {
+        reconnects.increment();
+    }
+
+    public static long getOpenedCount(int protocol) {
+        return opened[protocol].sum();
+    }
+
+    public static long getActiveCount(int protocol) {
+        return active[protocol].sum();
+    }
+
+    public static long getUploadBytes() {
+        return uploadBytes.sum();
+    }
+
+    public static long getDownloadBytes() {
+        return downloadBytes.sum();
+    }
+
+    public static long getReconnectCount() {
+        return reconnects.sum();
+    }
+}
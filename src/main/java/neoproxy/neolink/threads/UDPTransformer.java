@@ -1,15 +1,19 @@
 package neoproxy.neolink.threads;
 
 import fun.ceroxe.api.net.SecureSocket;
+import neoproxy.neolink.channel.ReceivedFrame;
+import neoproxy.neolink.channel.SecureTransferChannel;
+import neoproxy.neolink.channel.TransferChannel;
 import neoproxy.neolink.Debugger;
+import neoproxy.neolink.DnsCache;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
 
 import static neoproxy.neolink.InternetOperator.close;
 import static neoproxy.neolink.NeoLink.localDomainName;
@@ -17,29 +21,42 @@ import static neoproxy.neolink.NeoLink.localPort;
 
 /**
  * 数据传输器，负责在本地服务和 Neo 服务器之间双向转发数据。
- * 【优化版】通过复用实例缓冲区和ByteBuffer来减少GC压力。
+ * 【优化版】接收缓冲区从全局 BufferPool 租用，两个方向都在原数组上就地编解码，逐包转发不产生任何堆分配：
+ * Local -> Neo 把数据报接收到预留的帧头空间之后，就地写入帧头后整帧交给传输通道；
+ * Neo -> Local 就地解析帧头，复用同一个 DatagramPacket 指向帧内的负载发出。
  */
 public class UDPTransformer implements Runnable {
     public static final int MODE_NEO_TO_LOCAL = 0;
     public static final int MODE_LOCAL_TO_NEO = 1;
     public static int BUFFER_LENGTH = 65535; // 可以保持为静态常量
+    // 帧头：魔数、数据长度、地址长度各 4 字节，地址最长 16 字节 (IPv6)，端口 2 字节
+    static final int MAX_HEADER_LENGTH = 4 + 4 + 4 + 16 + 2;
+    private static final int MAGIC = 0xDEADBEEF;
+    // 合并帧的魔数，见 DatagramBatcher
+    static final int BATCH_MAGIC = 0xDEADBA7C;
 
     private final DatagramSocket plainSocket;
-    private final SecureSocket secureSocket;
+    private final TransferChannel neoChannel;
     private final int mode;
-
-    // 🔥【性能优化】为每个实例创建独立的、可复用的接收缓冲区
-    private final byte[] receiveBuffer = new byte[BUFFER_LENGTH];
-
-    // 🔥【性能优化】为序列化创建一个可复用的ByteBuffer
-    // 注意：这个大小需要根据你的最大UDP包来设定，要足够大。
-    private final ByteBuffer serializationBuffer = ByteBuffer.allocate(65560);
+    private TrafficShaper shaper; // 未启用限速时为 null
+    private long transferredBytes = 0; // 仅由本方向的转发线程写入，结束后由回调读取
+    private DatagramBatcher batcher; // 未协商数据报合并时为 null
+    private UdpIdleTimeout idleTimeout; // 未启用空闲回收时为 null
+    private final DatagramHandler sendToLocal = this::sendToLocalServer;
+    private final DatagramPacket outgoingPacket = new DatagramPacket(new byte[0], 0); // 仅由 Neo -> Local 线程使用
 
     /**
      * 构造函数：用于从 Neo 服务器接收数据并转发到本地服务。
      */
     public UDPTransformer(SecureSocket secureSender, DatagramSocket localReceiver) {
-        this.secureSocket = secureSender;
+        this(new SecureTransferChannel(secureSender), localReceiver);
+    }
+
+    /**
+     * 构造函数：用于从任意传输通道（独占连接或多路复用流）接收数据并转发到本地服务。
+     */
+    public UDPTransformer(TransferChannel neoSender, DatagramSocket localReceiver) {
+        this.neoChannel = neoSender;
         this.plainSocket = localReceiver;
         this.mode = MODE_NEO_TO_LOCAL;
     }
@@ -48,8 +65,15 @@ public class UDPTransformer implements Runnable {
      * 构造函数：用于从本地服务接收数据并转发到 Neo 服务器。
      */
     public UDPTransformer(DatagramSocket localSender, SecureSocket secureReceiver) {
+        this(localSender, new SecureTransferChannel(secureReceiver));
+    }
+
+    /**
+     * 构造函数：用于从本地服务接收数据并转发到任意传输通道。
+     */
+    public UDPTransformer(DatagramSocket localSender, TransferChannel neoReceiver) {
         this.plainSocket = localSender;
-        this.secureSocket = secureReceiver;
+        this.neoChannel = neoReceiver;
         this.mode = MODE_LOCAL_TO_NEO;
     }
 
@@ -57,7 +81,11 @@ public class UDPTransformer implements Runnable {
      * 这个方法可以保持为静态，因为它不依赖实例状态。
      */
     public static DatagramPacket deserializeToDatagramPacket(byte[] serializedData) {
-        ByteBuffer buffer = ByteBuffer.wrap(serializedData);
+        return deserializeToDatagramPacket(serializedData, 0, serializedData.length);
+    }
+
+    public static DatagramPacket deserializeToDatagramPacket(byte[] serializedData, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(serializedData, offset, length);
         buffer.order(ByteOrder.BIG_ENDIAN);
 
         int magic = buffer.getInt();
@@ -84,62 +112,186 @@ public class UDPTransformer implements Runnable {
     }
 
     /**
-     * 🔥【重构】改为实例方法，使用实例的 receiveBuffer。
+     * 在 buffer 中紧挨 dataOffset 之前就地写入帧头，负载不再拷贝。调用方需在负载前预留 {@link #MAX_HEADER_LENGTH} 字节。
+     *
+     * @return 帧的起始偏移，帧长度为 dataOffset + dataLength 减去该值
+     */
+    static int writeHeaderBefore(byte[] buffer, int dataOffset, int dataLength, byte[] ipBytes, int port) {
+        int start = dataOffset - (4 + 4 + 4 + ipBytes.length + 2);
+        writeInt(buffer, start, MAGIC);
+        writeInt(buffer, start + 4, dataLength);
+        writeInt(buffer, start + 8, ipBytes.length);
+        System.arraycopy(ipBytes, 0, buffer, start + 12, ipBytes.length);
+        buffer[dataOffset - 2] = (byte) (port >>> 8);
+        buffer[dataOffset - 1] = (byte) port;
+        return start;
+    }
+
+    /**
+     * 就地解析帧头，不创建 DatagramPacket。
+     *
+     * @return 负载在 frame 中的起始偏移，负载长度为 {@link #readInt}(frame, offset + 4)；帧不合法时返回 -1
+     */
+    static int payloadOffset(byte[] frame, int offset, int length) {
+        if (length < 4 + 4 + 4 + 2 || readInt(frame, offset) != MAGIC) return -1;
+        int dataLen = readInt(frame, offset + 4);
+        int ipLen = readInt(frame, offset + 8);
+        if (ipLen < 0 || ipLen > 16 || dataLen < 0) return -1;
+        int payload = offset + 4 + 4 + 4 + ipLen + 2;
+        return payload + dataLen <= offset + length ? payload : -1;
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 把 Neo 发来的一帧交给 handler：合并帧按长度前缀拆成多个普通数据报帧，普通帧原样交付。
+     *
+     * @return 交付的数据报数，合并帧中长度不合法的记录及其之后的记录被丢弃
+     */
+    static int unpack(byte[] frame, int offset, int length, DatagramHandler handler) throws IOException {
+        if (length < 8 || readInt(frame, offset) != BATCH_MAGIC) {
+            handler.onDatagram(frame, offset, length);
+            return 1;
+        }
+        int count = readInt(frame, offset + 4);
+        int position = offset + 8;
+        int end = offset + length;
+        int delivered = 0;
+        while (delivered < count && position + 4 <= end) {
+            int recordLength = readInt(frame, position);
+            position += 4;
+            if (recordLength < 0 || recordLength > end - position) break;
+            handler.onDatagram(frame, position, recordLength);
+            position += recordLength;
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * 为本方向设置限速器，同一条隧道的两个方向共用一个实例。
+     */
+    public void setShaper(TrafficShaper shaper) {
+        this.shaper = shaper;
+    }
+
+    /**
+     * 设置空闲回收，两个方向共用一个实例，每转发一个数据报记录一次活动。
+     */
+    public void setIdleTimeout(UdpIdleTimeout idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * 为 Local -> Neo 方向设置数据报合并，见 {@link DatagramBatcher#open}。
+     */
+    public void setBatcher(DatagramBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    /**
+     * @return 本方向已转发的数据报负载字节数，在本方向结束后读取
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * 🔥【重构】改为实例方法，接收缓冲区在本方向存活期间从 BufferPool 租用，前 MAX_HEADER_LENGTH 字节留给帧头。
      */
     private void transferDataToNeoServer() {
+        byte[] receiveBuffer = BufferPool.acquire(MAX_HEADER_LENGTH + BUFFER_LENGTH);
+        DatagramPacket incomingPacket = new DatagramPacket(receiveBuffer, MAX_HEADER_LENGTH, BUFFER_LENGTH);
+        InPlaceEncoder encoder = new InPlaceEncoder();
         try {
             while (true) {//用异常退出循环
-                // 🔥 使用实例的 receiveBuffer
-                DatagramPacket incomingPacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-                plainSocket.receive(incomingPacket);
-                // 🔥 调用实例方法进行序列化
-                byte[] serializedData = serializeDatagramPacket(incomingPacket);
-                secureSocket.sendByte(serializedData);
+                // receive 会把长度缩小为上一个数据报的长度，每次重新设置可用空间
+                incomingPacket.setData(receiveBuffer, MAX_HEADER_LENGTH, BUFFER_LENGTH);
+                if (batcher == null) {
+                    plainSocket.receive(incomingPacket);
+                } else if (!receiveUntilDeadline(incomingPacket)) {
+                    continue;
+                }
+                // 🔥 就地写入带地址头的帧头，负载不拷贝
+                int start = encoder.encode(incomingPacket);
+                int frameLength = MAX_HEADER_LENGTH + incomingPacket.getLength() - start;
+                if (batcher != null) {
+                    batcher.add(receiveBuffer, start, frameLength);
+                } else {
+                    neoChannel.sendByte(receiveBuffer, start, frameLength);
+                    DatagramBatcher.recordFrame(TrafficShaper.UPLOAD, 1);
+                }
+                if (idleTimeout != null) idleTimeout.touch();
+                TunnelMetrics.addUploadBytes(incomingPacket.getLength());
+                transferredBytes += incomingPacket.getLength();
+                if (shaper != null) shaper.pace(TrafficShaper.UPLOAD, incomingPacket.getLength());
             }
         } catch (IOException e) {
             Debugger.debugOperation(e);
+        } finally {
+            if (batcher != null) batcher.close();
+            BufferPool.release(receiveBuffer);
         }
     }
 
     /**
-     * 🔥【重构】改为实例方法，使用实例的 serializationBuffer。
+     * 合并模式下的接收：有待发批次时最多等到批次截止时间（SO_TIMEOUT 只能精确到毫秒），超时则先发出批次。
+     *
+     * @return false 表示本次没有收到数据报
      */
-    private byte[] serializeDatagramPacket(DatagramPacket packet) {
-        // 🔥 使用前先重置缓冲区
-        serializationBuffer.clear();
-        serializationBuffer.order(ByteOrder.BIG_ENDIAN);
-
-        byte[] data = packet.getData();
-        int offset = packet.getOffset();
-        int length = packet.getLength();
-        InetAddress address = packet.getAddress();
-        int port = packet.getPort();
-
-        byte[] ipBytes = address.getAddress();
-        int ipLength = ipBytes.length;
-
-        // 检查缓冲区容量是否足够，如果不够则动态分配（不推荐，但更安全）
-        // 或者直接抛出异常，让调用者知道包太大
-        int totalLen = 4 + 4 + 4 + ipLength + 2 + length;
-        if (totalLen > serializationBuffer.capacity()) {
-            // 实际生产中，可能需要更大的固定缓冲区或更复杂的处理
-            Debugger.debugOperation(new IOException("UDP packet too large for serialization buffer"));
-            // 回退到原始方式
-            ByteBuffer tempBuffer = ByteBuffer.allocate(totalLen);
-            tempBuffer.order(ByteOrder.BIG_ENDIAN);
-            // ... (填充逻辑) ...
-            return tempBuffer.array();
+    private boolean receiveUntilDeadline(DatagramPacket packet) throws IOException {
+        int timeoutMillis = 0;
+        if (!batcher.isEmpty()) {
+            long remaining = batcher.getDeadline() - System.nanoTime();
+            if (remaining <= 0) {
+                batcher.flush();
+            } else {
+                timeoutMillis = (int) Math.max(1, (remaining + 999_999) / 1_000_000);
+            }
         }
+        plainSocket.setSoTimeout(timeoutMillis);
+        try {
+            plainSocket.receive(packet);
+            return true;
+        } catch (SocketTimeoutException e) {
+            batcher.flush();
+            return false;
+        }
+    }
 
-        serializationBuffer.putInt(0xDEADBEEF);
-        serializationBuffer.putInt(length);
-        serializationBuffer.putInt(ipLength);
-        serializationBuffer.put(ipBytes);
-        serializationBuffer.putShort((short) port);
-        serializationBuffer.put(data, offset, length);
+    /**
+     * 把数据报序列化为一个独立的帧数组，按实际大小一次分配，任意大小的数据报都能完整序列化。
+     * 转发路径使用 {@link InPlaceEncoder} 就地封帧，本方法供需要独立帧的调用方使用。
+     */
+    static byte[] serializeDatagramPacket(DatagramPacket packet) {
+        byte[] ipBytes = packet.getAddress().getAddress();
+        int headerLength = 4 + 4 + 4 + ipBytes.length + 2;
+        byte[] frame = new byte[headerLength + packet.getLength()];
+        System.arraycopy(packet.getData(), packet.getOffset(), frame, headerLength, packet.getLength());
+        writeHeaderBefore(frame, headerLength, packet.getLength(), ipBytes, packet.getPort());
+        return frame;
+    }
 
-        // 🔥 返回一个副本，因为ByteBuffer的内部数组会被重用
-        return Arrays.copyOf(serializationBuffer.array(), serializationBuffer.position());
+    /**
+     * 就地解析一个数据报帧，让 target 直接指向帧内的负载，不拷贝也不创建新对象。
+     *
+     * @return false 表示帧不合法，target 保持不变
+     */
+    static boolean decodeInto(byte[] frame, int offset, int length, DatagramPacket target) {
+        int payload = payloadOffset(frame, offset, length);
+        if (payload < 0) return false;
+        target.setData(frame, payload, readInt(frame, offset + 4));
+        return true;
     }
 
     /**
@@ -147,24 +299,30 @@ public class UDPTransformer implements Runnable {
      */
     private void transferDataToLocalServer() {
         try {
-            byte[] data;
-            while ((data = secureSocket.receiveByte()) != null) {
-                DatagramPacket datagramPacket = deserializeToDatagramPacket(data);
-                if (datagramPacket != null) {
-                    DatagramPacket outgoingPacket = new DatagramPacket(
-                            datagramPacket.getData(),
-                            datagramPacket.getLength(),
-                            InetAddress.getByName(localDomainName),
-                            localPort
-                    );
-                    plainSocket.send(outgoingPacket);
-                }
+            ReceivedFrame frame = new ReceivedFrame();
+            while (neoChannel.receive(frame)) {
+                int datagramCount = unpack(frame.array(), frame.offset(), frame.length(), sendToLocal);
+                DatagramBatcher.recordFrame(TrafficShaper.DOWNLOAD, datagramCount);
             }
         } catch (Exception e) {
             Debugger.debugOperation(e);
         }
     }
 
+    private void sendToLocalServer(byte[] frame, int offset, int length) throws IOException {
+        if (!decodeInto(frame, offset, length, outgoingPacket)) {
+            Debugger.debugOperation("Dropping malformed UDP frame of " + length + " bytes.");
+            return;
+        }
+        outgoingPacket.setAddress(DnsCache.resolve(localDomainName));
+        outgoingPacket.setPort(localPort);
+        plainSocket.send(outgoingPacket);
+        if (idleTimeout != null) idleTimeout.touch();
+        TunnelMetrics.addDownloadBytes(outgoingPacket.getLength());
+        transferredBytes += outgoingPacket.getLength();
+        if (shaper != null) shaper.pace(TrafficShaper.DOWNLOAD, outgoingPacket.getLength());
+    }
+
     @Override
     public void run() {
         try {
@@ -177,7 +335,37 @@ public class UDPTransformer implements Runnable {
             Debugger.debugOperation(e);
         } finally {
             // 最终修复：无论正常结束还是异常结束，都确保关闭资源
-            close(plainSocket, secureSocket);
+            close(plainSocket, neoChannel);
+        }
+    }
+
+    /**
+     * 接收一个普通数据报帧，帧数据为 frame 中 [offset, offset + length) 的部分。
+     */
+    @FunctionalInterface
+    interface DatagramHandler {
+        void onDatagram(byte[] frame, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 在接收缓冲区中就地封帧：数据报位于预留的帧头空间之后，帧头写在负载之前。
+     * 来源地址的字节只在地址变化时重新获取（InetAddress.getAddress 每次都会复制数组），一个实例只属于一个转发方向。
+     */
+    static final class InPlaceEncoder {
+        private InetAddress cachedAddress;
+        private byte[] cachedIpBytes;
+
+        /**
+         * @param packet 负载前至少预留 {@link #MAX_HEADER_LENGTH} 字节
+         * @return 帧在 packet.getData() 中的起始偏移，帧在负载末尾结束
+         */
+        int encode(DatagramPacket packet) {
+            InetAddress address = packet.getAddress();
+            if (!address.equals(cachedAddress)) {
+                cachedAddress = address;
+                cachedIpBytes = address.getAddress();
+            }
+            return writeHeaderBefore(packet.getData(), packet.getOffset(), packet.getLength(), cachedIpBytes, packet.getPort());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package neoproxy.neolink.threads;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * UDP 会话空闲回收：UDP 没有连接结束的概念，访客离开后会话及其套接字、转发线程或缓冲区会一直保留到传输连接断开。
+ * 每个会话在一个共享的 {@link HashedTimingWheel} 中登记一个超时任务，任一方向转发数据报时只记下当前刻度；
+ * 任务到期时若期间有过活动则按剩余时间重新调度，否则执行回收动作（关闭套接字与传输通道）。
+ * <p>
+ * 超时时间默认 DEFAULT_SECONDS 秒，可按本地服务端口覆盖；为 0 表示不回收。活动只记录到刻度 (1 秒)，
+ * 因此多等一个刻度：会话实际空闲至少满超时时间才会被回收，最迟晚两个刻度。
+ */
+public final class UdpIdleTimeout extends HashedTimingWheel.Task {
+    public static long DEFAULT_SECONDS = 120;
+    // 本地端口 -> 超时秒数，覆盖 DEFAULT_SECONDS
+    public static final Map<Integer, Long> PORT_OVERRIDES = new ConcurrentHashMap<>();
+
+    private static final HashedTimingWheel wheel = new HashedTimingWheel("NeoLink-UDP-IdleWheel", 1000);
+    private static final LongAdder evictions = new LongAdder();
+
+    private final long timeoutTicks; // 含多等的一个刻度
+    private final Runnable onIdle;
+    private final String description;
+    private volatile long lastActiveTick;
+    private volatile boolean finished = false;
+
+    private UdpIdleTimeout(long timeoutTicks, Runnable onIdle, String description) {
+        this.timeoutTicks = timeoutTicks;
+        this.onIdle = onIdle;
+        this.description = description;
+        this.lastActiveTick = wheel.currentTick();
+    }
+
+    /**
+     * 解析 "端口:秒数" 的逗号分隔列表，如 "27015:600,3478:30"，替换现有的覆盖项。
+     */
+    public static void setPortOverrides(String spec) {
+        PORT_OVERRIDES.clear();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            String[] parts = entry.trim().split(":");
+            try {
+                PORT_OVERRIDES.put(Integer.parseInt(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } catch (RuntimeException e) {
+                debugOperation("Ignoring invalid UDP idle timeout override: " + entry);
+            }
+        }
+    }
+
+    public static long getTimeoutSeconds(int localPort) {
+        return PORT_OVERRIDES.getOrDefault(localPort, DEFAULT_SECONDS);
+    }
+
+    /**
+     * 开始跟踪一个会话，会话正常结束时必须调用 {@link #cancel()}。
+     *
+     * @param onIdle 空闲超时后在时间轮线程中执行，应关闭会话的套接字与传输通道，不能阻塞
+     * @return 该端口未启用空闲回收时为 null
+     */
+    public static UdpIdleTimeout track(int localPort, String description, Runnable onIdle) {
+        long seconds = getTimeoutSeconds(localPort);
+        if (seconds <= 0) return null;
+        long timeoutTicks = Math.max(1, seconds * 1_000_000_000L / wheel.getTickNanos()) + 1;
+        UdpIdleTimeout timeout = new UdpIdleTimeout(timeoutTicks, onIdle, description);
+        wheel.schedule(timeout, timeoutTicks);
+        return timeout;
+    }
+
+    /**
+     * 记录一次活动，每个数据报调用一次：同一刻度内只有一次 volatile 读，不加锁也不触碰时间轮。
+     */
+    public void touch() {
+        long tick = wheel.currentTick();
+        if (lastActiveTick != tick) lastActiveTick = tick;
+    }
+
+    public void cancel() {
+        finished = true;
+        wheel.cancel(this);
+    }
+
+    @Override
+    protected void expire() {
+        if (finished) return;
+        long idleTicks = wheel.currentTick() - lastActiveTick;
+        if (idleTicks < timeoutTicks) {
+            wheel.schedule(this, timeoutTicks - idleTicks);
+            return;
+        }
+        finished = true;
+        evictions.increment();
+        debugOperation("Evicting idle UDP session " + description + " idle for over " + (idleTicks - 1) + "s.");
+        onIdle.run();
+    }
+
+    public static long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return 当前正在跟踪的会话数
+     */
+    public static int getTrackedCount() {
+        return wheel.size();
+    }
+}
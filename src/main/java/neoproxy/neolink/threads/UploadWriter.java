@@ -0,0 +1,55 @@
+package neoproxy.neolink.threads;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static neoproxy.neolink.Debugger.debugOperation;
+
+/**
+ * 事件循环模式下一条隧道的 Local -> Neo 写出器。
+ * 传输连接的 sendByte 会阻塞（加密写出、等待发送缓冲区），不能在循环线程中执行：
+ * 循环线程读到数据后停止关注 OP_READ 并把发送交给写出器，发送完成后再回到循环线程恢复读取，
+ * 因此一条隧道同一时间只有一次发送在途，慢的 Neo 侧只会拖住自己的本地读取。
+ * <p>
+ * 任务按提交顺序在 {@link TunnelExecutor} 的短任务线程上逐个执行，空闲时不占用线程。
+ * 任务抛出异常时关闭所属隧道，后续任务照常执行以便释放各自持有的资源。
+ */
+final class UploadWriter {
+    interface Task {
+        void run() throws IOException;
+    }
+
+    private final Runnable onFailure;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**
+     * @param onFailure 任务失败时执行，通常为关闭所属隧道
+     */
+    UploadWriter(Runnable onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    void submit(Task task) {
+        tasks.offer(task);
+        if (draining.compareAndSet(false, true)) TunnelExecutor.execute(this::drain);
+    }
+
+    private void drain() {
+        do {
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    debugOperation(e);
+                    onFailure.run();
+                }
+            }
+            draining.set(false);
+            // 释放标记与新任务入队之间存在竞争，队列非空且抢到标记时继续执行
+        } while (!tasks.isEmpty() && draining.compareAndSet(false, true));
+    }
+}
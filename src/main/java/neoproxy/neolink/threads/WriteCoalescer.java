@@ -0,0 +1,76 @@
+package neoproxy.neolink.threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local -> Neo 方向的写合并：后端连续写出的小段数据先攒在同一个缓冲区里，
+ * 达到 THRESHOLD 字节或等待超过 DELAY_MICROS 微秒（先到者为准）后再作为一帧加密发送，
+ * 减少每帧的加密与帧头开销。默认关闭；对延迟敏感的隧道可以用 --no-coalesce 强制关闭。
+ */
+public final class WriteCoalescer {
+    public static boolean ENABLED = false;
+    public static boolean FORCE_DISABLED = false;
+    public static int THRESHOLD = 16 * 1024;
+    public static long DELAY_MICROS = 200;
+
+    // 等待期间每次让出 CPU 的最长时间，避免空转
+    private static final long PARK_NANOS = 20_000;
+
+    private static final LongAdder framesSent = new LongAdder();
+    private static final LongAdder bytesSent = new LongAdder();
+
+    private WriteCoalescer() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED && !FORCE_DISABLED && DELAY_MICROS > 0;
+    }
+
+    /**
+     * 在截止时间前继续读取已到达的数据，直到缓冲区中有 THRESHOLD 字节或 limit 已满。
+     *
+     * @param filled 缓冲区中已有的字节数
+     * @param limit  本次允许填充的上限
+     * @return 合并后缓冲区中的字节数
+     */
+    static int fill(InputStream input, byte[] buffer, int filled, int limit) throws IOException {
+        int target = Math.min(THRESHOLD, Math.min(limit, buffer.length));
+        if (filled >= target) return filled;
+        long deadline = System.nanoTime() + DELAY_MICROS * 1000;
+        while (filled < target) {
+            int bytesRead = TCPTransformer.readAvailable(input, buffer, filled, target);
+            if (bytesRead > 0) {
+                filled += bytesRead;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            LockSupport.parkNanos(Math.min(remaining, PARK_NANOS));
+        }
+        return filled;
+    }
+
+    static void recordFrame(int length) {
+        framesSent.increment();
+        bytesSent.add(length);
+    }
+
+    public static long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    /**
+     * @return 平均每帧字节数占 THRESHOLD 的比例
+     */
+    public static double getAverageFill() {
+        long frames = framesSent.sum();
+        return frames == 0 ? 0 : (double) bytesSent.sum() / frames / THRESHOLD;
+    }
+
+    public static String describe() {
+        return "frames=" + getFramesSent() + ", avgFill=" + String.format("%.1f%%", getAverageFill() * 100);
+    }
+}